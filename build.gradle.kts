@@ -8,6 +8,7 @@ import org.gradle.kotlin.dsl.support.serviceOf
 plugins {
     java
     application
+    alias(libs.plugins.jmh)
     alias(libs.plugins.spring.nullability)
 }
 
@@ -52,9 +53,11 @@ val jlink = tasks.register<JlinkTask>("jlink") {
 
     options = listOf("--strip-debug", "--no-header-files", "--no-man-pages", "--ignore-modified-runtime")
     modules = listOf(
+            "java.desktop",    // for image decoding
             "java.instrument", // for junit
             "java.naming",     // for logback
             "java.sql",        // for tika
+            "jdk.httpserver",  // for the webhook
             "jdk.unsupported"  // for gson
     )
     includeModulePath = false
@@ -76,6 +79,14 @@ tasks.named<JavaCompile>(JavaPlugin.COMPILE_TEST_JAVA_TASK_NAME) {
     options.nullability.checking = "tests"
 }
 
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.nullability.checking = "tests"
+}
+
+jmh {
+    jvmArgs = listOf("-XX:+UseCompactObjectHeaders")
+}
+
 tasks.test {
     inputs.dir(jlink.map { it.outputDirectory.get().asFile })
     javaLauncher = providers.provider { JlinkJavaLauncher(jlink.get()) }
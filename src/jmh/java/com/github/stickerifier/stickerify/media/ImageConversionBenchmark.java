@@ -0,0 +1,55 @@
+package com.github.stickerifier.stickerify.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares converting a static image to a WebP sticker in process against converting it through ffmpeg.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImageConversionBenchmark {
+
+	private static final String RESOURCES_FOLDER = "src/test/resources";
+
+	@Param({ "detailed.jpg", "valid.png", "small_image.png" })
+	private String fileName = "detailed.jpg";
+
+	private File image = new File(RESOURCES_FOLDER, fileName);
+	private String mimeType = "image/jpeg";
+	private ImageHeader.Dimensions dimensions = new ImageHeader.Dimensions(1, 1);
+
+	@Setup
+	public void setup() throws Exception {
+		image = new File(RESOURCES_FOLDER, fileName);
+		mimeType = fileName.endsWith(".png") ? "image/png" : "image/jpeg";
+		dimensions = Objects.requireNonNull(ImageHeader.read(image));
+	}
+
+	@Benchmark
+	public byte[] inProcess() throws Exception {
+		return Objects.requireNonNull(InProcessImageConverter.convert(image, dimensions));
+	}
+
+	@Benchmark
+	public ConvertedMedia ffmpeg() throws Exception {
+		return MediaHelper.convertToWebp(image, mimeType);
+	}
+}
@@ -0,0 +1,51 @@
+package com.github.stickerifier.stickerify.media;
+
+import org.jspecify.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the dimensions of an image from its header against retrieving them through ffprobe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageHeaderBenchmark {
+
+	private static final String RESOURCES_FOLDER = "src/test/resources";
+
+	@Param({ "big.png", "big.jpg", "static.webp" })
+	private String fileName = "big.png";
+
+	private File image = new File(RESOURCES_FOLDER, fileName);
+
+	@Setup
+	public void setup() {
+		image = new File(RESOURCES_FOLDER, fileName);
+	}
+
+	@Benchmark
+	public ImageHeader.@Nullable Dimensions headerParser() throws Exception {
+		return ImageHeader.read(image);
+	}
+
+	@Benchmark
+	public MediaHelper.MultimediaInfo ffprobe() throws Exception {
+		return MediaHelper.retrieveMultimediaInfo(image);
+	}
+}
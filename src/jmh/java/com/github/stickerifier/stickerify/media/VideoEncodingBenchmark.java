@@ -0,0 +1,110 @@
+package com.github.stickerifier.stickerify.media;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two-pass and the single-pass encodings of videos: the score is the latency of each conversion,
+ * while the auxiliary counters report the CPU seconds spent by ffmpeg and how many results were compliant.
+ * <p>
+ * CPU time is read from the time accounted to the terminated children of the JVM, so it's only reported on Linux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VideoEncodingBenchmark {
+
+	private static final String RESOURCES_FOLDER = "src/test/resources";
+	private static final Path PROCESS_STAT = Path.of("/proc/self/stat");
+	/**
+	 * The frequency of the clock used by the kernel to account CPU time, fixed to 100 Hz on Linux.
+	 */
+	private static final double CLOCK_TICKS_PER_SECOND = 100D;
+	private static final int CHILDREN_USER_TIME_FIELD = 13;
+	private static final int CHILDREN_SYSTEM_TIME_FIELD = 14;
+
+	@Param({ "highly_accurate_fps_count.mp4", "vertical_video_sticker.webm", "small_video_sticker.webm", "valid.gif" })
+	private String fileName = "highly_accurate_fps_count.mp4";
+
+	@Param({ "TWO_PASS", "SINGLE_PASS" })
+	private VideoEncoding videoEncoding = VideoEncoding.TWO_PASS;
+
+	private File video = new File(RESOURCES_FOLDER, fileName);
+
+	@Setup
+	public void setup() {
+		video = new File(RESOURCES_FOLDER, fileName);
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Metrics {
+		public double cpuSeconds;
+		public long compliant;
+		public long converted;
+
+		private double childrenCpuSecondsAtStart;
+
+		@Setup(Level.Invocation)
+		public void start() throws IOException {
+			childrenCpuSecondsAtStart = childrenCpuSeconds();
+		}
+
+		@TearDown(Level.Invocation)
+		public void stop() throws IOException {
+			cpuSeconds += childrenCpuSeconds() - childrenCpuSecondsAtStart;
+		}
+	}
+
+	@Benchmark
+	public File convert(Metrics metrics) throws Exception {
+		var webmVideo = MediaHelper.convertToWebm(video, videoEncoding);
+
+		metrics.converted++;
+		if (MediaHelper.isVideoCompliant(webmVideo)) {
+			metrics.compliant++;
+		}
+
+		Files.delete(webmVideo.toPath());
+
+		return webmVideo;
+	}
+
+	/**
+	 * Reads the CPU time spent by the children of the JVM which have already been waited for.
+	 *
+	 * @return the user and system time of the terminated children in seconds, or 0 if it isn't available
+	 */
+	private static double childrenCpuSeconds() throws IOException {
+		if (!Files.isReadable(PROCESS_STAT)) {
+			return 0;
+		}
+
+		var stat = Files.readString(PROCESS_STAT);
+		var fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+		var ticks = Long.parseLong(fields[CHILDREN_USER_TIME_FIELD]) + Long.parseLong(fields[CHILDREN_SYSTEM_TIME_FIELD]);
+
+		return ticks / CLOCK_TICKS_PER_SECOND;
+	}
+}
@@ -0,0 +1,280 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.dispatch.RequestDispatcher;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.github.stickerifier.stickerify.queue.DirectoryWorkQueue;
+import com.github.stickerifier.stickerify.queue.WorkQueue;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Hands the requests still in progress when the bot stops over to the instance replacing it,
+ * so that a restart neither loses nor repeats the conversions which were running.
+ * <p>
+ * The bot stops receiving requests right away, and hands off the ones not started yet.
+ * The running ones are given {@code drainTimeout} to complete, after which they are handed off and cancelled,
+ * unless they already started sending their answer: those are always waited for, so no request is answered twice.
+ * A request handed off is put into a work queue: the one of the workers if the bot is a worker,
+ * the {@code handoffQueue} otherwise, whose requests are resumed by the next instance as soon as it starts.
+ * <p>
+ * The requests claimed from a work queue whose lease expired are abandoned the same way, since they are
+ * already back in the queue for another worker.
+ */
+public final class Handoff {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(Handoff.class);
+
+	/**
+	 * The description of the failure of the Telegram requests sent on behalf of a request already handed off.
+	 */
+	static final String HANDED_OFF = "The request was handed off to another instance";
+
+	private static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(8);
+	private static final Duration HANDOFF_LEASE_DURATION = Duration.ofMinutes(1);
+
+	private final Duration drainTimeout;
+	private final @Nullable WorkQueue handoffQueue;
+	private final Set<RunningRequest> requests = ConcurrentHashMap.newKeySet();
+
+	private final LongAdder handedOffQueued = new LongAdder();
+	private final LongAdder handedOffRunning = new LongAdder();
+	private final LongAdder abandoned = new LongAdder();
+
+	/**
+	 * @param drainTimeout how long the running requests are given to complete when the bot stops
+	 * @param handoffQueue the queue the requests are handed off to, or {@code null} to wait for all of them to complete
+	 */
+	public Handoff(Duration drainTimeout, @Nullable WorkQueue handoffQueue) {
+		this.drainTimeout = drainTimeout;
+		this.handoffQueue = handoffQueue;
+	}
+
+	/**
+	 * Creates the handoff into the directory set by the {@code HANDOFF_PATH} environment variable,
+	 * giving the running requests the seconds set by {@code DRAIN_TIMEOUT} (defaults to 8) to complete.
+	 * If the directory isn't set, the requests are handed off only to the work queue of the workers.
+	 *
+	 * @return the configured handoff
+	 * @throws IllegalArgumentException if the timeout is not valid
+	 */
+	public static Handoff fromEnvironment() {
+		var drainTimeout = Environment.getSeconds("DRAIN_TIMEOUT", DEFAULT_DRAIN_TIMEOUT);
+		var directory = Environment.getString("HANDOFF_PATH");
+		if (directory == null) {
+			return new Handoff(drainTimeout, null);
+		}
+
+		try {
+			return new Handoff(drainTimeout, DirectoryWorkQueue.open(Path.of(directory), HANDOFF_LEASE_DURATION));
+		} catch (IOException e) {
+			LOGGER.at(Level.ERROR).setCause(e).log("Unable to open the handoff directory, requests will be waited for when stopping");
+			return new Handoff(drainTimeout, null);
+		}
+	}
+
+	/**
+	 * Starts answering the requests handed off by the previous instances, including the ones handed off from now on.
+	 *
+	 * @param dispatcher the consumer answering each request, which has to run the action passed along once it's answered
+	 */
+	void resume(BiConsumer<TelegramRequest, Runnable> dispatcher) {
+		if (handoffQueue != null) {
+			QueueWorker.fromEnvironment(handoffQueue).start(dispatcher, this::abandon);
+		}
+	}
+
+	/**
+	 * Keeps track of a request until it's answered.
+	 *
+	 * @param request the request
+	 * @param onAnswered the action to run once the request is answered, or once it's handed off
+	 * @return the tracked request
+	 */
+	RunningRequest track(TelegramRequest request, Runnable onAnswered) {
+		var runningRequest = new RunningRequest(request, onAnswered);
+		requests.add(runningRequest);
+
+		return runningRequest;
+	}
+
+	/**
+	 * Stops the dispatcher, handing off its requests if there's a queue to put them into.
+	 *
+	 * @param requestDispatcher the dispatcher running the requests
+	 * @param workQueue the queue of the workers, preferred to the handoff one if set
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the requests
+	 */
+	void drain(RequestDispatcher requestDispatcher, @Nullable WorkQueue workQueue) throws InterruptedException {
+		if (handoffQueue != null) {
+			handoffQueue.close();
+		}
+
+		var target = workQueue == null ? handoffQueue : workQueue;
+		if (target == null) {
+			requestDispatcher.close();
+			return;
+		}
+
+		List.copyOf(requests).forEach(request -> handOff(request, target, RunningRequest.QUEUED));
+
+		if (!requestDispatcher.drain(drainTimeout)) {
+			LOGGER.at(Level.INFO).log("Handing off the requests still running after {} seconds", drainTimeout.toSeconds());
+			List.copyOf(requests).forEach(request -> handOff(request, target, RunningRequest.RUNNING));
+		}
+
+		requestDispatcher.close();
+	}
+
+	private void handOff(RunningRequest request, WorkQueue target, int state) {
+		if (!request.state.compareAndSet(state, RunningRequest.HANDED_OFF)) {
+			return;
+		}
+
+		try {
+			target.offer(request.request);
+		} catch (IOException e) {
+			LOGGER.at(Level.ERROR).setCause(e).log("Unable to hand off a request, leaving it to the update journal or to the expiry of its lease");
+			request.cancel();
+			return;
+		}
+
+		// the queue is now responsible for the request
+		request.onAnswered.run();
+		request.cancel();
+		(state == RunningRequest.QUEUED ? handedOffQueued : handedOffRunning).increment();
+	}
+
+	/**
+	 * Cancels a request claimed from a work queue whose lease couldn't be renewed, so that it isn't answered
+	 * along with the worker claiming it again. Like a handed off request, it's interrupted and mustn't be answered,
+	 * unless it already started sending its answer; its {@code onAnswered} action isn't run.
+	 *
+	 * @param request the request whose lease expired
+	 * @return {@code true} if the request was abandoned, {@code false} if it's answered anyway or isn't tracked
+	 */
+	boolean abandon(TelegramRequest request) {
+		for (var runningRequest : requests) {
+			if (runningRequest.request != request) {
+				continue;
+			}
+
+			var state = runningRequest.state;
+			if (state.compareAndSet(RunningRequest.QUEUED, RunningRequest.HANDED_OFF) || state.compareAndSet(RunningRequest.RUNNING, RunningRequest.HANDED_OFF)) {
+				requests.remove(runningRequest);
+				runningRequest.cancel();
+				abandoned.increment();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public Stats stats() {
+		return new Stats(handedOffQueued.sum(), handedOffRunning.sum(), abandoned.sum(), handoffQueue == null ? null : handoffQueue.stats());
+	}
+
+	/**
+	 * Snapshot of the handoff counters.
+	 *
+	 * @param handedOffQueued the requests handed off before they started
+	 * @param handedOffRunning the requests handed off after running past the drain timeout
+	 * @param abandoned the requests given up because their lease expired
+	 * @param handoffQueue the counters of the handoff queue, or {@code null} if there's none
+	 */
+	public record Stats(long handedOffQueued, long handedOffRunning, long abandoned, WorkQueue.@Nullable Stats handoffQueue) {}
+
+	/**
+	 * A request tracked from the moment it's submitted to the dispatcher until it's answered or handed off.
+	 * Whichever of the two happens first is the only one taking effect.
+	 */
+	final class RunningRequest {
+
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int REPLYING = 2;
+		private static final int DONE = 3;
+		private static final int HANDED_OFF = 4;
+
+		private final TelegramRequest request;
+		private final Runnable onAnswered;
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+		private @Nullable Thread thread;
+
+		private RunningRequest(TelegramRequest request, Runnable onAnswered) {
+			this.request = request;
+			this.onAnswered = onAnswered;
+		}
+
+		/**
+		 * Marks the request as started by the current thread.
+		 *
+		 * @return {@code false} if the request was handed off and mustn't be answered
+		 */
+		synchronized boolean start() {
+			thread = Thread.currentThread();
+
+			return state.compareAndSet(QUEUED, RUNNING);
+		}
+
+		/**
+		 * @return whether the request was handed off, so that its answers mustn't be sent
+		 */
+		boolean isHandedOff() {
+			return state.get() == HANDED_OFF;
+		}
+
+		/**
+		 * Marks the request as sending its answer, so that it can't be handed off anymore.
+		 *
+		 * @return {@code false} if the request was handed off and mustn't be answered
+		 */
+		boolean reply() {
+			return state.compareAndSet(RUNNING, REPLYING) || state.get() == REPLYING;
+		}
+
+		/**
+		 * Stops tracking the request once it has been answered, or once it gave up because it was handed off.
+		 */
+		void finish() {
+			synchronized (this) {
+				thread = null;
+				if (state.get() == HANDED_OFF) {
+					// clears the interruption of the cancellation, so it doesn't leak into the next task of the thread
+					Thread.interrupted();
+				}
+			}
+
+			requests.remove(this);
+			if (state.compareAndSet(RUNNING, DONE) || state.compareAndSet(REPLYING, DONE)) {
+				onAnswered.run();
+			}
+		}
+
+		/**
+		 * Stops tracking a request which was never started, since it was refused.
+		 */
+		void discard() {
+			state.set(DONE);
+			requests.remove(this);
+		}
+
+		private synchronized void cancel() {
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+	}
+}
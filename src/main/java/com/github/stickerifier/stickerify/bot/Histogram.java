@@ -0,0 +1,60 @@
+package com.github.stickerifier.stickerify.bot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, counted in buckets whose bounds are powers of two
+ * so that recording a value never locks and takes constant memory.
+ * The percentiles are reported as the upper bound of the bucket they fall in.
+ */
+final class Histogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+	/**
+	 * @param value the value to count, negative values being counted as 0
+	 */
+	void record(long value) {
+		buckets.incrementAndGet(value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value));
+	}
+
+	Snapshot snapshot() {
+		var counts = new long[buckets.length()];
+		long count = 0;
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			counts[bucket] = buckets.get(bucket);
+			count += counts[bucket];
+		}
+
+		return new Snapshot(count, percentile(counts, count, 0.5), percentile(counts, count, 0.9), percentile(counts, count, 0.99));
+	}
+
+	private static long percentile(long[] counts, long count, double quantile) {
+		var rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank && seen > 0) {
+				return upperBound(bucket);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @return the highest value counted in the bucket: bucket {@code n} counts the values below {@code 2^n}
+	 */
+	private static long upperBound(int bucket) {
+		return bucket == Long.SIZE ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * @param count the number of values counted
+	 * @param p50 the median of the values
+	 * @param p90 the 90th percentile of the values
+	 * @param p99 the 99th percentile of the values
+	 */
+	public record Snapshot(long count, long p50, long p90, long p99) {}
+}
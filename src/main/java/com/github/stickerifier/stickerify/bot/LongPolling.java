@@ -0,0 +1,238 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.pengrad.telegrambot.ExceptionHandler;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.TelegramException;
+import com.pengrad.telegrambot.UpdatesListener;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.request.DeleteWebhook;
+import com.pengrad.telegrambot.request.GetUpdates;
+import com.pengrad.telegrambot.response.GetUpdatesResponse;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Receives the updates by asking Telegram for them with long polling requests.
+ * <p>
+ * A new request is sent as soon as the previous batch has been dispatched, and the batches grow up to
+ * the maximum allowed by Telegram while they come back full, so that a backlog is drained without pauses.
+ * The polling only pauses after a failure, or after a batch the listener didn't confirm,
+ * for a time doubling with each consecutive one.
+ */
+final class LongPolling implements UpdateSource {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(LongPolling.class);
+
+	private static final int POLL_TIMEOUT_SECONDS = 50;
+	private static final int MIN_BATCH_SIZE = 10;
+	private static final int MAX_BATCH_SIZE = 100;
+	private static final Duration MIN_BACKOFF = Duration.ofMillis(100);
+	private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+	private final LongAdder polls = new LongAdder();
+	private final LongAdder failedPolls = new LongAdder();
+	private final Histogram batchSizes = new Histogram();
+	private final Histogram dispatchLatencies = new Histogram();
+
+	private final Object lock = new Object();
+	private boolean running;
+	private boolean dispatching;
+	private @Nullable Thread poller;
+
+	/**
+	 * Deletes the webhook, since Telegram refuses to answer polling requests while one is set, then starts polling.
+	 *
+	 * @throws IllegalStateException if Telegram refuses to delete the webhook
+	 */
+	@Override
+	public void start(TelegramBot bot, UpdatesListener listener, ExceptionHandler exceptionHandler) {
+		var response = bot.execute(new DeleteWebhook());
+		if (!response.isOk()) {
+			throw new IllegalStateException("Unable to delete the webhook: " + response.description());
+		}
+
+		synchronized (lock) {
+			running = true;
+			poller = Thread.ofVirtual().name("Poller").start(() -> poll(bot, listener, exceptionHandler));
+		}
+	}
+
+	private void poll(TelegramBot bot, UpdatesListener listener, ExceptionHandler exceptionHandler) {
+		var offset = 0;
+		var batchSize = MIN_BATCH_SIZE;
+		var backoff = Duration.ZERO;
+
+		while (isRunning()) {
+			var updates = fetch(bot, offset, batchSize, exceptionHandler);
+			var receivedAt = System.nanoTime();
+
+			if (updates == null) {
+				if (!isRunning()) {
+					break;
+				}
+
+				failedPolls.increment();
+				backoff = nextBackoff(backoff);
+				if (!pause(backoff)) {
+					break;
+				}
+
+				continue;
+			}
+
+			if (updates.isEmpty()) {
+				backoff = Duration.ZERO;
+				continue;
+			}
+
+			var confirmed = dispatch(listener, updates, exceptionHandler);
+			if (confirmed == null) {
+				break;
+			}
+
+			if (confirmed == UpdatesListener.CONFIRMED_UPDATES_NONE) {
+				// the listener couldn't take the batch, which is polled again once it had time to recover
+				backoff = nextBackoff(backoff);
+				if (!pause(backoff)) {
+					break;
+				}
+
+				continue;
+			}
+
+			backoff = Duration.ZERO;
+
+			dispatchLatencies.record(Duration.ofNanos(System.nanoTime() - receivedAt).toMillis());
+			batchSizes.record(updates.size());
+
+			offset = nextOffset(updates, confirmed, offset);
+			batchSize = updates.size() >= batchSize ? Math.min(batchSize * 2, MAX_BATCH_SIZE) : Math.max(batchSize / 2, MIN_BATCH_SIZE);
+		}
+	}
+
+	private boolean isRunning() {
+		synchronized (lock) {
+			return running;
+		}
+	}
+
+	/**
+	 * Passes the updates to the listener, marking the poller as busy so that closing doesn't interrupt the listener.
+	 *
+	 * @return the last update confirmed by the listener, or {@code null} if the polling was stopped before dispatching
+	 */
+	private @Nullable Integer dispatch(UpdatesListener listener, List<Update> updates, ExceptionHandler exceptionHandler) {
+		synchronized (lock) {
+			if (!running) {
+				return null;
+			}
+			dispatching = true;
+		}
+
+		try {
+			return listener.process(updates);
+		} catch (RuntimeException e) {
+			exceptionHandler.onException(new TelegramException(e));
+			return UpdatesListener.CONFIRMED_UPDATES_ALL;
+		} finally {
+			synchronized (lock) {
+				dispatching = false;
+			}
+		}
+	}
+
+	/**
+	 * @return the updates, or {@code null} if the request failed
+	 */
+	private @Nullable List<Update> fetch(TelegramBot bot, int offset, int batchSize, ExceptionHandler exceptionHandler) {
+		polls.increment();
+
+		GetUpdatesResponse response;
+		try {
+			response = bot.execute(new GetUpdates().offset(offset).limit(batchSize).timeout(POLL_TIMEOUT_SECONDS));
+		} catch (RuntimeException e) {
+			if (isRunning()) {
+				exceptionHandler.onException(new TelegramException(e));
+			}
+			return null;
+		}
+
+		if (!response.isOk() || response.updates() == null) {
+			exceptionHandler.onException(new TelegramException("getUpdates failed: " + response.description(), response));
+			return null;
+		}
+
+		return response.updates();
+	}
+
+	/**
+	 * @return the offset acknowledging the updates the listener confirmed
+	 */
+	private static int nextOffset(List<Update> updates, int confirmed, int offset) {
+		return switch (confirmed) {
+			case UpdatesListener.CONFIRMED_UPDATES_ALL -> updates.getLast().updateId() + 1;
+			case UpdatesListener.CONFIRMED_UPDATES_NONE -> offset;
+			default -> confirmed + 1;
+		};
+	}
+
+	private static Duration nextBackoff(Duration backoff) {
+		return backoff.isZero() ? MIN_BACKOFF : min(backoff.multipliedBy(2), MAX_BACKOFF);
+	}
+
+	/**
+	 * @return {@code false} if the polling was stopped while pausing
+	 */
+	private static boolean pause(Duration backoff) {
+		try {
+			Thread.sleep(backoff);
+			return true;
+		} catch (InterruptedException _) {
+			return false;
+		}
+	}
+
+	private static Duration min(Duration first, Duration second) {
+		return first.compareTo(second) <= 0 ? first : second;
+	}
+
+	/**
+	 * Stops the polling: a pending request is interrupted, while the updates being dispatched are let through.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			running = false;
+			if (poller != null && !dispatching) {
+				poller.interrupt();
+			}
+		}
+
+		if (poller != null) {
+			try {
+				poller.join();
+			} catch (InterruptedException _) {
+				Thread.currentThread().interrupt();
+				LOGGER.at(Level.WARN).log("Interrupted while waiting for the poller to stop");
+			}
+		}
+	}
+
+	Stats stats() {
+		return new Stats(polls.sum(), failedPolls.sum(), batchSizes.snapshot(), dispatchLatencies.snapshot());
+	}
+
+	/**
+	 * @param polls the requests sent to Telegram
+	 * @param failedPolls the requests which failed, each followed by a pause
+	 * @param batchSizes the number of updates of the batches received
+	 * @param dispatchLatencyMillis the time between receiving a batch and having dispatched its updates,
+	 * which excludes the time the request waited for updates to arrive
+	 */
+	public record Stats(long polls, long failedPolls, Histogram.Snapshot batchSizes, Histogram.Snapshot dispatchLatencyMillis) {}
+}
@@ -0,0 +1,116 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.github.stickerifier.stickerify.queue.WorkQueue;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import org.slf4j.event.Level;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Claims the requests from the work queue and hands them to the bot, keeping their leases alive until they are answered.
+ * <p>
+ * Only as many requests as the worker can answer at once are claimed, so that the others are left to idle workers.
+ * A request whose lease can't be renewed is abandoned, since it's back in the queue for another worker.
+ * The worker stops claiming requests once the queue is closed.
+ */
+final class QueueWorker {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(QueueWorker.class);
+
+	private final WorkQueue workQueue;
+	private final Semaphore permits;
+	private final Set<WorkQueue.Lease> leases = ConcurrentHashMap.newKeySet();
+	private volatile boolean claiming;
+
+	/**
+	 * @param workQueue the queue to claim the requests from
+	 * @param concurrency how many requests can be answered at once
+	 */
+	QueueWorker(WorkQueue workQueue, int concurrency) {
+		this.workQueue = workQueue;
+		this.permits = new Semaphore(concurrency);
+	}
+
+	/**
+	 * Creates the worker answering as many requests at once as set by the {@code WORKER_CONCURRENCY} environment variable
+	 * (defaults to the number of available processors).
+	 *
+	 * @param workQueue the queue to claim the requests from
+	 * @return the worker
+	 * @throws IllegalArgumentException if the concurrency is not valid
+	 */
+	static QueueWorker fromEnvironment(WorkQueue workQueue) {
+		return new QueueWorker(workQueue, Environment.getInt("WORKER_CONCURRENCY", Runtime.getRuntime().availableProcessors(), 1));
+	}
+
+	/**
+	 * Starts claiming requests.
+	 *
+	 * @param dispatcher the consumer answering each request, which has to run the action passed along once it's answered
+	 * @param abandoner the predicate cancelling a request whose lease expired, telling whether it won't be answered
+	 * and won't run its action
+	 */
+	void start(BiConsumer<TelegramRequest, Runnable> dispatcher, Predicate<TelegramRequest> abandoner) {
+		claiming = true;
+		Thread.ofVirtual().name("Worker").start(() -> claim(dispatcher));
+		Thread.ofVirtual().name("Lease-renewer").start(() -> renewLeases(abandoner));
+	}
+
+	private void claim(BiConsumer<TelegramRequest, Runnable> dispatcher) {
+		try {
+			while (true) {
+				permits.acquire();
+
+				var lease = workQueue.claim();
+				if (lease == null) {
+					break;
+				}
+
+				leases.add(lease);
+				dispatcher.accept(lease.request(), () -> {
+					leases.remove(lease);
+					lease.complete();
+					permits.release();
+				});
+			}
+		} catch (InterruptedException _) {
+			LOGGER.at(Level.WARN).log("Interrupted while claiming requests from the work queue");
+		} finally {
+			claiming = false;
+		}
+	}
+
+	/**
+	 * Renews the leases of the requests being answered three times per lease, until the worker stops.
+	 */
+	private void renewLeases(Predicate<TelegramRequest> abandoner) {
+		var interval = workQueue.leaseDuration().dividedBy(3);
+
+		try {
+			while (claiming || !leases.isEmpty()) {
+				Thread.sleep(interval);
+
+				for (var lease : leases) {
+					if (lease.renew() || !leases.remove(lease)) {
+						continue;
+					}
+
+					if (abandoner.test(lease.request())) {
+						LOGGER.at(Level.WARN).log("The lease of a request expired, leaving it to the worker claiming it again");
+						permits.release();
+					} else {
+						LOGGER.at(Level.WARN).log("The lease of a request expired while it was answered, it might be answered by another worker too");
+					}
+				}
+			}
+		} catch (InterruptedException _) {
+			LOGGER.at(Level.WARN).log("Interrupted while renewing the leases of the work queue");
+		}
+	}
+}
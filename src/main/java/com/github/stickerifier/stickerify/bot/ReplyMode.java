@@ -0,0 +1,38 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.config.Environment;
+
+import java.time.Duration;
+
+/**
+ * How the bot answers the files it converts.
+ * <p>
+ * The standard mode lets the user know right away that the file is being processed, and sends the converted file
+ * followed by a message explaining how to use it. The compact mode saves round trips to Telegram:
+ * the explanation travels as the caption of the file, and the processing message is only sent
+ * if the answer isn't ready within {@code processingMessageDelay} since the request was received.
+ *
+ * @param compact whether the answers use the compact mode
+ * @param processingMessageDelay how long a request can take in compact mode before the processing message is sent
+ */
+public record ReplyMode(boolean compact, Duration processingMessageDelay) {
+
+	public static final ReplyMode STANDARD = new ReplyMode(false, Duration.ZERO);
+
+	private static final Duration DEFAULT_PROCESSING_MESSAGE_DELAY = Duration.ofSeconds(2);
+
+	/**
+	 * Creates the reply mode set by the environment variables {@code COMPACT_REPLIES} (defaults to {@code false})
+	 * and {@code PROCESSING_MESSAGE_DELAY}, in seconds (defaults to 2).
+	 *
+	 * @return the configured reply mode
+	 * @throws IllegalArgumentException if the delay is not valid
+	 */
+	public static ReplyMode fromEnvironment() {
+		if (!Environment.getBoolean("COMPACT_REPLIES", false)) {
+			return STANDARD;
+		}
+
+		return new ReplyMode(true, Environment.getSeconds("PROCESSING_MESSAGE_DELAY", DEFAULT_PROCESSING_MESSAGE_DELAY));
+	}
+}
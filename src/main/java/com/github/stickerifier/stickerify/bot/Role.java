@@ -0,0 +1,46 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.config.Environment;
+
+import java.util.Locale;
+
+/**
+ * The part the process plays in a deployment of the bot.
+ * <p>
+ * Only one process can receive the updates of a bot, so the conversions can be spread across several nodes
+ * by running one of them as the poller, which puts the requests it receives into a shared work queue,
+ * and the others as workers, which claim the requests from the queue and answer them.
+ */
+public enum Role {
+	/**
+	 * Receives the updates and answers them.
+	 */
+	STANDALONE,
+	/**
+	 * Receives the updates and puts their requests into the work queue.
+	 */
+	POLLER,
+	/**
+	 * Answers the requests claimed from the work queue.
+	 */
+	WORKER;
+
+	/**
+	 * Retrieves the role set by the {@code STICKERIFY_ROLE} environment variable (defaults to {@code standalone}).
+	 *
+	 * @return the configured role
+	 * @throws IllegalArgumentException if the role is not valid
+	 */
+	public static Role fromEnvironment() {
+		var role = Environment.getString("STICKERIFY_ROLE");
+		if (role == null) {
+			return STANDALONE;
+		}
+
+		try {
+			return valueOf(role.strip().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException _) {
+			throw new IllegalArgumentException("The STICKERIFY_ROLE environment variable must be standalone, poller or worker");
+		}
+	}
+}
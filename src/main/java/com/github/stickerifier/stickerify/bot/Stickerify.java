@@ -1,22 +1,56 @@
 package com.github.stickerifier.stickerify.bot;
 
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.BITRATE_PLANNER_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.CONVERSION_CACHE_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.CONVERSION_STORE_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.CPU_QUOTAS_LOG_KEY;
 import static com.github.stickerifier.stickerify.logger.StructuredLogger.FILE_ID_VALUE;
 import static com.github.stickerifier.stickerify.logger.StructuredLogger.FILE_PATH_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.HANDOFF_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.IN_FLIGHT_CONVERSIONS_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.LONG_POLLING_LOG_KEY;
 import static com.github.stickerifier.stickerify.logger.StructuredLogger.ORIGINAL_REQUEST_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.PROCESS_SCHEDULER_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.RATE_LIMITER_LOG_KEY;
 import static com.github.stickerifier.stickerify.logger.StructuredLogger.REQUEST_DETAILS_VALUE;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.REQUEST_DISPATCHER_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.UPDATE_JOURNAL_LOG_KEY;
+import static com.github.stickerifier.stickerify.logger.StructuredLogger.WORK_QUEUE_LOG_KEY;
+import static com.github.stickerifier.stickerify.telegram.Answer.BUSY;
+import static com.github.stickerifier.stickerify.telegram.Answer.CPU_QUOTA_EXCEEDED;
 import static com.github.stickerifier.stickerify.telegram.Answer.ERROR;
 import static com.github.stickerifier.stickerify.telegram.Answer.FILE_ALREADY_VALID;
 import static com.github.stickerifier.stickerify.telegram.Answer.FILE_READY;
 import static com.github.stickerifier.stickerify.telegram.Answer.FILE_TOO_LARGE;
 import static com.github.stickerifier.stickerify.telegram.Answer.PROCESSING;
+import static com.github.stickerifier.stickerify.telegram.model.TelegramFile.MAX_DOWNLOADABLE_FILE_SIZE_IN_BYTES;
 import static java.util.HashSet.newHashSet;
 import static java.util.concurrent.Executors.newThreadPerTaskExecutor;
 
+import com.github.stickerifier.stickerify.cache.ConversionCache;
+import com.github.stickerifier.stickerify.cache.ConversionResult;
+import com.github.stickerifier.stickerify.cache.ConversionResult.AlreadyValid;
+import com.github.stickerifier.stickerify.cache.ConversionResult.Converted;
+import com.github.stickerifier.stickerify.cache.ConversionResult.Unsupported;
+import com.github.stickerifier.stickerify.cache.ConversionStore;
+import com.github.stickerifier.stickerify.cache.InFlightConversions;
+import com.github.stickerifier.stickerify.cache.StoredConversion;
+import com.github.stickerifier.stickerify.dispatch.CpuQuotas;
+import com.github.stickerifier.stickerify.dispatch.RequestDispatcher;
 import com.github.stickerifier.stickerify.exception.FileOperationException;
+import com.github.stickerifier.stickerify.exception.FileTooLargeException;
 import com.github.stickerifier.stickerify.exception.TelegramApiException;
+import com.github.stickerifier.stickerify.exception.UnsupportedMediaException;
+import com.github.stickerifier.stickerify.journal.UpdateJournal;
 import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.github.stickerifier.stickerify.media.ConvertedMedia;
 import com.github.stickerifier.stickerify.media.MediaHelper;
+import com.github.stickerifier.stickerify.process.CpuMeter;
+import com.github.stickerifier.stickerify.process.ProcessHelper;
+import com.github.stickerifier.stickerify.queue.WorkQueue;
 import com.github.stickerifier.stickerify.telegram.Answer;
+import com.github.stickerifier.stickerify.telegram.FileDownloader;
+import com.github.stickerifier.stickerify.telegram.RateLimiter;
 import com.github.stickerifier.stickerify.telegram.model.TelegramFile;
 import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
 import com.pengrad.telegrambot.ExceptionHandler;
@@ -25,15 +59,16 @@ import com.pengrad.telegrambot.TelegramException;
 import com.pengrad.telegrambot.UpdatesListener;
 import com.pengrad.telegrambot.model.ResponseParameters;
 import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.request.ParseMode;
 import com.pengrad.telegrambot.model.request.ReplyParameters;
 import com.pengrad.telegrambot.model.request.richmessages.InputRichMessage;
 import com.pengrad.telegrambot.request.BaseRequest;
 import com.pengrad.telegrambot.request.GetFile;
-import com.pengrad.telegrambot.request.GetUpdates;
 import com.pengrad.telegrambot.request.SendDocument;
 import com.pengrad.telegrambot.request.richmessages.SendRichMessage;
 import com.pengrad.telegrambot.request.richmessages.SendRichMessageDraft;
 import com.pengrad.telegrambot.response.BaseResponse;
+import com.pengrad.telegrambot.response.SendResponse;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.event.Level;
 
@@ -41,24 +76,38 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Telegram bot to convert medias into the format required to be used as Telegram stickers.
  *
  * @author Roberto Cella
  */
-public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesListener, ExceptionHandler, AutoCloseable {
+public record Stickerify(TelegramBot bot, Executor executor, UpdateSource updateSource, @Nullable UpdateJournal updateJournal, Role role, @Nullable WorkQueue workQueue, ConversionCache conversionCache, @Nullable ConversionStore conversionStore, InFlightConversions inFlightConversions, RequestDispatcher requestDispatcher, Handoff handoff, CpuQuotas cpuQuotas, RateLimiter rateLimiter, ReplyMode replyMode) implements UpdatesListener, ExceptionHandler, AutoCloseable {
 
 	private static final StructuredLogger LOGGER = new StructuredLogger(Stickerify.class);
 	private static final String BOT_TOKEN = System.getenv("STICKERIFY_TOKEN");
 	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = Thread.ofVirtual().name("Virtual-", 0).factory();
 	private static final InputRichMessage PROCESSING_MESSAGE = new InputRichMessage().html(PROCESSING.getText());
+	private static final ScopedValue<Long> RECEIVED_AT_VALUE = ScopedValue.newInstance();
+	private static final ScopedValue<Handoff.RunningRequest> RUNNING_REQUEST_VALUE = ScopedValue.newInstance();
+	private static final int MAX_SHED_ANSWERS = 4;
+	private static final Semaphore SHED_ANSWERS = new Semaphore(MAX_SHED_ANSWERS);
+	/**
+	 * The description of the failure of the Telegram requests given up because the thread was interrupted.
+	 */
+	private static final String INTERRUPTED = "Interrupted while waiting to be sent";
 
 	/**
 	 * Instantiate the bot processing requests with virtual threads.
@@ -66,7 +115,7 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 	 * @see Stickerify
 	 */
 	public Stickerify() {
-		this(new TelegramBot.Builder(BOT_TOKEN).updateListenerSleep(500).build(), newThreadPerTaskExecutor(VIRTUAL_THREAD_FACTORY));
+		this(new TelegramBot.Builder(BOT_TOKEN).build(), newThreadPerTaskExecutor(VIRTUAL_THREAD_FACTORY));
 	}
 
 	/**
@@ -74,22 +123,163 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 	 *
 	 * @see Stickerify
 	 */
+	public Stickerify(TelegramBot bot, Executor executor) {
+		this(bot, executor, ReplyMode.fromEnvironment());
+	}
+
+	/**
+	 * Instantiate the bot processing requests with an arbitrary executor, answering files as set by {@code replyMode}.
+	 *
+	 * @see Stickerify
+	 */
+	public Stickerify(TelegramBot bot, Executor executor, ReplyMode replyMode) {
+		this(bot, executor, UpdateSource.fromEnvironment(), replyMode);
+	}
+
+	/**
+	 * Instantiate the bot processing requests with an arbitrary executor, answering files as set by {@code replyMode},
+	 * and start receiving the updates from {@code updateSource}.
+	 *
+	 * @see Stickerify
+	 */
+	public Stickerify(TelegramBot bot, Executor executor, UpdateSource updateSource, ReplyMode replyMode) {
+		this(bot, executor, updateSource, Role.fromEnvironment(), replyMode);
+	}
+
+	/**
+	 * Instantiate the bot processing requests with an arbitrary executor, answering files as set by {@code replyMode},
+	 * and start playing its {@code role}: receiving the updates from {@code updateSource},
+	 * claiming the requests from the work queue, or both.
+	 *
+	 * @see Stickerify
+	 */
+	public Stickerify(TelegramBot bot, Executor executor, UpdateSource updateSource, Role role, ReplyMode replyMode) {
+		this(bot, executor, updateSource, UpdateJournal.fromEnvironment(), role, role == Role.STANDALONE ? null : WorkQueue.fromEnvironment(), ConversionCache.fromEnvironment(), ConversionStore.fromEnvironment(), new InFlightConversions(), RequestDispatcher.fromEnvironment(executor), Handoff.fromEnvironment(), CpuQuotas.fromEnvironment(), new RateLimiter(), replyMode);
+		start();
+	}
+
+	/**
+	 * Instantiate the bot processing requests with an arbitrary executor and receiving the updates from {@code updateSource},
+	 * recording them in {@code updateJournal}, if any, until they are answered. If the bot plays the poller {@code role},
+	 * the requests are put into {@code workQueue} instead of being answered, while as a worker it answers the ones claimed from it.
+	 * The bot reuses the results stored in {@code conversionCache} for files already converted
+	 * and the ones persisted in {@code conversionStore}, if any, for files with the same content.
+	 * Concurrent requests for the same file wait for the single conversion tracked by {@code inFlightConversions}.
+	 * Requests are run by {@code requestDispatcher}, which shares the available concurrency fairly among chats,
+	 * and the ones still in progress when the bot stops are passed on to the next instance by {@code handoff};
+	 * and files are refused to users who spent all the CPU time granted by {@code cpuQuotas}.
+	 * Messages are sent to Telegram at the pace allowed by {@code rateLimiter}, and files are answered as set by {@code replyMode}.
+	 * The bot receives updates once {@link #start()} is called.
+	 *
+	 * @throws IllegalArgumentException if the bot plays the poller or the worker role without a work queue
+	 * @see Stickerify
+	 */
 	public Stickerify {
-		bot.setUpdatesListener(this, this, new GetUpdates().timeout(50));
+		if (role != Role.STANDALONE && workQueue == null) {
+			throw new IllegalArgumentException("The " + role + " role requires a work queue");
+		}
+	}
+
+	/**
+	 * Starts receiving updates, after processing again the ones left unanswered by the previous run of the bot,
+	 * or claiming requests from the work queue if the bot is a worker, while resuming the requests handed off by previous instances.
+	 * This can't be done while constructing the bot, since updates might be processed before all of its components are set.
+	 */
+	public void start() {
+		handoff.resume(this::dispatch);
+
+		if (role == Role.WORKER && workQueue != null) {
+			QueueWorker.fromEnvironment(workQueue).start(this::dispatch, handoff::abandon);
+			return;
+		}
+
+		if (updateJournal != null) {
+			updateJournal.recoveredUpdates().forEach(this::dispatch);
+		}
+
+		updateSource.start(bot, this, this);
 	}
 
 	@Override
 	public int process(List<Update> updates) {
-		updates.forEach(update -> executor.execute(() -> {
-			if (update.message() != null) {
-				var request = new TelegramRequest(update.message());
-				ScopedValue.where(REQUEST_DETAILS_VALUE, request.toRequestDetails()).run(() -> answer(request));
+		var requests = updates.stream().filter(update -> update.message() != null).toList();
+
+		if (updateJournal != null) {
+			try {
+				requests = updateJournal.accept(requests);
+			} catch (IOException e) {
+				LOGGER.at(Level.ERROR).setCause(e).log("Unable to persist the updates, leaving them for Telegram to send again");
+				return UpdatesListener.CONFIRMED_UPDATES_NONE;
 			}
-		}));
+		}
+
+		requests.forEach(this::dispatch);
 
 		return UpdatesListener.CONFIRMED_UPDATES_ALL;
 	}
 
+	private void dispatch(Update update) {
+		var request = new TelegramRequest(update.message());
+		Runnable onAnswered = () -> {
+			if (updateJournal != null) {
+				updateJournal.complete(update.updateId());
+			}
+		};
+
+		if (role == Role.POLLER && workQueue != null) {
+			try {
+				workQueue.offer(request);
+				onAnswered.run();
+				return;
+			} catch (IOException e) {
+				LOGGER.at(Level.ERROR).setCause(e).log("Unable to put the request into the work queue, answering it locally");
+			}
+		}
+
+		dispatch(request, onAnswered);
+	}
+
+	/**
+	 * Hands the request to the dispatcher, charging the CPU time of its processes to the user who sent it.
+	 * Requests which can't be accepted are answered right away.
+	 *
+	 * @param request the request to answer
+	 * @param onAnswered the action to run once the request has been answered
+	 */
+	private void dispatch(TelegramRequest request, Runnable onAnswered) {
+		var receivedAt = System.nanoTime();
+		var requestDetails = request.toRequestDetails();
+		var userId = requestDetails.userId();
+		var file = request.getFile();
+
+		if (file != null && !cpuQuotas.overBudget(userId).isZero()) {
+			shed(CPU_QUOTA_EXCEEDED, request, onAnswered);
+			return;
+		}
+
+		var fileSize = file == null ? 0 : file.sizeValue();
+		CpuMeter cpuMeter = cpuTime -> cpuQuotas.charge(userId, cpuTime);
+		var runningRequest = handoff.track(request, onAnswered);
+		var admitted = requestDispatcher.submit(request.getChatId(), fileSize, () -> {
+			try {
+				if (runningRequest.start()) {
+					ScopedValue.where(REQUEST_DETAILS_VALUE, requestDetails)
+							.where(ProcessHelper.CPU_METER, cpuMeter)
+							.where(RECEIVED_AT_VALUE, receivedAt)
+							.where(RUNNING_REQUEST_VALUE, runningRequest)
+							.run(() -> answer(request));
+				}
+			} finally {
+				runningRequest.finish();
+			}
+		});
+
+		if (!admitted) {
+			runningRequest.discard();
+			shed(BUSY, request, onAnswered);
+		}
+	}
+
 	@Override
 	public void onException(TelegramException e) {
 		LOGGER.at(Level.ERROR).setCause(e).log("An unexpected failure occurred");
@@ -97,12 +287,58 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 
 	@Override
 	public void close() {
-		bot.removeGetUpdatesListener();
+		updateSource.close();
+
+		if (workQueue != null) {
+			workQueue.close();
+		}
+
+		try {
+			handoff.drain(requestDispatcher, workQueue);
+		} catch (InterruptedException _) {
+			Thread.currentThread().interrupt();
+		}
 
 		if (executor instanceof ExecutorService es) {
 			es.close();
 		}
 
+		if (updateSource instanceof LongPolling longPolling) {
+			LOGGER.at(Level.INFO).addKeyValue(LONG_POLLING_LOG_KEY, longPolling.stats()).log("Long polling statistics");
+		}
+		LOGGER.at(Level.INFO).addKeyValue(CONVERSION_CACHE_LOG_KEY, conversionCache.stats()).log("Conversion cache statistics");
+		LOGGER.at(Level.INFO).addKeyValue(IN_FLIGHT_CONVERSIONS_LOG_KEY, inFlightConversions.stats()).log("Coalesced conversions statistics");
+		LOGGER.at(Level.INFO).addKeyValue(REQUEST_DISPATCHER_LOG_KEY, requestDispatcher.stats()).log("Request dispatcher statistics");
+		LOGGER.at(Level.INFO).addKeyValue(HANDOFF_LOG_KEY, handoff.stats()).log("Handoff statistics");
+		LOGGER.at(Level.INFO).addKeyValue(CPU_QUOTAS_LOG_KEY, cpuQuotas.stats()).log("CPU quotas statistics");
+		LOGGER.at(Level.INFO).addKeyValue(RATE_LIMITER_LOG_KEY, rateLimiter.stats()).log("Rate limiter statistics");
+		LOGGER.at(Level.INFO).addKeyValue(BITRATE_PLANNER_LOG_KEY, MediaHelper.bitratePlannerStats()).log("Bitrate planner statistics");
+		LOGGER.at(Level.INFO).addKeyValue(PROCESS_SCHEDULER_LOG_KEY, ProcessHelper.schedulerStats()).log("Process scheduler statistics");
+
+		if (workQueue != null) {
+			LOGGER.at(Level.INFO).addKeyValue(WORK_QUEUE_LOG_KEY, workQueue.stats()).log("Work queue statistics");
+		}
+
+		if (updateJournal != null) {
+			LOGGER.at(Level.INFO).addKeyValue(UPDATE_JOURNAL_LOG_KEY, updateJournal.stats()).log("Update journal statistics");
+
+			try {
+				updateJournal.close();
+			} catch (IOException e) {
+				LOGGER.at(Level.ERROR).setCause(e).log("Unable to close the update journal");
+			}
+		}
+
+		if (conversionStore != null) {
+			LOGGER.at(Level.INFO).addKeyValue(CONVERSION_STORE_LOG_KEY, conversionStore.stats()).log("Conversion store statistics");
+
+			try {
+				conversionStore.close();
+			} catch (IOException e) {
+				LOGGER.at(Level.ERROR).setCause(e).log("Unable to close the conversion store");
+			}
+		}
+
 		bot.shutdown();
 	}
 
@@ -113,16 +349,72 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 
 		if (file == null) {
 			answerText(request);
+		} else if (!cpuQuotas.overBudget(REQUEST_DETAILS_VALUE.get().userId()).isZero()) {
+			// the quota is checked again since the requests queued before, by the same user, might have spent it
+			LOGGER.at(Level.WARN).log("The request was refused, since its user spent the CPU quota while it was queued");
+			answerText(CPU_QUOTA_EXCEEDED, request);
 		} else {
 			answerFile(request, file);
 		}
 	}
 
+	/**
+	 * Answers a request which can't be accepted, unless the answer has to be dropped:
+	 * shedding happens under load, so at most {@value #MAX_SHED_ANSWERS} of these answers are sent at once,
+	 * and only when the rate limiter lets them through as notices.
+	 *
+	 * @param answer the answer explaining why the request was shed
+	 * @param request the shed request
+	 * @param onAnswered the action to run once the request has been answered, or dropped
+	 */
+	private void shed(Answer answer, TelegramRequest request, Runnable onAnswered) {
+		var requestDetails = request.toRequestDetails();
+
+		var permitted = SHED_ANSWERS.tryAcquire();
+		if (permitted && !rateLimiter.tryAcquireNotice(request.getChatId())) {
+			SHED_ANSWERS.release();
+			permitted = false;
+		}
+
+		if (!permitted) {
+			ScopedValue.where(REQUEST_DETAILS_VALUE, requestDetails).run(() -> dropShedAnswer(answer, onAnswered));
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				try {
+					ScopedValue.where(REQUEST_DETAILS_VALUE, requestDetails).run(() -> answerShed(answer, request, onAnswered));
+				} finally {
+					SHED_ANSWERS.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			SHED_ANSWERS.release();
+			throw e;
+		}
+	}
+
+	private static void dropShedAnswer(Answer answer, Runnable onAnswered) {
+		LOGGER.at(Level.WARN).log("The request was shed without answering {}", answer);
+		onAnswered.run();
+	}
+
+	private void answerShed(Answer answer, TelegramRequest request, Runnable onAnswered) {
+		LOGGER.at(Level.WARN).log("The request was shed with answer {}", answer);
+
+		try {
+			answerText(answer, request);
+		} finally {
+			onAnswered.run();
+		}
+	}
+
 	private void answerFile(TelegramRequest request, TelegramFile file) {
 		if (file == TelegramFile.NOT_SUPPORTED) {
 			answerText(ERROR, request);
 		} else if (file.canBeDownloaded()) {
-			ScopedValue.where(FILE_ID_VALUE, file.id()).run(() -> answerFile(request, file.id()));
+			ScopedValue.where(FILE_ID_VALUE, file.id()).run(() -> answerFile(request, file.id(), file.uniqueId()));
 		} else {
 			LOGGER.at(Level.INFO).log("Passed-in file is too large");
 
@@ -130,53 +422,302 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 		}
 	}
 
-	private void answerFile(TelegramRequest request, String fileId) {
-		Set<Path> pathsToDelete = newHashSet(2);
-		var processingMessage = new SendRichMessageDraft(request.getChatId(), 1, PROCESSING_MESSAGE);
+	private void answerFile(TelegramRequest request, String fileId, @Nullable String fileUniqueId) {
+		if (fileUniqueId == null) {
+			processFile(request, fileId);
+			return;
+		}
 
-		try {
-			execute(processingMessage);
+		var cachedResult = conversionCache.get(fileUniqueId);
+		if (cachedResult != null) {
+			if (answerCachedResult(request, cachedResult)) {
+				return;
+			}
 
-			var originalFile = retrieveFile(fileId);
-			pathsToDelete.add(originalFile.toPath());
+			conversionCache.invalidate(fileUniqueId);
+		}
 
-			var outputFile = MediaHelper.convert(originalFile);
+		// the followers of a conversion whose result can't be shared join again, so that only one of them converts the file
+		var answered = false;
+		while (!answered) {
+			answered = switch (inFlightConversions.join(fileUniqueId)) {
+				case InFlightConversions.Leader leader -> {
+					ConversionResult result = null;
+					try {
+						result = processFile(request, fileId);
+					} finally {
+						leader.complete(result);
+					}
+
+					if (result != null) {
+						conversionCache.put(fileUniqueId, result);
+					}
+					yield true;
+				}
+				case InFlightConversions.Follower follower -> answerSharedResult(request, follower);
+			};
+		}
+	}
 
-			if (outputFile == null) {
-				answerText(FILE_ALREADY_VALID, request);
-			} else {
-				pathsToDelete.add(outputFile.toPath());
+	/**
+	 * Downloads the file and answers the request with its conversion.
+	 *
+	 * @param request the request to answer
+	 * @param fileId the identifier of the file to convert
+	 * @return the result which can be reused to answer later requests for the same file,
+	 * or {@code null} if the file couldn't be processed
+	 */
+	private @Nullable ConversionResult processFile(TelegramRequest request, String fileId) {
+		Set<Path> pathsToDelete = newHashSet(2);
 
-				var answerWithFile = new SendDocument(request.getChatId(), outputFile)
-						.replyParameters(new ReplyParameters(request.getMessageId()))
-						.disableContentTypeDetection(true);
+		try (var processingNotice = notifyProcessing(request)) {
+			var originalFile = retrieveFile(fileId);
+			pathsToDelete.add(originalFile.file().toPath());
 
-				execute(answerWithFile);
-				answerText(FILE_READY, request);
+			var storedConversion = conversionStore == null ? null : conversionStore.get(originalFile.digest());
+			if (storedConversion != null) {
+				LOGGER.at(Level.DEBUG).log("Answering with the stored conversion of a file with the same content");
 			}
+
+			return switch (storedConversion) {
+				case StoredConversion.AlreadyValid _ -> {
+					processingNotice.close();
+					answerText(FILE_ALREADY_VALID, request);
+					yield ConversionResult.ALREADY_VALID;
+				}
+				case StoredConversion.Converted(var fileExtension, var content) -> {
+					processingNotice.close();
+					yield answerConvertedFile(request, inMemoryDocument(request, fileExtension, content));
+				}
+				case null -> convertFile(request, originalFile, pathsToDelete, processingNotice);
+			};
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
+		} catch (UnsupportedMediaException e) {
+			processFailure(request, e);
+			return ConversionResult.UNSUPPORTED;
+		} catch (FileTooLargeException e) {
+			LOGGER.at(Level.INFO).setCause(e).log("Downloaded file is too large");
+			answerText(FILE_TOO_LARGE, request);
 		} catch (Exception e) {
 			processFailure(request, e);
 		} finally {
 			deleteTempFiles(pathsToDelete);
 		}
+
+		return null;
+	}
+
+	private @Nullable ConversionResult convertFile(TelegramRequest request, DownloadedFile originalFile, Set<Path> pathsToDelete, ProcessingNotice processingNotice) throws Exception {
+		var convertedMedia = MediaHelper.convert(originalFile.file());
+
+		if (convertedMedia == null) {
+			storeConversion(originalFile, StoredConversion.ALREADY_VALID);
+			processingNotice.close();
+			answerText(FILE_ALREADY_VALID, request);
+
+			return ConversionResult.ALREADY_VALID;
+		}
+
+		var answerWithFile = switch (convertedMedia) {
+			case ConvertedMedia.OnDisk(var outputFile) -> {
+				pathsToDelete.add(outputFile.toPath());
+
+				if (conversionStore != null) {
+					storeConversion(originalFile, new StoredConversion.Converted(convertedMedia.fileExtension(), Files.readAllBytes(outputFile.toPath())));
+				}
+
+				yield fileReady(request, new SendDocument(request.getChatId(), outputFile));
+			}
+			case ConvertedMedia.InMemory(var fileExtension, var content) -> {
+				storeConversion(originalFile, new StoredConversion.Converted(fileExtension, content));
+
+				yield inMemoryDocument(request, fileExtension, content);
+			}
+		};
+
+		processingNotice.close();
+		return answerConvertedFile(request, answerWithFile);
+	}
+
+	private SendDocument inMemoryDocument(TelegramRequest request, String fileExtension, byte[] content) {
+		return fileReady(request, new SendDocument(request.getChatId(), content).fileName("Stickerify." + fileExtension));
+	}
+
+	/**
+	 * Completes the answer with the converted file, captioning it with {@link Answer#FILE_READY} in compact mode.
+	 */
+	private SendDocument fileReady(TelegramRequest request, SendDocument answerWithFile) {
+		answerWithFile.replyParameters(new ReplyParameters(request.getMessageId())).disableContentTypeDetection(true);
+
+		return replyMode.compact() ? answerWithFile.caption(FILE_READY.getText()).parseMode(ParseMode.Markdown) : answerWithFile;
+	}
+
+	private @Nullable ConversionResult answerConvertedFile(TelegramRequest request, SendDocument answerWithFile) throws TelegramApiException {
+		var response = execute(answerWithFile);
+		if (!replyMode.compact()) {
+			answerText(FILE_READY, request);
+		}
+
+		var convertedFileId = getSentFileId(response);
+		return convertedFileId == null ? null : new Converted(convertedFileId);
+	}
+
+	/**
+	 * Answers the request with the result of the conversion of the same file started by another request.
+	 *
+	 * @param request the request to answer
+	 * @param follower the conversion to wait for
+	 * @return {@code false} if the result of the shared conversion can't be used and the request has to join the next one
+	 */
+	private boolean answerSharedResult(TelegramRequest request, InFlightConversions.Follower follower) {
+		LOGGER.at(Level.DEBUG).log("Waiting for the ongoing conversion of the same file");
+
+		try {
+			ConversionResult result;
+			try (var _ = notifyProcessing(request)) {
+				result = follower.await();
+			}
+
+			return result != null && answerCachedResult(request, result);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (TelegramApiException e) {
+			processFailure(request, e);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Answers the request reusing the result of a previous conversion of the same file.
+	 *
+	 * @param request the request to answer
+	 * @param result the cached result
+	 * @return {@code false} if the cached result couldn't be used and the file has to be processed again
+	 */
+	private boolean answerCachedResult(TelegramRequest request, ConversionResult result) {
+		LOGGER.at(Level.DEBUG).log("Answering with the result of a previous conversion");
+
+		switch (result) {
+			case AlreadyValid _ -> answerText(FILE_ALREADY_VALID, request);
+			case Unsupported _ -> answerText(ERROR, request);
+			case Converted(var convertedFileId) -> {
+				var answerWithFile = fileReady(request, new SendDocument(request.getChatId(), convertedFileId));
+
+				try {
+					execute(answerWithFile);
+				} catch (TelegramApiException e) {
+					boolean retryConversion = processTelegramFailure(e, false);
+					if (retryConversion) {
+						LOGGER.at(Level.WARN).setCause(e).log("Unable to send the previously converted file, converting it again");
+					}
+
+					return !retryConversion;
+				}
+
+				if (!replyMode.compact()) {
+					answerText(FILE_READY, request);
+				}
+			}
+		}
+
+		return true;
 	}
 
-	private File retrieveFile(String fileId) throws TelegramApiException, FileOperationException {
+	/**
+	 * The processing message of a request: closing it before answering ensures it never shows up after the answer.
+	 */
+	@FunctionalInterface
+	private interface ProcessingNotice extends AutoCloseable {
+		@Override
+		void close() throws InterruptedException;
+	}
+
+	/**
+	 * Lets the user know the file is being processed. In standard mode the processing message is sent right away,
+	 * while in compact mode it's sent in the background, alongside the conversion, and only if the answer
+	 * isn't ready before the processing message delay elapses.
+	 *
+	 * @param request the request being processed
+	 * @return the notice to close before answering
+	 * @throws TelegramApiException if the processing message couldn't be sent in standard mode
+	 */
+	private ProcessingNotice notifyProcessing(TelegramRequest request) throws TelegramApiException {
+		var processingMessage = new SendRichMessageDraft(request.getChatId(), 1, PROCESSING_MESSAGE);
+
+		if (!replyMode.compact()) {
+			execute(processingMessage);
+			return () -> {};
+		}
+
+		var elapsed = Duration.ofNanos(System.nanoTime() - RECEIVED_AT_VALUE.orElse(System.nanoTime()));
+		var delay = replyMode.processingMessageDelay().minus(elapsed);
+		var answered = new CountDownLatch(1);
+		var requestDetails = REQUEST_DETAILS_VALUE.get();
+
+		var sender = Thread.ofVirtual().start(() -> ScopedValue.where(REQUEST_DETAILS_VALUE, requestDetails).run(() -> {
+			try {
+				if (!answered.await(delay.toNanos(), TimeUnit.NANOSECONDS)) {
+					execute(processingMessage);
+				}
+			} catch (InterruptedException _) {
+				Thread.currentThread().interrupt();
+			} catch (TelegramApiException e) {
+				LOGGER.at(Level.DEBUG).setCause(e).log("Unable to send the processing message");
+			}
+		}));
+
+		return () -> {
+			answered.countDown();
+			sender.join();
+		};
+	}
+
+	private void storeConversion(DownloadedFile originalFile, StoredConversion conversion) {
+		if (conversionStore != null) {
+			conversionStore.put(originalFile.digest(), conversion);
+		}
+	}
+
+	private static @Nullable String getSentFileId(SendResponse response) {
+		var message = response.message();
+		if (message == null) {
+			return null;
+		}
+
+		if (message.document() != null) {
+			return message.document().fileId();
+		}
+
+		return message.sticker() == null ? null : message.sticker().fileId();
+	}
+
+	private DownloadedFile retrieveFile(String fileId) throws TelegramApiException, FileOperationException {
 		var file = execute(new GetFile(fileId)).file();
 
 		try {
-			var fileContent = bot.getFileContent(file);
 			var downloadedFile = File.createTempFile("OriginalFile-", null);
-			Files.write(downloadedFile.toPath(), fileContent);
+			var digest = MessageDigest.getInstance("SHA-256");
+
+			try {
+				FileDownloader.download(bot.getFullFilePath(file), downloadedFile.toPath(), MAX_DOWNLOADABLE_FILE_SIZE_IN_BYTES, digest);
+			} catch (FileOperationException e) {
+				deleteTempFiles(Set.of(downloadedFile.toPath()));
+				throw e;
+			}
 
-			return downloadedFile;
-		} catch (IOException e) {
+			return new DownloadedFile(downloadedFile, digest.digest());
+		} catch (IOException | NoSuchAlgorithmException e) {
 			throw new FileOperationException(e);
 		}
 	}
 
+	/**
+	 * A file downloaded from Telegram, along with the SHA-256 digest of its content.
+	 */
+	private record DownloadedFile(File file, byte[] digest) {}
+
 	private void processFailure(TelegramRequest request, Exception e) {
 		if (e instanceof TelegramApiException telegramException) {
 			boolean replyToUser = processTelegramFailure(telegramException, false);
@@ -195,6 +736,8 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 		switch (e.getDescription()) {
 			case "Bad Request: message to be replied not found" -> LOGGER.at(Level.INFO).log("Unable to reply to the request: the message sent has been deleted");
 			case "Forbidden: bot was blocked by the user" -> LOGGER.at(Level.INFO).log("Unable to reply to the request: the user blocked the bot");
+			case Handoff.HANDED_OFF -> LOGGER.at(Level.DEBUG).log("Not replying to the request: it was handed off to another instance");
+			case INTERRUPTED -> LOGGER.at(Level.INFO).log("Not replying to the request: it was interrupted");
 			default -> {
 				if (logUnmatchedFailure) {
 					LOGGER.at(Level.ERROR).setCause(e).log("Unable to reply to the request");
@@ -227,6 +770,20 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 	}
 
 	private <T extends BaseRequest<T, R>, R extends BaseResponse> R execute(BaseRequest<T, R> request) throws TelegramApiException {
+		var chatId = chatIdOf(request);
+
+		try {
+			rateLimiter.acquire(chatId);
+		} catch (InterruptedException _) {
+			Thread.currentThread().interrupt();
+			throw new TelegramApiException(request.getMethod(), isHandedOff() ? Handoff.HANDED_OFF : INTERRUPTED);
+		}
+
+		// checked after waiting for the rate limiter, since the request may have been handed off in the meantime
+		if (!startReplying(request)) {
+			throw new TelegramApiException(request.getMethod(), Handoff.HANDED_OFF);
+		}
+
 		var response = bot.execute(request);
 
 		if (response.isOk()) {
@@ -238,7 +795,12 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 			LOGGER.at(Level.WARN).log("The {} request failed: retrying in {} seconds", request.getMethod(), retryDelay);
 
 			try {
-				Thread.sleep(Duration.ofSeconds(retryDelay));
+				if (chatId == null) {
+					Thread.sleep(Duration.ofSeconds(retryDelay));
+				} else {
+					rateLimiter.pause(chatId, Duration.ofSeconds(retryDelay));
+					rateLimiter.acquire(chatId);
+				}
 			} catch (InterruptedException _) {
 				Thread.currentThread().interrupt();
 				break;
@@ -254,6 +816,40 @@ public record Stickerify(TelegramBot bot, Executor executor) implements UpdatesL
 		throw new TelegramApiException(request.getMethod(), response.description());
 	}
 
+	/**
+	 * @return whether the request being answered by the current thread was handed off to another instance
+	 */
+	private static boolean isHandedOff() {
+		return RUNNING_REQUEST_VALUE.isBound() && RUNNING_REQUEST_VALUE.get().isHandedOff();
+	}
+
+	/**
+	 * Checks whether the Telegram request can be sent on behalf of the request being answered by the current thread.
+	 * Sending an answer is the point of no return, after which the request can't be handed off anymore;
+	 * processing messages and file lookups don't count, since the instance taking the request over repeats them harmlessly.
+	 *
+	 * @param telegramRequest the Telegram request about to be sent
+	 * @return {@code false} if the request was handed off, and nothing must be sent
+	 */
+	private static boolean startReplying(BaseRequest<?, ?> telegramRequest) {
+		if (telegramRequest instanceof SendRichMessageDraft || telegramRequest instanceof GetFile) {
+			return !isHandedOff();
+		}
+
+		return !RUNNING_REQUEST_VALUE.isBound() || RUNNING_REQUEST_VALUE.get().reply();
+	}
+
+	/**
+	 * @return the chat the request sends a message to, or {@code null} if it doesn't send any message
+	 */
+	private static @Nullable Long chatIdOf(BaseRequest<?, ?> request) {
+		return switch (request.getParameters().get("chat_id")) {
+			case Number number -> number.longValue();
+			case String username -> (long) username.hashCode();
+			case null, default -> null;
+		};
+	}
+
 	private static boolean isRetriable(@Nullable ResponseParameters parameters) {
 		return parameters != null && parameters.retryAfter() != null;
 	}
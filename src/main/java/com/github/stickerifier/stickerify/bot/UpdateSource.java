@@ -0,0 +1,41 @@
+package com.github.stickerifier.stickerify.bot;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.pengrad.telegrambot.ExceptionHandler;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.UpdatesListener;
+
+/**
+ * Where the bot receives its updates from: by polling Telegram, or from the webhook Telegram posts them to.
+ */
+public interface UpdateSource extends AutoCloseable {
+
+	/**
+	 * Starts passing the updates to the listener.
+	 *
+	 * @param bot the bot the updates are meant for
+	 * @param listener the listener processing the updates
+	 * @param exceptionHandler the handler of the failures while receiving updates
+	 */
+	void start(TelegramBot bot, UpdatesListener listener, ExceptionHandler exceptionHandler);
+
+	/**
+	 * Stops receiving updates, waiting for the ones being passed to the listener.
+	 */
+	@Override
+	void close();
+
+	/**
+	 * Creates the source of updates: the webhook if the {@code WEBHOOK_URL} environment variable is set,
+	 * polling otherwise.
+	 *
+	 * @return the source of updates
+	 * @throws IllegalArgumentException if the webhook configuration is not valid
+	 * @see WebhookServer#fromEnvironment(String)
+	 */
+	static UpdateSource fromEnvironment() {
+		var webhookUrl = Environment.getString("WEBHOOK_URL");
+
+		return webhookUrl == null ? new LongPolling() : WebhookServer.fromEnvironment(webhookUrl);
+	}
+}
@@ -0,0 +1,184 @@
+package com.github.stickerifier.stickerify.bot;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.google.gson.JsonParseException;
+import com.pengrad.telegrambot.ExceptionHandler;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.UpdatesListener;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.utility.BotUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Receives the updates from the webhook Telegram posts them to, served by the HTTP server embedded in the JDK.
+ * <p>
+ * Each update is passed to the listener as soon as it arrives, without the round trip of a polling request.
+ * Telegram sends the secret token set with the webhook in every request, so requests without it are refused.
+ */
+final class WebhookServer implements UpdateSource {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(WebhookServer.class);
+
+	static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+	private static final Pattern SECRET_TOKEN_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,256}");
+	private static final int MAX_UPDATE_BYTES = 1024 * 1024;
+	private static final int STOP_DELAY_SECONDS = 5;
+
+	private final String url;
+	private final int port;
+	private final byte[] secretToken;
+	private @Nullable HttpServer server;
+	private @Nullable ExecutorService executor;
+
+	/**
+	 * Creates the server of the webhook.
+	 *
+	 * @param url the public URL Telegram posts the updates to, whose path is the one served
+	 * @param port the local port to listen on, or 0 to pick any free port
+	 * @param secretToken the token Telegram sends along with every update
+	 * @throws IllegalArgumentException if the URL or the secret token are not valid
+	 */
+	WebhookServer(String url, int port, String secretToken) {
+		if (!SECRET_TOKEN_PATTERN.matcher(secretToken).matches()) {
+			throw new IllegalArgumentException("The webhook secret token must be 1 to 256 letters, digits, _ or - characters");
+		}
+
+		this.url = url;
+		this.port = port;
+		this.secretToken = secretToken.getBytes(UTF_8);
+	}
+
+	/**
+	 * Creates the server of the webhook with the URL passed in, listening on the port set by the {@code WEBHOOK_PORT}
+	 * environment variable (defaults to 8080) and checking the token set by the {@code WEBHOOK_SECRET} one.
+	 *
+	 * @param url the public URL Telegram posts the updates to
+	 * @return the server of the webhook
+	 * @throws IllegalArgumentException if the secret token is missing or any value is not valid
+	 */
+	static WebhookServer fromEnvironment(String url) {
+		var secretToken = Environment.getString("WEBHOOK_SECRET");
+		if (secretToken == null) {
+			throw new IllegalArgumentException("The WEBHOOK_SECRET environment variable is required when WEBHOOK_URL is set");
+		}
+
+		return new WebhookServer(url, Environment.getInt("WEBHOOK_PORT", 8080, 0), secretToken);
+	}
+
+	/**
+	 * Starts the server and asks Telegram to post the updates to it.
+	 *
+	 * @throws UncheckedIOException if the server can't be started
+	 * @throws IllegalStateException if Telegram refuses to set the webhook
+	 */
+	@Override
+	public void start(TelegramBot bot, UpdatesListener listener, ExceptionHandler exceptionHandler) {
+		var path = URI.create(url).getPath();
+
+		try {
+			executor = Executors.newVirtualThreadPerTaskExecutor();
+			server = HttpServer.create(new InetSocketAddress(port), 0);
+			server.setExecutor(executor);
+			server.createContext(path == null || path.isEmpty() ? "/" : path, exchange -> handle(exchange, listener));
+			server.start();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to start the webhook server", e);
+		}
+
+		var response = bot.execute(new SetWebhook().url(url).secretToken(new String(secretToken, UTF_8)));
+		if (!response.isOk()) {
+			close();
+			throw new IllegalStateException("Unable to set the webhook: " + response.description());
+		}
+
+		LOGGER.at(Level.INFO).log("Receiving updates from the webhook on port {}", server.getAddress().getPort());
+	}
+
+	/**
+	 * @return the address the server listens on
+	 * @throws IllegalStateException if the server hasn't been started
+	 */
+	InetSocketAddress address() {
+		if (server == null) {
+			throw new IllegalStateException("The webhook server hasn't been started");
+		}
+
+		return server.getAddress();
+	}
+
+	private void handle(HttpExchange exchange, UpdatesListener listener) throws IOException {
+		try (exchange) {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			var token = exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER);
+			if (token == null || !MessageDigest.isEqual(secretToken, token.getBytes(UTF_8))) {
+				LOGGER.at(Level.WARN).log("Refused a webhook request without a valid secret token");
+				exchange.sendResponseHeaders(401, -1);
+				return;
+			}
+
+			var body = exchange.getRequestBody().readNBytes(MAX_UPDATE_BYTES + 1);
+			if (body.length > MAX_UPDATE_BYTES) {
+				exchange.sendResponseHeaders(413, -1);
+				return;
+			}
+
+			var status = process(new String(body, UTF_8), listener);
+			exchange.sendResponseHeaders(status, -1);
+		}
+	}
+
+	/**
+	 * Passes the update to the listener.
+	 *
+	 * @return the status to answer Telegram with: if it's not successful, Telegram sends the update again later
+	 */
+	private static int process(String body, UpdatesListener listener) {
+		try {
+			var update = BotUtils.parseUpdate(body);
+			if (update == null) {
+				return 400;
+			}
+
+			// an update the listener didn't confirm is refused, so that Telegram sends it again
+			var confirmed = listener.process(List.of(update));
+			return confirmed == UpdatesListener.CONFIRMED_UPDATES_NONE ? 500 : 200;
+		} catch (JsonParseException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to parse the update received from the webhook");
+			return 400;
+		} catch (RuntimeException e) {
+			LOGGER.at(Level.ERROR).setCause(e).log("Unable to process the update received from the webhook");
+			return 500;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (server != null) {
+			server.stop(STOP_DELAY_SECONDS);
+		}
+
+		if (executor != null) {
+			executor.close();
+		}
+	}
+}
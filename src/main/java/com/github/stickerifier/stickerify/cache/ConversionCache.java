@@ -0,0 +1,160 @@
+package com.github.stickerifier.stickerify.cache;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory cache of conversion results keyed by the {@code file_unique_id} Telegram assigns to each file.
+ * <p>
+ * Once full, the least recently used entry is evicted; entries older than the time-to-live are discarded when looked up.
+ */
+public final class ConversionCache {
+
+	private static final int DEFAULT_MAX_ENTRIES = 10_000;
+	private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(24);
+
+	private final int maxEntries;
+	private final long timeToLiveNanos;
+	private final Map<String, Entry> entries;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache holding up to {@code maxEntries} results, each one valid for {@code timeToLive}.
+	 * If {@code maxEntries} is 0, nothing will be cached.
+	 *
+	 * @param maxEntries the maximum number of results to keep
+	 * @param timeToLive how long a result can be used after being cached
+	 */
+	public ConversionCache(int maxEntries, Duration timeToLive) {
+		this.maxEntries = maxEntries;
+		this.timeToLiveNanos = timeToLive.toNanos();
+		this.entries = new LinkedHashMap<>(16, 0.75F, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				boolean evict = size() > ConversionCache.this.maxEntries;
+				if (evict) {
+					evictions.increment();
+				}
+
+				return evict;
+			}
+		};
+	}
+
+	/**
+	 * Creates a cache sized by the {@code CONVERSION_CACHE_SIZE} environment variable (defaults to 10000 entries)
+	 * whose entries expire after the seconds specified by {@code CONVERSION_CACHE_TTL} (defaults to 24 hours).
+	 *
+	 * @return the configured cache
+	 */
+	public static ConversionCache fromEnvironment() {
+		var maxEntries = Environment.getInt("CONVERSION_CACHE_SIZE", DEFAULT_MAX_ENTRIES, 0);
+		var timeToLive = Environment.getSeconds("CONVERSION_CACHE_TTL", DEFAULT_TIME_TO_LIVE);
+
+		return new ConversionCache(maxEntries, timeToLive);
+	}
+
+	/**
+	 * Retrieves the result of a previous conversion of the file, marking it as recently used.
+	 *
+	 * @param fileUniqueId the unique identifier of the file
+	 * @return the cached result, or {@code null} if the file wasn't converted recently
+	 */
+	public @Nullable ConversionResult get(String fileUniqueId) {
+		lock.lock();
+		try {
+			var entry = entries.get(fileUniqueId);
+
+			if (entry != null && entry.isExpired(timeToLiveNanos)) {
+				entries.remove(fileUniqueId);
+				evictions.increment();
+				entry = null;
+			}
+
+			if (entry == null) {
+				misses.increment();
+				return null;
+			}
+
+			hits.increment();
+			return entry.result();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores the result of a conversion, possibly evicting the least recently used one.
+	 *
+	 * @param fileUniqueId the unique identifier of the file
+	 * @param result the result of the conversion
+	 */
+	public void put(String fileUniqueId, ConversionResult result) {
+		if (maxEntries == 0) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			entries.put(fileUniqueId, new Entry(result, System.nanoTime()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Discards the result stored for the file, if any.
+	 *
+	 * @param fileUniqueId the unique identifier of the file
+	 */
+	public void invalidate(String fileUniqueId) {
+		lock.lock();
+		try {
+			entries.remove(fileUniqueId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the counters describing how effective the cache has been so far
+	 */
+	public Stats stats() {
+		int size;
+		lock.lock();
+		try {
+			size = entries.size();
+		} finally {
+			lock.unlock();
+		}
+
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, maxEntries);
+	}
+
+	private record Entry(ConversionResult result, long createdAt) {
+		private boolean isExpired(long timeToLiveNanos) {
+			return System.nanoTime() - createdAt >= timeToLiveNanos;
+		}
+	}
+
+	/**
+	 * Snapshot of the cache counters.
+	 *
+	 * @param hits the lookups which found a valid result
+	 * @param misses the lookups which didn't find a valid result
+	 * @param evictions the results discarded either because the cache was full or because they expired
+	 * @param size the number of results currently cached
+	 * @param capacity the maximum number of results the cache can hold
+	 */
+	public record Stats(long hits, long misses, long evictions, int size, int capacity) {}
+}
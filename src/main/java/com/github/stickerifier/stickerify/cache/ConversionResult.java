@@ -0,0 +1,28 @@
+package com.github.stickerifier.stickerify.cache;
+
+/**
+ * The verdict reached processing a file, which can be used to answer
+ * later requests for the same file without converting it again.
+ */
+public sealed interface ConversionResult {
+
+	ConversionResult ALREADY_VALID = new AlreadyValid();
+	ConversionResult UNSUPPORTED = new Unsupported();
+
+	/**
+	 * The file was already suitable to be used as a sticker.
+	 */
+	record AlreadyValid() implements ConversionResult {}
+
+	/**
+	 * The file is either not supported or corrupted.
+	 */
+	record Unsupported() implements ConversionResult {}
+
+	/**
+	 * The file was converted and the result was sent to Telegram.
+	 *
+	 * @param fileId the identifier Telegram assigned to the converted file
+	 */
+	record Converted(String fileId) implements ConversionResult {}
+}
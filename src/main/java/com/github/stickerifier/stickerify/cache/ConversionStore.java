@@ -0,0 +1,645 @@
+package com.github.stickerifier.stickerify.cache;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of conversion results keyed by the SHA-256 digest of the original file,
+ * so that identical files are converted once even if they are sent with different identifiers
+ * and the results survive restarts of the bot.
+ * <p>
+ * Converted medias are appended to size-bounded segment files, while a memory-mapped index
+ * (an open-addressing hash table of fixed-size slots) maps each digest to its position.
+ * An index slot is written only after the data it points to has been flushed, and it is protected by a checksum:
+ * slots left incomplete by a crash are discarded when the store is opened again.
+ * The index is rebuilt into a new file which then replaces it, so that a crash never leaves it half rebuilt.
+ * <p>
+ * Once the store exceeds its capacity, the oldest segment is dropped as a whole:
+ * results read from the older half of the segments are copied into the newest one,
+ * so that the dropped segment approximately contains the least recently used results.
+ */
+public final class ConversionStore implements AutoCloseable {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(ConversionStore.class);
+
+	private static final long DEFAULT_MAX_SIZE_MB = 512;
+	private static final long MIN_SIZE_MB = 8;
+	private static final long MIN_SEGMENT_SIZE = 1L << 20;
+	private static final long MAX_SEGMENT_SIZE = 64L << 20;
+	private static final int MIN_SLOTS = 1024;
+	private static final int MAX_SLOTS = 1 << 24;
+	private static final int EXPECTED_BYTES_PER_SLOT = 16 * 1024;
+
+	private static final String INDEX_FILE_NAME = "index";
+	private static final String REBUILT_INDEX_FILE_NAME = "index.rebuilt";
+	private static final String SEGMENT_FILE_FORMAT = "segment-%010d";
+	private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("segment-(\\d{10})");
+
+	private static final long INDEX_MAGIC = 0x5354_4B52_4958_0001L;
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 64;
+
+	private static final int STATE_OFFSET = 0;
+	private static final int KIND_OFFSET = 1;
+	private static final int SEGMENT_OFFSET = 4;
+	private static final int POSITION_OFFSET = 8;
+	private static final int LENGTH_OFFSET = 16;
+	private static final int CHECKSUM_OFFSET = 20;
+	private static final int DIGEST_OFFSET = 24;
+	private static final int EXTENSION_OFFSET = 56;
+	private static final int DIGEST_LENGTH = 32;
+	private static final int EXTENSION_LENGTH = 8;
+
+	private static final byte EMPTY = 0;
+	private static final byte LIVE = 1;
+	private static final byte DELETED = 2;
+	private static final byte ALREADY_VALID = 1;
+	private static final byte CONVERTED = 2;
+
+	private final Path directory;
+	private final long maxSizeBytes;
+	private final long segmentSize;
+	private final int maxSegments;
+	private final int slotCount;
+	private final long indexSize;
+	private FileChannel indexChannel;
+	private MappedByteBuffer index;
+	private final NavigableMap<Integer, FileChannel> segments = new TreeMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private int liveSlots;
+	private int deletedSlots;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private ConversionStore(Path directory, long maxSizeBytes) throws IOException {
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+		this.segmentSize = Math.clamp(maxSizeBytes / 8, MIN_SEGMENT_SIZE, MAX_SEGMENT_SIZE);
+		this.maxSegments = (int) Math.max(2, maxSizeBytes / segmentSize);
+		this.slotCount = computeSlotCount(maxSizeBytes);
+
+		this.indexSize = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+		this.indexChannel = FileChannel.open(directory.resolve(INDEX_FILE_NAME), CREATE, READ, WRITE);
+
+		boolean compatible = hasCompatibleHeader();
+		if (!compatible) {
+			LOGGER.at(Level.INFO).log("Initializing a new conversion store");
+			indexChannel.truncate(0);
+			deleteSegmentFiles();
+		}
+
+		this.index = indexChannel.map(MapMode.READ_WRITE, 0, indexSize);
+		if (!compatible) {
+			writeHeader();
+		}
+
+		openSegments();
+		recoverIndex();
+	}
+
+	/**
+	 * Opens the store saved in {@code directory}, creating it if it doesn't exist.
+	 * If the existing store was created with a different capacity, its content is discarded.
+	 *
+	 * @param directory the folder containing the store
+	 * @param maxSizeBytes the maximum size of the stored conversions
+	 * @return the opened store
+	 * @throws IOException if the store couldn't be opened
+	 */
+	public static ConversionStore open(Path directory, long maxSizeBytes) throws IOException {
+		Files.createDirectories(directory);
+
+		return new ConversionStore(directory, maxSizeBytes);
+	}
+
+	/**
+	 * Opens the store saved in the folder specified by the {@code CONVERSION_STORE_PATH} environment variable,
+	 * holding up to the megabytes specified by {@code CONVERSION_STORE_SIZE} (defaults to 512 MB).
+	 *
+	 * @return the opened store, or {@code null} if the store isn't configured or couldn't be opened
+	 */
+	public static @Nullable ConversionStore fromEnvironment() {
+		var directory = Environment.getString("CONVERSION_STORE_PATH");
+		if (directory == null) {
+			return null;
+		}
+
+		var maxSizeBytes = Environment.getLong("CONVERSION_STORE_SIZE", DEFAULT_MAX_SIZE_MB, MIN_SIZE_MB) << 20;
+
+		try {
+			return open(Path.of(directory), maxSizeBytes);
+		} catch (IOException e) {
+			LOGGER.at(Level.ERROR).setCause(e).log("Unable to open the conversion store, converted files won't be persisted");
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves the result of a previous conversion of a file with the same content.
+	 *
+	 * @param digest the SHA-256 digest of the original file
+	 * @return the stored result, or {@code null} if no file with the same content was converted
+	 */
+	public @Nullable StoredConversion get(byte[] digest) {
+		StoredConversion conversion;
+		boolean stale;
+
+		lock.lock();
+		try {
+			var slot = findSlot(digest);
+			if (slot == -1) {
+				misses.increment();
+				return null;
+			}
+
+			var position = slotPosition(slot);
+			var segment = index.getInt(position + SEGMENT_OFFSET);
+			var content = readContent(segment, index.getLong(position + POSITION_OFFSET), index.getInt(position + LENGTH_OFFSET));
+
+			conversion = index.get(position + KIND_OFFSET) == ALREADY_VALID
+					? StoredConversion.ALREADY_VALID
+					: new StoredConversion.Converted(readExtension(position), content);
+			stale = segment <= segments.lastKey() - maxSegments / 2;
+			hits.increment();
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to read from the conversion store");
+			misses.increment();
+			return null;
+		} finally {
+			lock.unlock();
+		}
+
+		if (stale) {
+			store(digest, conversion, true);
+		}
+
+		return conversion;
+	}
+
+	/**
+	 * Persists the result of a conversion, possibly evicting the oldest stored results.
+	 *
+	 * @param digest the SHA-256 digest of the original file
+	 * @param conversion the result of the conversion
+	 */
+	public void put(byte[] digest, StoredConversion conversion) {
+		store(digest, conversion, false);
+	}
+
+	/**
+	 * Appends the content of the conversion to the newest segment and points the slot of its digest to it.
+	 * The content is flushed without holding the lock, before the slot is written, so that a slot never points
+	 * to data lost by a crash; the index itself isn't flushed, since the checksum of each slot discards
+	 * the ones left incomplete.
+	 *
+	 * @param digest the SHA-256 digest of the original file
+	 * @param conversion the result of the conversion
+	 * @param promotion whether the conversion was read from an old segment, and is copied into the newest one
+	 * so that it won't be evicted with the oldest ones
+	 */
+	private void store(byte[] digest, StoredConversion conversion, boolean promotion) {
+		var content = conversion instanceof StoredConversion.Converted converted ? converted.content() : new byte[0];
+		if (content.length > segmentSize) {
+			return;
+		}
+
+		Appended appended;
+
+		lock.lock();
+		try {
+			if (!promotion && findSlot(digest) != -1) {
+				return;
+			}
+
+			// evicting only turns live slots into deleted ones, so the index is rebuilt to reclaim them
+			while (liveSlots >= slotCount * 3 / 4) {
+				evictOldestSegment();
+			}
+			if (deletedSlots > slotCount / 4 || liveSlots + deletedSlots >= slotCount * 3 / 4) {
+				rebuildIndex();
+			}
+
+			appended = appendContent(content);
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the conversion store");
+			return;
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			appended.channel().force(false);
+		} catch (ClosedChannelException _) {
+			// the segment was evicted in the meantime
+			return;
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the conversion store");
+			return;
+		}
+
+		var extension = conversion instanceof StoredConversion.Converted converted ? converted.fileExtension() : "";
+		var kind = conversion instanceof StoredConversion.Converted ? CONVERTED : ALREADY_VALID;
+
+		lock.lock();
+		try {
+			// the slot is looked up again, since it may have been evicted or written by another thread without the lock:
+			// a promoted conversion evicted in the meantime is stored again
+			if (segments.get(appended.segment()) != appended.channel()) {
+				return;
+			}
+
+			var slot = findSlot(digest);
+			if (slot != -1 && !promotion) {
+				return;
+			}
+
+			if (slot == -1) {
+				slot = findFreeSlot(digest);
+				if (index.get(slotPosition(slot) + STATE_OFFSET) == DELETED) {
+					deletedSlots--;
+				}
+				liveSlots++;
+			}
+			writeSlot(slot, kind, digest, appended.segment(), appended.position(), content.length, extension);
+
+			while (totalSize() > maxSizeBytes) {
+				evictOldestSegment();
+			}
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the conversion store");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the counters describing how effective the store has been so far
+	 */
+	public Stats stats() {
+		lock.lock();
+		try {
+			return new Stats(hits.sum(), misses.sum(), evictions.sum(), liveSlots, totalSize(), maxSizeBytes);
+		} catch (IOException _) {
+			return new Stats(hits.sum(), misses.sum(), evictions.sum(), liveSlots, -1, maxSizeBytes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			index.force();
+			for (var channel : segments.values()) {
+				channel.close();
+			}
+			indexChannel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static int computeSlotCount(long maxSizeBytes) {
+		var expectedEntries = Math.clamp(maxSizeBytes / EXPECTED_BYTES_PER_SLOT, MIN_SLOTS, MAX_SLOTS);
+
+		var slots = MIN_SLOTS;
+		while (slots < expectedEntries) {
+			slots <<= 1;
+		}
+
+		return slots;
+	}
+
+	private boolean hasCompatibleHeader() throws IOException {
+		if (indexChannel.size() != indexSize) {
+			return false;
+		}
+
+		var header = ByteBuffer.allocate(24);
+		while (header.hasRemaining()) {
+			if (indexChannel.read(header, header.position()) == -1) {
+				return false;
+			}
+		}
+
+		return header.getLong(0) == INDEX_MAGIC && header.getInt(8) == slotCount && header.getLong(16) == segmentSize;
+	}
+
+	private void writeHeader() {
+		index.putLong(0, INDEX_MAGIC);
+		index.putInt(8, slotCount);
+		index.putLong(16, segmentSize);
+		index.force();
+	}
+
+	private void deleteSegmentFiles() throws IOException {
+		try (var files = Files.list(directory)) {
+			for (var file : files.toList()) {
+				if (SEGMENT_FILE_PATTERN.matcher(file.getFileName().toString()).matches()) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	private void openSegments() throws IOException {
+		try (var files = Files.list(directory)) {
+			for (var file : files.toList()) {
+				var matcher = SEGMENT_FILE_PATTERN.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					segments.put(Integer.parseInt(matcher.group(1)), FileChannel.open(file, READ, WRITE));
+				}
+			}
+		}
+
+		if (segments.isEmpty()) {
+			createSegment(1);
+		}
+	}
+
+	/**
+	 * Discards the slots which were left incomplete by a crash or which point to missing data,
+	 * then deletes the segments no longer referenced by any slot.
+	 */
+	private void recoverIndex() throws IOException {
+		var referencedSegments = new TreeMap<Integer, Boolean>();
+
+		for (int slot = 0; slot < slotCount; slot++) {
+			var position = slotPosition(slot);
+			var state = index.get(position + STATE_OFFSET);
+
+			if (state == LIVE) {
+				var segment = segments.get(index.getInt(position + SEGMENT_OFFSET));
+				var end = index.getLong(position + POSITION_OFFSET) + index.getInt(position + LENGTH_OFFSET);
+
+				if (index.getInt(position + CHECKSUM_OFFSET) == checksum(position) && segment != null && end <= segment.size()) {
+					liveSlots++;
+					referencedSegments.put(index.getInt(position + SEGMENT_OFFSET), true);
+				} else {
+					index.put(position + STATE_OFFSET, DELETED);
+					deletedSlots++;
+				}
+			} else if (state == DELETED) {
+				deletedSlots++;
+			} else if (state != EMPTY) {
+				index.put(position + STATE_OFFSET, DELETED);
+				deletedSlots++;
+			}
+		}
+		index.force();
+
+		for (var segment : new ArrayList<>(segments.headMap(segments.lastKey()).keySet())) {
+			if (!referencedSegments.containsKey(segment)) {
+				deleteSegment(segment);
+			}
+		}
+	}
+
+	/**
+	 * Copies the live slots, one at a time, into a new index file which starts out zeroed,
+	 * then atomically replaces the current index with it once it has been flushed.
+	 */
+	private void rebuildIndex() throws IOException {
+		var rebuiltPath = directory.resolve(REBUILT_INDEX_FILE_NAME);
+		var rebuiltChannel = FileChannel.open(rebuiltPath, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+
+		try {
+			var rebuilt = rebuiltChannel.map(MapMode.READ_WRITE, 0, indexSize);
+			rebuilt.put(0, index, 0, HEADER_SIZE);
+
+			var digest = new byte[DIGEST_LENGTH];
+			for (int slot = 0; slot < slotCount; slot++) {
+				var position = slotPosition(slot);
+				if (index.get(position + STATE_OFFSET) == LIVE) {
+					index.get(position + DIGEST_OFFSET, digest);
+					rebuilt.put(slotPosition(findFreeSlot(rebuilt, digest)), index, position, SLOT_SIZE);
+				}
+			}
+			rebuilt.force();
+
+			Files.move(rebuiltPath, directory.resolve(INDEX_FILE_NAME), ATOMIC_MOVE);
+			indexChannel.close();
+			indexChannel = rebuiltChannel;
+			index = rebuilt;
+		} catch (IOException e) {
+			rebuiltChannel.close();
+			Files.deleteIfExists(rebuiltPath);
+			throw e;
+		}
+
+		deletedSlots = 0;
+	}
+
+	private int findSlot(byte[] digest) {
+		var mask = slotCount - 1;
+		var start = (int) ByteBuffer.wrap(digest).getLong() & mask;
+
+		for (int i = 0; i < slotCount; i++) {
+			var slot = (start + i) & mask;
+			var position = slotPosition(slot);
+			var state = index.get(position + STATE_OFFSET);
+
+			if (state == EMPTY) {
+				return -1;
+			}
+			if (state == LIVE && hasDigest(position, digest)) {
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	private int findFreeSlot(byte[] digest) {
+		return findFreeSlot(index, digest);
+	}
+
+	private int findFreeSlot(ByteBuffer table, byte[] digest) {
+		var mask = slotCount - 1;
+		var start = (int) ByteBuffer.wrap(digest).getLong() & mask;
+
+		for (int i = 0; i < slotCount; i++) {
+			var slot = (start + i) & mask;
+			if (table.get(slotPosition(slot) + STATE_OFFSET) != LIVE) {
+				return slot;
+			}
+		}
+
+		throw new IllegalStateException("The conversion store index is full");
+	}
+
+	private boolean hasDigest(int position, byte[] digest) {
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			if (index.get(position + DIGEST_OFFSET + i) != digest[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void writeSlot(int slot, byte kind, byte[] digest, int segment, long position, int length, String extension) {
+		var slotPosition = slotPosition(slot);
+
+		index.put(slotPosition + KIND_OFFSET, kind);
+		index.putInt(slotPosition + SEGMENT_OFFSET, segment);
+		index.putLong(slotPosition + POSITION_OFFSET, position);
+		index.putInt(slotPosition + LENGTH_OFFSET, length);
+		index.put(slotPosition + DIGEST_OFFSET, digest, 0, DIGEST_LENGTH);
+		index.put(slotPosition + EXTENSION_OFFSET, Arrays.copyOf(extension.getBytes(US_ASCII), EXTENSION_LENGTH));
+		index.putInt(slotPosition + CHECKSUM_OFFSET, checksum(slotPosition));
+		index.put(slotPosition + STATE_OFFSET, LIVE);
+	}
+
+	private int checksum(int slotPosition) {
+		var crc = new CRC32();
+		crc.update(index.slice(slotPosition + KIND_OFFSET, CHECKSUM_OFFSET - KIND_OFFSET));
+		crc.update(index.slice(slotPosition + DIGEST_OFFSET, SLOT_SIZE - DIGEST_OFFSET));
+
+		return (int) crc.getValue();
+	}
+
+	private String readExtension(int slotPosition) {
+		var extension = new byte[EXTENSION_LENGTH];
+		index.get(slotPosition + EXTENSION_OFFSET, extension);
+
+		var length = 0;
+		while (length < EXTENSION_LENGTH && extension[length] != 0) {
+			length++;
+		}
+
+		return new String(extension, 0, length, US_ASCII);
+	}
+
+	private byte[] readContent(int segment, long position, int length) throws IOException {
+		var content = ByteBuffer.allocate(length);
+		var channel = segments.get(segment);
+
+		while (content.hasRemaining()) {
+			if (channel.read(content, position + content.position()) == -1) {
+				throw new EOFException("The conversion store segment " + segment + " is truncated");
+			}
+		}
+
+		return content.array();
+	}
+
+	/**
+	 * Appends the content to the newest segment, starting a new one if it's full.
+	 * The content has to be flushed before a slot points to it.
+	 *
+	 * @return where the content was appended
+	 */
+	private Appended appendContent(byte[] content) throws IOException {
+		var channel = segments.lastEntry().getValue();
+		if (channel.size() + content.length > segmentSize) {
+			channel = createSegment(segments.lastKey() + 1);
+
+			while (segments.size() > maxSegments) {
+				evictOldestSegment();
+			}
+		}
+
+		var position = channel.size();
+		var buffer = ByteBuffer.wrap(content);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+
+		return new Appended(segments.lastKey(), channel, position);
+	}
+
+	/**
+	 * Content appended to a segment, not flushed yet.
+	 */
+	private record Appended(int segment, FileChannel channel, long position) {}
+
+	private FileChannel createSegment(int segment) throws IOException {
+		var channel = FileChannel.open(directory.resolve(SEGMENT_FILE_FORMAT.formatted(segment)), CREATE, READ, WRITE);
+		segments.put(segment, channel);
+
+		return channel;
+	}
+
+	private void evictOldestSegment() throws IOException {
+		if (segments.size() == 1) {
+			createSegment(segments.lastKey() + 1);
+		}
+
+		var oldestSegment = segments.firstKey();
+		for (int slot = 0; slot < slotCount; slot++) {
+			var position = slotPosition(slot);
+
+			if (index.get(position + STATE_OFFSET) == LIVE && index.getInt(position + SEGMENT_OFFSET) == oldestSegment) {
+				index.put(position + STATE_OFFSET, DELETED);
+				liveSlots--;
+				deletedSlots++;
+				evictions.increment();
+			}
+		}
+		index.force();
+
+		deleteSegment(oldestSegment);
+	}
+
+	private void deleteSegment(int segment) throws IOException {
+		segments.remove(segment).close();
+		Files.deleteIfExists(directory.resolve(SEGMENT_FILE_FORMAT.formatted(segment)));
+	}
+
+	private long totalSize() throws IOException {
+		var size = 0L;
+		for (var channel : segments.values()) {
+			size += channel.size();
+		}
+
+		return size;
+	}
+
+	private static int slotPosition(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/**
+	 * Snapshot of the store counters.
+	 *
+	 * @param hits the lookups which found a stored result
+	 * @param misses the lookups which didn't find a stored result
+	 * @param evictions the results discarded to free up space
+	 * @param entries the number of results currently stored
+	 * @param sizeBytes the size of the stored conversions
+	 * @param capacityBytes the maximum size of the stored conversions
+	 */
+	public record Stats(long hits, long misses, long evictions, int entries, long sizeBytes, long capacityBytes) {}
+}
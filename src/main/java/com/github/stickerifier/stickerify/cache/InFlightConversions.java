@@ -0,0 +1,114 @@
+package com.github.stickerifier.stickerify.cache;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the conversions currently running, keyed by the {@code file_unique_id} Telegram assigns to each file,
+ * so that concurrent requests for the same file share a single conversion.
+ * <p>
+ * The first request joining a conversion becomes its {@link Leader} and is responsible for completing it,
+ * while the following ones become {@link Follower followers} waiting for its result.
+ * When the leader fails, its followers join again: the first one leads the next attempt and the others wait for it,
+ * instead of all of them converting the file at once.
+ */
+public final class InFlightConversions {
+
+	private final ConcurrentMap<String, CompletableFuture<@Nullable ConversionResult>> conversions = new ConcurrentHashMap<>();
+
+	private final LongAdder leaders = new LongAdder();
+	private final LongAdder followers = new LongAdder();
+
+	/**
+	 * Joins the ongoing conversion of the file, or starts a new one if none is running.
+	 *
+	 * @param fileUniqueId the unique identifier of the file
+	 * @return a {@link Leader} if the caller has to convert the file, a {@link Follower} otherwise
+	 */
+	public Flight join(String fileUniqueId) {
+		var conversion = new CompletableFuture<@Nullable ConversionResult>();
+		var ongoingConversion = conversions.putIfAbsent(fileUniqueId, conversion);
+
+		if (ongoingConversion == null) {
+			leaders.increment();
+			return new Leader(fileUniqueId, conversion);
+		}
+
+		followers.increment();
+		return new Follower(ongoingConversion);
+	}
+
+	/**
+	 * @return the counters describing how many conversions were shared so far
+	 */
+	public Stats stats() {
+		return new Stats(leaders.sum(), followers.sum(), conversions.size());
+	}
+
+	/**
+	 * The role of a request in the conversion of a file.
+	 */
+	public sealed interface Flight permits Leader, Follower {}
+
+	/**
+	 * The request converting the file on behalf of all the concurrent ones.
+	 */
+	public final class Leader implements Flight {
+
+		private final String fileUniqueId;
+		private final CompletableFuture<@Nullable ConversionResult> conversion;
+
+		private Leader(String fileUniqueId, CompletableFuture<@Nullable ConversionResult> conversion) {
+			this.fileUniqueId = fileUniqueId;
+			this.conversion = conversion;
+		}
+
+		/**
+		 * Publishes the result to the waiting followers and ends the conversion,
+		 * so that later requests for the same file will start a new one.
+		 *
+		 * @param result the result of the conversion, or {@code null} if it failed
+		 */
+		public void complete(@Nullable ConversionResult result) {
+			conversions.remove(fileUniqueId, conversion);
+			conversion.complete(result);
+		}
+	}
+
+	/**
+	 * A request waiting for the conversion started by the {@link Leader}.
+	 *
+	 * @param conversion the shared conversion
+	 */
+	public record Follower(CompletableFuture<@Nullable ConversionResult> conversion) implements Flight {
+
+		/**
+		 * Waits for the shared conversion to complete: interrupting the waiting thread doesn't affect
+		 * the conversion itself nor the other followers.
+		 *
+		 * @return the result of the conversion, or {@code null} if it failed
+		 * @throws InterruptedException if the waiting thread is interrupted
+		 */
+		public @Nullable ConversionResult await() throws InterruptedException {
+			try {
+				return conversion.get();
+			} catch (ExecutionException _) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the conversion counters.
+	 *
+	 * @param leaders the conversions started
+	 * @param followers the requests which waited for a conversion started by another request
+	 * @param running the conversions currently running
+	 */
+	public record Stats(long leaders, long followers, int running) {}
+}
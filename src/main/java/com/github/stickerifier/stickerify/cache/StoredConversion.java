@@ -0,0 +1,22 @@
+package com.github.stickerifier.stickerify.cache;
+
+/**
+ * The outcome of a conversion persisted by the {@link ConversionStore}.
+ */
+public sealed interface StoredConversion {
+
+	StoredConversion ALREADY_VALID = new AlreadyValid();
+
+	/**
+	 * The file was already suitable to be used as a sticker.
+	 */
+	record AlreadyValid() implements StoredConversion {}
+
+	/**
+	 * The file was converted into a new media.
+	 *
+	 * @param fileExtension the extension of the converted media, without the leading dot
+	 * @param content the content of the converted media
+	 */
+	record Converted(String fileExtension, byte[] content) implements StoredConversion {}
+}
@@ -0,0 +1,109 @@
+package com.github.stickerifier.stickerify.config;
+
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Utility class to read the optional settings of the bot from environment variables.
+ */
+public final class Environment {
+
+	/**
+	 * Retrieves the value of the environment variable, if set.
+	 *
+	 * @param name the name of the environment variable
+	 * @return the value of the variable, or {@code null} if it isn't set or if it's blank
+	 */
+	public static @Nullable String getString(String name) {
+		var value = System.getenv(name);
+
+		return value == null || value.isBlank() ? null : value.strip();
+	}
+
+	/**
+	 * Retrieves the value of the environment variable as a comma-separated list.
+	 *
+	 * @param name the name of the environment variable
+	 * @return the non-blank elements of the list, or an empty list if the variable isn't set
+	 */
+	public static List<String> getList(String name) {
+		var value = getString(name);
+		if (value == null) {
+			return List.of();
+		}
+
+		return Arrays.stream(value.split(",")).map(String::strip).filter(element -> !element.isEmpty()).toList();
+	}
+
+	/**
+	 * Retrieves the value of the environment variable as an integer.
+	 *
+	 * @param name the name of the environment variable
+	 * @param defaultValue the value to use if the variable isn't set
+	 * @param minimum the minimum accepted value
+	 * @return the value of the variable, or {@code defaultValue} if it isn't set
+	 * @throws IllegalArgumentException if the value isn't a number or if it's lower than {@code minimum}
+	 */
+	public static int getInt(String name, int defaultValue, int minimum) {
+		return Math.toIntExact(getLong(name, defaultValue, minimum));
+	}
+
+	/**
+	 * Retrieves the value of the environment variable as a long.
+	 *
+	 * @param name the name of the environment variable
+	 * @param defaultValue the value to use if the variable isn't set
+	 * @param minimum the minimum accepted value
+	 * @return the value of the variable, or {@code defaultValue} if it isn't set
+	 * @throws IllegalArgumentException if the value isn't a number or if it's lower than {@code minimum}
+	 */
+	public static long getLong(String name, long defaultValue, long minimum) {
+		var variable = getString(name);
+		var value = variable == null ? defaultValue : parse(name, variable);
+		if (value < minimum) {
+			throw new IllegalArgumentException("The environment variable " + name + " must be >= " + minimum + " (was " + variable + ")");
+		}
+
+		return value;
+	}
+
+	private static long parse(String name, String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The environment variable " + name + " must be a number (was " + value + ")", e);
+		}
+	}
+
+	/**
+	 * Retrieves the value of the environment variable as a duration expressed in seconds.
+	 *
+	 * @param name the name of the environment variable
+	 * @param defaultValue the value to use if the variable isn't set
+	 * @return the value of the variable, or {@code defaultValue} if it isn't set
+	 * @throws IllegalArgumentException if the value isn't a non-negative number
+	 */
+	public static Duration getSeconds(String name, Duration defaultValue) {
+		return Duration.ofSeconds(getLong(name, defaultValue.toSeconds(), 0));
+	}
+
+	/**
+	 * Retrieves the value of the environment variable as a boolean.
+	 *
+	 * @param name the name of the environment variable
+	 * @param defaultValue the value to use if the variable isn't set
+	 * @return {@code true} if the variable is set to {@code true} (ignoring case), or {@code defaultValue} if it isn't set
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		var value = getString(name);
+
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	private Environment() {
+		throw new UnsupportedOperationException();
+	}
+}
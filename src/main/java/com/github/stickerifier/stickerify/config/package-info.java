@@ -0,0 +1,4 @@
+@NullMarked
+package com.github.stickerifier.stickerify.config;
+
+import org.jspecify.annotations.NullMarked;
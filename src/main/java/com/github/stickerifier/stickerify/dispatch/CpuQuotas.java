@@ -0,0 +1,124 @@
+package com.github.stickerifier.stickerify.dispatch;
+
+import com.github.stickerifier.stickerify.config.Environment;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the CPU time each user can make the bot spend, so that heavy conversions are paid for by whoever requests them.
+ * <p>
+ * Every user has a token bucket of CPU time: it holds up to {@code burst}, and refills at {@code ratePerMinute}.
+ * Each bucket is a single atomic timestamp, the instant from which the bucket refills starting empty:
+ * charging CPU time moves it forward, so charging and checking a bucket never lock.
+ * A user is over budget while that instant is in the future.
+ */
+public final class CpuQuotas {
+
+	private static final Duration DEFAULT_BURST = Duration.ofMinutes(5);
+	private static final Duration DEFAULT_RATE_PER_MINUTE = Duration.ofMinutes(1);
+	/**
+	 * Buckets which refilled completely are forgotten once this many users are tracked.
+	 */
+	private static final int MAX_TRACKED_USERS = 10_000;
+
+	private final long burstNanos;
+	private final double refillPerNano;
+	private final LongSupplier nanoClock;
+	private final ConcurrentMap<Long, AtomicLong> emptyAt = new ConcurrentHashMap<>();
+
+	private final LongAdder chargedNanos = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+
+	/**
+	 * Creates the quotas; if {@code burst} is zero, users are never over budget.
+	 *
+	 * @param burst the CPU time a user can spend at once
+	 * @param ratePerMinute the CPU time given back to each user every minute
+	 */
+	public CpuQuotas(Duration burst, Duration ratePerMinute) {
+		this(burst, ratePerMinute, System::nanoTime);
+	}
+
+	CpuQuotas(Duration burst, Duration ratePerMinute, LongSupplier nanoClock) {
+		this.burstNanos = burst.toNanos();
+		this.refillPerNano = (double) ratePerMinute.toNanos() / Duration.ofMinutes(1).toNanos();
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Creates the quotas with the CPU seconds set by the {@code CPU_QUOTA_BURST} (defaults to 300 seconds)
+	 * and {@code CPU_QUOTA_RATE} (CPU seconds per minute, defaults to 60) environment variables.
+	 * Setting {@code CPU_QUOTA_BURST} to 0 disables the quotas.
+	 *
+	 * @return the configured quotas
+	 * @throws IllegalArgumentException if any value is not valid
+	 */
+	public static CpuQuotas fromEnvironment() {
+		var burst = Environment.getSeconds("CPU_QUOTA_BURST", DEFAULT_BURST);
+		var rate = Duration.ofSeconds(Environment.getLong("CPU_QUOTA_RATE", DEFAULT_RATE_PER_MINUTE.toSeconds(), 1));
+
+		return new CpuQuotas(burst, rate);
+	}
+
+	/**
+	 * Charges the CPU time spent on behalf of the user.
+	 *
+	 * @param userId the user
+	 * @param cpuTime the CPU time spent
+	 */
+	public void charge(long userId, Duration cpuTime) {
+		if (burstNanos == 0) {
+			return;
+		}
+
+		var cost = (long) (cpuTime.toNanos() / refillPerNano);
+		var now = nanoClock.getAsLong();
+		var fullAt = now - (long) (burstNanos / refillPerNano);
+
+		emptyAt.computeIfAbsent(userId, _ -> new AtomicLong(fullAt)).accumulateAndGet(cost, (current, added) -> Math.max(current, fullAt) + added);
+		chargedNanos.add(cpuTime.toNanos());
+
+		if (emptyAt.size() > MAX_TRACKED_USERS) {
+			emptyAt.values().removeIf(bucket -> bucket.get() <= fullAt);
+		}
+	}
+
+	/**
+	 * Checks whether the user spent all the CPU time of its bucket, counting the check as throttled if so.
+	 *
+	 * @param userId the user
+	 * @return how long the user has to wait to be within budget again, or {@link Duration#ZERO} if within budget
+	 */
+	public Duration overBudget(long userId) {
+		var bucket = emptyAt.get(userId);
+		if (bucket == null) {
+			return Duration.ZERO;
+		}
+
+		var wait = bucket.get() - nanoClock.getAsLong();
+		if (wait <= 0) {
+			return Duration.ZERO;
+		}
+
+		throttled.increment();
+		return Duration.ofNanos(wait);
+	}
+
+	public Stats stats() {
+		return new Stats(emptyAt.size(), Duration.ofNanos(chargedNanos.sum()), throttled.sum());
+	}
+
+	/**
+	 * Snapshot of the quota counters.
+	 *
+	 * @param trackedUsers the users whose bucket isn't known to be full
+	 * @param charged the CPU time charged so far
+	 * @param throttled the requests refused because their user was over budget
+	 */
+	public record Stats(int trackedUsers, Duration charged, long throttled) {}
+}
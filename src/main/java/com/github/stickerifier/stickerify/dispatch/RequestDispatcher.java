@@ -0,0 +1,314 @@
+package com.github.stickerifier.stickerify.dispatch;
+
+import com.github.stickerifier.stickerify.config.Environment;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the requests of each chat in order of arrival, sharing the available concurrency fairly among chats,
+ * so that a chat sending many files at once doesn't delay the others.
+ * <p>
+ * Requests are queued per chat, and chats are served with deficit round-robin: at each turn a chat earns
+ * a quantum of bytes, and starts its next requests as long as it has earned the size of their files.
+ * At most {@code maxConcurrentRequests} requests run at once, and at most {@code maxConcurrentRequestsPerChat}
+ * of them belong to the same chat.
+ * <p>
+ * To bound the memory and the disk used by the requests, new ones are shed once the requests in flight,
+ * either running or queued, reach {@code maxInFlightRequests}, or once their files would exceed {@code maxInFlightBytes}.
+ */
+public final class RequestDispatcher implements AutoCloseable {
+
+	private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+	private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_CHAT = 2;
+	private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 256;
+	private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 1_000_000_000L;
+	/**
+	 * The bytes a chat earns at each turn: requests without files, or with files smaller than this, cost a whole turn.
+	 */
+	static final long QUANTUM_BYTES = 1024 * 1024;
+
+	private final Executor executor;
+	private final int maxConcurrentRequests;
+	private final int maxConcurrentRequestsPerChat;
+	private final int maxInFlightRequests;
+	private final long maxInFlightBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition idle = lock.newCondition();
+	private final Map<Long, ChatQueue> chats = new HashMap<>();
+	private final ArrayDeque<ChatQueue> turns = new ArrayDeque<>();
+	private int running;
+	private int queued;
+	private long inFlightBytes;
+	private long admitted;
+	private long shed;
+	private long dispatched;
+	private boolean closed;
+
+	/**
+	 * Creates a dispatcher running the requests with {@code executor}.
+	 *
+	 * @param executor the executor running the requests
+	 * @param maxConcurrentRequests the maximum number of requests running at once
+	 * @param maxConcurrentRequestsPerChat the maximum number of requests of the same chat running at once
+	 * @param maxInFlightRequests the number of requests running or queued past which new ones are shed
+	 * @param maxInFlightBytes the total size of the files of the requests running or queued past which new ones are shed
+	 */
+	public RequestDispatcher(Executor executor, int maxConcurrentRequests, int maxConcurrentRequestsPerChat, int maxInFlightRequests, long maxInFlightBytes) {
+		this.executor = executor;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.maxConcurrentRequestsPerChat = maxConcurrentRequestsPerChat;
+		this.maxInFlightRequests = maxInFlightRequests;
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * Creates a dispatcher whose limits are set by the {@code MAX_CONCURRENT_REQUESTS} (defaults to 16),
+	 * {@code MAX_CONCURRENT_REQUESTS_PER_CHAT} (defaults to 2), {@code MAX_IN_FLIGHT_REQUESTS} (defaults to 256)
+	 * and {@code MAX_IN_FLIGHT_BYTES} (defaults to 1 GB) environment variables.
+	 *
+	 * @param executor the executor running the requests
+	 * @return the configured dispatcher
+	 * @throws IllegalArgumentException if any limit is not a positive number
+	 */
+	public static RequestDispatcher fromEnvironment(Executor executor) {
+		return new RequestDispatcher(
+				executor,
+				Environment.getInt("MAX_CONCURRENT_REQUESTS", DEFAULT_MAX_CONCURRENT_REQUESTS, 1),
+				Environment.getInt("MAX_CONCURRENT_REQUESTS_PER_CHAT", DEFAULT_MAX_CONCURRENT_REQUESTS_PER_CHAT, 1),
+				Environment.getInt("MAX_IN_FLIGHT_REQUESTS", DEFAULT_MAX_IN_FLIGHT_REQUESTS, 1),
+				Environment.getLong("MAX_IN_FLIGHT_BYTES", DEFAULT_MAX_IN_FLIGHT_BYTES, 1)
+		);
+	}
+
+	/**
+	 * Queues the request of the chat, starting it as soon as it's its turn,
+	 * unless too much work is already in flight.
+	 * A single request is always admitted when nothing else is in flight, however large its file.
+	 *
+	 * @param chatId the chat the request comes from
+	 * @param fileSize the size of the file to process, or 0 if the request has no file
+	 * @param request the request to run
+	 * @return {@code true} if the request was admitted, {@code false} if it was shed
+	 * @throws IllegalStateException if the dispatcher is closed
+	 */
+	public boolean submit(long chatId, long fileSize, Runnable request) {
+		List<Runnable> toStart;
+		var size = Math.max(fileSize, 0);
+
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IllegalStateException("The dispatcher is closed");
+			}
+
+			var inFlight = running + queued;
+			if (inFlight >= maxInFlightRequests || (inFlight > 0 && inFlightBytes + size > maxInFlightBytes)) {
+				shed++;
+				return false;
+			}
+
+			admitted++;
+			inFlightBytes += size;
+
+			var chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+			chat.requests.add(new QueuedRequest(size, Math.max(size, QUANTUM_BYTES), request));
+			queued++;
+			scheduleTurn(chat);
+
+			toStart = dispatch();
+		} finally {
+			lock.unlock();
+		}
+
+		toStart.forEach(executor::execute);
+
+		return true;
+	}
+
+	/**
+	 * Starts the queued requests whose turn has come, as long as there's room for them.
+	 * Must be called holding the lock; the returned requests must be executed after releasing it,
+	 * since the executor could run them on the calling thread.
+	 */
+	private List<Runnable> dispatch() {
+		var toStart = new ArrayList<Runnable>();
+
+		while (running < maxConcurrentRequests && !turns.isEmpty()) {
+			var chat = turns.poll();
+			chat.hasTurn = false;
+
+			if (chat.running >= maxConcurrentRequestsPerChat) {
+				chat.inTurn = false;
+				continue;
+			}
+
+			if (!chat.inTurn) {
+				chat.inTurn = true;
+				chat.deficit += QUANTUM_BYTES;
+			}
+
+			var next = chat.requests.peek();
+			if (chat.deficit < next.cost()) {
+				chat.inTurn = false;
+				scheduleTurn(chat);
+				continue;
+			}
+
+			chat.requests.poll();
+			chat.deficit -= next.cost();
+			chat.running++;
+			running++;
+			queued--;
+			dispatched++;
+
+			if (chat.requests.isEmpty()) {
+				chat.deficit = 0;
+				chat.inTurn = false;
+			} else if (chat.deficit >= chat.requests.peek().cost() && chat.running < maxConcurrentRequestsPerChat) {
+				chat.hasTurn = true;
+				turns.addFirst(chat);
+			} else {
+				chat.inTurn = false;
+				scheduleTurn(chat);
+			}
+
+			toStart.add(() -> run(chat, next));
+		}
+
+		return toStart;
+	}
+
+	private void run(ChatQueue chat, QueuedRequest request) {
+		try {
+			request.request().run();
+		} finally {
+			List<Runnable> toStart;
+
+			lock.lock();
+			try {
+				chat.running--;
+				running--;
+				inFlightBytes -= request.fileSize();
+
+				if (!chat.requests.isEmpty()) {
+					scheduleTurn(chat);
+				} else if (chat.running == 0) {
+					chats.remove(chat.chatId);
+				}
+
+				toStart = dispatch();
+				if (running == 0 && queued == 0) {
+					idle.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			toStart.forEach(executor::execute);
+		}
+	}
+
+	private void scheduleTurn(ChatQueue chat) {
+		if (!chat.hasTurn && !chat.requests.isEmpty()) {
+			chat.hasTurn = true;
+			turns.add(chat);
+		}
+	}
+
+	public Stats stats() {
+		lock.lock();
+		try {
+			return new Stats(admitted, shed, dispatched, running, queued, inFlightBytes, chats.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Rejects new requests and waits for the queued ones to complete.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		lock.lock();
+		try {
+			closed = true;
+			while (running > 0 || queued > 0) {
+				idle.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Rejects new requests and waits for the queued ones to complete, giving up once the timeout elapses.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @return {@code true} if all the requests completed, {@code false} if some are still running or queued
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public boolean drain(Duration timeout) throws InterruptedException {
+		var remaining = timeout.toNanos();
+
+		lock.lock();
+		try {
+			closed = true;
+			while (running > 0 || queued > 0) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = idle.awaitNanos(remaining);
+			}
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Snapshot of the dispatcher counters.
+	 *
+	 * @param admitted the requests accepted so far
+	 * @param shed the requests refused so far because too much work was in flight
+	 * @param dispatched the requests started so far
+	 * @param running the requests currently running
+	 * @param queued the requests waiting for their turn
+	 * @param inFlightBytes the total size of the files of the running and queued requests
+	 * @param chats the chats with running or queued requests
+	 */
+	public record Stats(long admitted, long shed, long dispatched, int running, int queued, long inFlightBytes, int chats) {}
+
+	private record QueuedRequest(long fileSize, long cost, Runnable request) {}
+
+	private static final class ChatQueue {
+		private final long chatId;
+		private final Queue<QueuedRequest> requests = new ArrayDeque<>();
+		private long deficit;
+		private int running;
+		/**
+		 * Whether the chat is waiting in {@code turns}.
+		 */
+		private boolean hasTurn;
+		/**
+		 * Whether the chat has already earned the quantum of its current turn.
+		 */
+		private boolean inTurn;
+
+		private ChatQueue(long chatId) {
+			this.chatId = chatId;
+		}
+	}
+}
@@ -0,0 +1,4 @@
+@NullMarked
+package com.github.stickerifier.stickerify.dispatch;
+
+import org.jspecify.annotations.NullMarked;
@@ -12,4 +12,11 @@ public class FileOperationException extends MediaException {
 	public FileOperationException(String message, Throwable cause) {
 		super(message, cause);
 	}
+
+	/**
+	 * @see BaseException#BaseException(String, Object...)
+	 */
+	public FileOperationException(String message, Object... parameters) {
+		super(message, parameters);
+	}
 }
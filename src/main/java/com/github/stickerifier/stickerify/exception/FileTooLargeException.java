@@ -0,0 +1,10 @@
+package com.github.stickerifier.stickerify.exception;
+
+public class FileTooLargeException extends FileOperationException {
+	/**
+	 * @see BaseException#BaseException(String, Object...)
+	 */
+	public FileTooLargeException(String message, Object... parameters) {
+		super(message, parameters);
+	}
+}
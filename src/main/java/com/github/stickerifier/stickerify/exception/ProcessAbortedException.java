@@ -0,0 +1,10 @@
+package com.github.stickerifier.stickerify.exception;
+
+public class ProcessAbortedException extends ProcessException {
+	/**
+	 * @see BaseException#BaseException(String, Object...)
+	 */
+	public ProcessAbortedException(String message, Object... parameters) {
+		super(message, parameters);
+	}
+}
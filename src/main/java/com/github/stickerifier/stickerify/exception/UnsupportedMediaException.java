@@ -0,0 +1,10 @@
+package com.github.stickerifier.stickerify.exception;
+
+public class UnsupportedMediaException extends MediaException {
+	/**
+	 * @see BaseException#BaseException(String, Object...)
+	 */
+	public UnsupportedMediaException(String message, Object... parameters) {
+		super(message, parameters);
+	}
+}
@@ -0,0 +1,429 @@
+package com.github.stickerifier.stickerify.journal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.google.gson.JsonParseException;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.utility.BotUtils;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the updates accepted by the bot, so that the requests still being processed
+ * when the bot stops are answered once it starts again.
+ * <p>
+ * Updates are appended to a memory-mapped file before being confirmed to Telegram, and marked as complete
+ * once they have been answered. Each record is protected by a checksum: a record left incomplete by a crash
+ * ends the journal when it's read back.
+ * <p>
+ * Appending a record only copies it into the mapped file, while the records are made durable by a flush
+ * covering all the ones appended so far: batches appended while a flush is in progress are committed together
+ * by the next one. Completions aren't flushed on their own, so an update answered right before a crash
+ * may be answered twice, but never lost.
+ * <p>
+ * Once the file is full, it's rewritten with only the updates not yet complete.
+ */
+public final class UpdateJournal implements AutoCloseable {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(UpdateJournal.class);
+
+	private static final long DEFAULT_SIZE_MB = 16;
+	private static final long MIN_SIZE_MB = 1;
+
+	private static final long MAGIC = 0x5354_4B52_4A4E_0001L;
+	private static final int HEADER_SIZE = 16;
+
+	private static final int CHECKSUM_OFFSET = 0;
+	private static final int TYPE_OFFSET = 4;
+	private static final int UPDATE_ID_OFFSET = 5;
+	private static final int LENGTH_OFFSET = 9;
+	private static final int PAYLOAD_OFFSET = 13;
+
+	private static final byte ACCEPTED = 1;
+	private static final byte COMPLETED = 2;
+
+	private final Path file;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	/**
+	 * The updates accepted but not completed yet, in the order they were accepted, as JSON.
+	 */
+	private final Map<Integer, byte[]> pending = new LinkedHashMap<>();
+	private final List<Update> recovered;
+
+	private long capacity;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int writePosition;
+	private int flushedPosition;
+	/**
+	 * Incremented every time the file is rewritten, so that a flush of the previous file isn't mistaken for one of the new file.
+	 */
+	private long generation;
+
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder rewrites = new LongAdder();
+
+	private UpdateJournal(Path file, long capacity) throws IOException {
+		this.file = file;
+		this.capacity = capacity;
+		this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+		this.buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+
+		readRecords();
+		this.recovered = parsePending();
+		rewrite();
+	}
+
+	/**
+	 * Opens the journal saved in {@code file}, creating it if it doesn't exist.
+	 *
+	 * @param file the file containing the journal
+	 * @param capacity the size of the file before it has to be rewritten
+	 * @return the opened journal
+	 * @throws IOException if the journal couldn't be opened
+	 */
+	public static UpdateJournal open(Path file, long capacity) throws IOException {
+		var parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		return new UpdateJournal(file, Math.min(capacity, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Opens the journal saved in the file specified by the {@code UPDATE_JOURNAL_PATH} environment variable,
+	 * rewritten once it reaches the megabytes specified by {@code UPDATE_JOURNAL_SIZE} (defaults to 16 MB).
+	 *
+	 * @return the opened journal, or {@code null} if the journal isn't configured or couldn't be opened
+	 */
+	public static @Nullable UpdateJournal fromEnvironment() {
+		var file = Environment.getString("UPDATE_JOURNAL_PATH");
+		if (file == null) {
+			return null;
+		}
+
+		var capacity = Environment.getLong("UPDATE_JOURNAL_SIZE", DEFAULT_SIZE_MB, MIN_SIZE_MB) << 20;
+
+		try {
+			return open(Path.of(file), capacity);
+		} catch (IOException e) {
+			LOGGER.at(Level.ERROR).setCause(e).log("Unable to open the update journal, accepted updates won't be persisted");
+			return null;
+		}
+	}
+
+	/**
+	 * @return the updates which were accepted but not completed when the journal was last closed,
+	 * in the order they were accepted
+	 */
+	public List<Update> recoveredUpdates() {
+		return recovered;
+	}
+
+	/**
+	 * Records the updates and makes them durable, so that they can be confirmed to Telegram.
+	 * Updates which are already in the journal, like the ones Telegram sends again after a restart,
+	 * are left out, since they are already being processed.
+	 *
+	 * @param updates the updates to record
+	 * @return the updates which weren't already in the journal
+	 * @throws IOException if the updates couldn't be flushed: they are dropped from the journal,
+	 * and shouldn't be confirmed to Telegram so that it sends them again
+	 */
+	public List<Update> accept(List<Update> updates) throws IOException {
+		var acceptedUpdates = new ArrayList<Update>(updates.size());
+
+		lock.lock();
+		try {
+			for (var update : updates) {
+				if (pending.containsKey(update.updateId())) {
+					continue;
+				}
+
+				var json = BotUtils.toJson(update).getBytes(UTF_8);
+				append(ACCEPTED, update.updateId(), json);
+				pending.put(update.updateId(), json);
+				acceptedUpdates.add(update);
+			}
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the update journal");
+			return updates;
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flush();
+		} catch (UncheckedIOException e) {
+			discard(acceptedUpdates);
+			throw e.getCause();
+		}
+
+		accepted.add(acceptedUpdates.size());
+		return acceptedUpdates;
+	}
+
+	/**
+	 * Drops the updates which couldn't be made durable, marking them as complete in case their records
+	 * are flushed later, so that they aren't recovered as well as sent again by Telegram.
+	 */
+	private void discard(List<Update> updates) {
+		lock.lock();
+		try {
+			for (var update : updates) {
+				if (pending.remove(update.updateId()) != null) {
+					append(COMPLETED, update.updateId(), new byte[0]);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the update journal");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks the update as answered, so that it's not processed again when the bot restarts.
+	 *
+	 * @param updateId the identifier of the update
+	 */
+	public void complete(int updateId) {
+		lock.lock();
+		try {
+			if (pending.remove(updateId) != null) {
+				append(COMPLETED, updateId, new byte[0]);
+				completed.increment();
+			}
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to write into the update journal");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes all the records appended so far, unless a concurrent flush already did.
+	 */
+	private void flush() {
+		flushLock.lock();
+		try {
+			MappedByteBuffer target;
+			int from;
+			int to;
+			long flushedGeneration;
+
+			lock.lock();
+			try {
+				if (flushedPosition >= writePosition) {
+					return;
+				}
+
+				target = buffer;
+				from = flushedPosition;
+				to = writePosition;
+				flushedGeneration = generation;
+			} finally {
+				lock.unlock();
+			}
+
+			target.force(from, to - from);
+			flushes.increment();
+
+			lock.lock();
+			try {
+				if (flushedGeneration == generation) {
+					flushedPosition = to;
+				}
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	public Stats stats() {
+		lock.lock();
+		try {
+			return new Stats(accepted.sum(), completed.sum(), recovered.size(), pending.size(), flushes.sum(), rewrites.sum());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			buffer.force();
+			channel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void append(byte type, int updateId, byte[] payload) throws IOException {
+		var recordSize = PAYLOAD_OFFSET + payload.length;
+		if (writePosition + recordSize > capacity) {
+			rewrite();
+		}
+		while (writePosition + recordSize > capacity) {
+			capacity *= 2;
+			buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+		}
+
+		writeRecord(buffer, writePosition, type, updateId, payload);
+		writePosition += recordSize;
+	}
+
+	private static void writeRecord(ByteBuffer target, int position, byte type, int updateId, byte[] payload) {
+		target.put(position + TYPE_OFFSET, type);
+		target.putInt(position + UPDATE_ID_OFFSET, updateId);
+		target.putInt(position + LENGTH_OFFSET, payload.length);
+		target.put(position + PAYLOAD_OFFSET, payload);
+		target.putInt(position + CHECKSUM_OFFSET, checksum(target, position, payload.length));
+	}
+
+	private static int checksum(ByteBuffer source, int position, int payloadLength) {
+		var crc = new CRC32();
+		crc.update(source.slice(position + TYPE_OFFSET, PAYLOAD_OFFSET - TYPE_OFFSET + payloadLength));
+
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the records up to the first one which is missing or incomplete, keeping track of the pending updates.
+	 */
+	private void readRecords() {
+		if (buffer.getLong(0) != MAGIC) {
+			return;
+		}
+
+		var position = HEADER_SIZE;
+		var limit = buffer.limit();
+
+		while (position + PAYLOAD_OFFSET <= limit) {
+			var type = buffer.get(position + TYPE_OFFSET);
+			var length = buffer.getInt(position + LENGTH_OFFSET);
+			if ((type != ACCEPTED && type != COMPLETED) || length < 0 || length > limit - position - PAYLOAD_OFFSET) {
+				break;
+			}
+			if (buffer.getInt(position + CHECKSUM_OFFSET) != checksum(buffer, position, length)) {
+				break;
+			}
+
+			var updateId = buffer.getInt(position + UPDATE_ID_OFFSET);
+			if (type == ACCEPTED) {
+				var payload = new byte[length];
+				buffer.get(position + PAYLOAD_OFFSET, payload);
+				pending.put(updateId, payload);
+			} else {
+				pending.remove(updateId);
+			}
+
+			position += PAYLOAD_OFFSET + length;
+		}
+	}
+
+	private List<Update> parsePending() {
+		var updates = new ArrayList<Update>(pending.size());
+
+		for (var iterator = pending.values().iterator(); iterator.hasNext(); ) {
+			try {
+				var update = BotUtils.parseUpdate(new String(iterator.next(), UTF_8));
+				if (update != null) {
+					updates.add(update);
+					continue;
+				}
+			} catch (JsonParseException e) {
+				LOGGER.at(Level.WARN).setCause(e).log("Unable to read an update from the journal, discarding it");
+			}
+			iterator.remove();
+		}
+
+		if (!updates.isEmpty()) {
+			LOGGER.at(Level.INFO).log("Recovered {} unanswered updates from the journal", updates.size());
+		}
+
+		return List.copyOf(updates);
+	}
+
+	/**
+	 * Replaces the file with a new one containing only the pending updates, flushed before taking the place of the old one.
+	 */
+	private void rewrite() throws IOException {
+		var size = HEADER_SIZE;
+		for (var payload : pending.values()) {
+			size += PAYLOAD_OFFSET + payload.length;
+		}
+
+		var content = ByteBuffer.allocate(size);
+		content.putLong(0, MAGIC);
+		var position = HEADER_SIZE;
+		for (var entry : pending.entrySet()) {
+			writeRecord(content, position, ACCEPTED, entry.getKey(), entry.getValue());
+			position += PAYLOAD_OFFSET + entry.getValue().length;
+		}
+
+		var tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (var tempChannel = FileChannel.open(tempFile, CREATE, TRUNCATE_EXISTING, WRITE)) {
+			while (content.hasRemaining()) {
+				tempChannel.write(content);
+			}
+			tempChannel.force(true);
+		}
+
+		channel.close();
+		Files.move(tempFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+
+		while (capacity < size * 2L) {
+			capacity *= 2;
+		}
+		channel = FileChannel.open(file, READ, WRITE);
+		buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+		writePosition = size;
+		flushedPosition = size;
+		generation++;
+		rewrites.increment();
+	}
+
+	/**
+	 * Snapshot of the journal counters.
+	 *
+	 * @param accepted the updates recorded since the journal was opened
+	 * @param completed the updates marked as answered since the journal was opened
+	 * @param recovered the updates found unanswered when the journal was opened
+	 * @param pending the updates not answered yet
+	 * @param flushes the times the records were flushed to disk
+	 * @param rewrites the times the file was rewritten to drop the answered updates
+	 */
+	public record Stats(long accepted, long completed, int recovered, int pending, long flushes, long rewrites) {}
+}
@@ -0,0 +1,4 @@
+@NullMarked
+package com.github.stickerifier.stickerify.journal;
+
+import org.jspecify.annotations.NullMarked;
@@ -18,6 +18,18 @@ public record StructuredLogger(Logger logger) {
 	public static final String ORIGINAL_REQUEST_LOG_KEY = "original_request";
 	public static final String FILE_PATH_LOG_KEY = "file_path";
 	public static final String STICKER_LOG_KEY = "sticker";
+	public static final String CONVERSION_CACHE_LOG_KEY = "conversion_cache";
+	public static final String CONVERSION_STORE_LOG_KEY = "conversion_store";
+	public static final String IN_FLIGHT_CONVERSIONS_LOG_KEY = "in_flight_conversions";
+	public static final String BITRATE_PLANNER_LOG_KEY = "bitrate_planner";
+	public static final String PROCESS_SCHEDULER_LOG_KEY = "process_scheduler";
+	public static final String REQUEST_DISPATCHER_LOG_KEY = "request_dispatcher";
+	public static final String CPU_QUOTAS_LOG_KEY = "cpu_quotas";
+	public static final String RATE_LIMITER_LOG_KEY = "rate_limiter";
+	public static final String LONG_POLLING_LOG_KEY = "long_polling";
+	public static final String UPDATE_JOURNAL_LOG_KEY = "update_journal";
+	public static final String WORK_QUEUE_LOG_KEY = "work_queue";
+	public static final String HANDOFF_LOG_KEY = "handoff";
 
 	public StructuredLogger(Class<?> clazz) {
 		this(LoggerFactory.getLogger(clazz));
@@ -0,0 +1,294 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_VIDEO_FILE_SIZE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Chooses the bitrate of the second pass of a video so that the result fits the size limit at the first attempt.
+ * <p>
+ * The duration, the frame count and the complexity of the video are read from the statistics of the first pass.
+ * The complexity, measured as the average prediction error of each macroblock, selects a class of videos,
+ * and the ratio between the actual and the predicted size observed for that class corrects the prediction.
+ * The observed ratios are kept in the file set by the {@code BITRATE_HISTORY_PATH} environment variable, if any,
+ * so that they survive restarts.
+ * <p>
+ * A plan is borderline when the size of the video, given how much the observed ratios vary, might still exceed the limit.
+ */
+public final class BitratePlanner {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(BitratePlanner.class);
+	private static final Gson GSON = new Gson();
+
+	static final int MAX_BITRATE_KBPS = 650;
+	private static final int MIN_BITRATE_KBPS = 100;
+	/**
+	 * Fraction of the size limit the prediction aims at, to absorb the error of the prediction itself.
+	 */
+	private static final double SIZE_SAFETY_MARGIN = 0.95;
+	private static final int COMPLEXITY_CLASSES = 16;
+	private static final double MIN_SMOOTHING_FACTOR = 0.1;
+	/**
+	 * How much the ratio of a class is assumed to vary before any video of that class is observed.
+	 */
+	private static final double INITIAL_RATIO_DEVIATION = 0.25;
+	/**
+	 * How many deviations above the expected size a video can be and still be considered safely under the limit.
+	 */
+	private static final double BORDERLINE_DEVIATIONS = 2;
+
+	/**
+	 * Layout of the first pass statistics written by libvpx: one record of doubles for each frame,
+	 * followed by a record summing all of them.
+	 */
+	private static final int FRAME_FIELD = 0;
+	private static final int CODED_ERROR_FIELD = 3;
+	private static final int DURATION_FIELD = 23;
+	private static final int COUNT_FIELD = 24;
+	private static final int MAX_RECORD_FIELDS = 64;
+	private static final double TICKS_PER_SECOND = 10_000_000D;
+
+	private final @Nullable Path historyFile;
+	private final double[] sizeRatios;
+	private final double[] ratioDeviations;
+	private final long[] samples;
+	private long plannedEncodes;
+	private long retries;
+
+	BitratePlanner(@Nullable Path historyFile) {
+		this.historyFile = historyFile;
+		this.sizeRatios = new double[COMPLEXITY_CLASSES];
+		this.ratioDeviations = new double[COMPLEXITY_CLASSES];
+		this.samples = new long[COMPLEXITY_CLASSES];
+		Arrays.fill(sizeRatios, 1D);
+		Arrays.fill(ratioDeviations, INITIAL_RATIO_DEVIATION);
+
+		if (historyFile != null) {
+			loadHistory(historyFile);
+		}
+	}
+
+	/**
+	 * Creates the planner, keeping its history in the file set by the {@code BITRATE_HISTORY_PATH}
+	 * environment variable, or only in memory if it isn't set.
+	 *
+	 * @return the planner
+	 */
+	static BitratePlanner fromEnvironment() {
+		var path = Environment.getString("BITRATE_HISTORY_PATH");
+
+		return new BitratePlanner(path == null ? null : Path.of(path));
+	}
+
+	/**
+	 * Plans the bitrate of the second pass.
+	 *
+	 * @param firstPassLog the statistics written by the first pass
+	 * @return the planned bitrate, the maximum one if the statistics couldn't be read
+	 */
+	synchronized Plan plan(Path firstPassLog) {
+		var summary = readFirstPass(firstPassLog);
+		if (summary == null) {
+			LOGGER.at(Level.DEBUG).log("The first pass statistics couldn't be read, using the maximum bitrate");
+			return new Plan(MAX_BITRATE_KBPS, -1, 0, 0, true);
+		}
+
+		var complexityClass = summary.complexityClass();
+		var budgetBytes = SIZE_SAFETY_MARGIN * MAX_VIDEO_FILE_SIZE / sizeRatios[complexityClass];
+		var bitrate = (int) Math.clamp(budgetBytes * 8 / 1000 / summary.durationSeconds(), MIN_BITRATE_KBPS, MAX_BITRATE_KBPS);
+		var predictedBytes = bitrate * 1000 / 8D * summary.durationSeconds();
+		var worstRatio = sizeRatios[complexityClass] + BORDERLINE_DEVIATIONS * ratioDeviations[complexityClass];
+		var borderline = predictedBytes * worstRatio > MAX_VIDEO_FILE_SIZE;
+
+		LOGGER.at(Level.DEBUG).log("Planned a bitrate of {}K for complexity class {}, predicting {} bytes", bitrate, complexityClass, (long) predictedBytes);
+
+		return new Plan(bitrate, complexityClass, summary.durationSeconds(), predictedBytes, borderline);
+	}
+
+	/**
+	 * Records the outcome of the second pass, to correct the next predictions for the same complexity class.
+	 *
+	 * @param plan the plan the video was encoded with
+	 * @param actualBytes the size of the encoded video
+	 */
+	synchronized void record(Plan plan, long actualBytes) {
+		plannedEncodes++;
+		if (actualBytes > MAX_VIDEO_FILE_SIZE) {
+			retries++;
+		}
+
+		if (plan.complexityClass() >= 0 && plan.predictedBytes() > 0) {
+			var observedRatio = actualBytes / plan.predictedBytes();
+			var complexityClass = plan.complexityClass();
+			var smoothing = Math.max(1D / ++samples[complexityClass], MIN_SMOOTHING_FACTOR);
+			var error = observedRatio - sizeRatios[complexityClass];
+			sizeRatios[complexityClass] += smoothing * error;
+			ratioDeviations[complexityClass] += smoothing * (Math.abs(error) - ratioDeviations[complexityClass]);
+		}
+
+		if (historyFile != null) {
+			saveHistory(historyFile);
+		}
+	}
+
+	/**
+	 * Records a second pass aborted because it was bound to exceed the size limit.
+	 * It counts as a retry, but it doesn't correct the next predictions, since its size was never measured.
+	 */
+	synchronized void recordAborted() {
+		plannedEncodes++;
+		retries++;
+
+		if (historyFile != null) {
+			saveHistory(historyFile);
+		}
+	}
+
+	public synchronized Stats stats() {
+		return new Stats(plannedEncodes, retries);
+	}
+
+	/**
+	 * The bitrate planned for the second pass.
+	 *
+	 * @param bitrateKbps the target bitrate in kilobits per second
+	 * @param complexityClass the complexity class of the video, or -1 if unknown
+	 * @param durationSeconds the duration of the video, or 0 if unknown
+	 * @param predictedBytes the size the video would have if the encoder hit the target exactly
+	 * @param borderline whether the video might still exceed the size limit
+	 */
+	record Plan(int bitrateKbps, int complexityClass, double durationSeconds, double predictedBytes, boolean borderline) {
+		List<String> ffmpegOptions() {
+			return List.of(
+					"-b:v", bitrateKbps + "K",
+					"-maxrate", bitrateKbps + "K",
+					"-bufsize", 2 * bitrateKbps + "K"
+			);
+		}
+	}
+
+	/**
+	 * @param plannedEncodes the number of videos encoded with a planned bitrate
+	 * @param retries the number of those videos which still exceeded the size limit
+	 */
+	public record Stats(long plannedEncodes, long retries) {}
+
+	/**
+	 * The totals of the first pass.
+	 *
+	 * @param frames the number of frames
+	 * @param durationSeconds the duration of the encoded video
+	 * @param codedError the sum over all frames of the average prediction error of each macroblock,
+	 * which doesn't depend on the resolution
+	 */
+	record FirstPassSummary(long frames, double durationSeconds, double codedError) {
+		int complexityClass() {
+			var errorPerFrame = codedError / frames;
+
+			return (int) Math.clamp(Math.floor(Math.log(1 + errorPerFrame) / Math.log(2)), 0, COMPLEXITY_CLASSES - 1);
+		}
+	}
+
+	/**
+	 * Reads the totals from the statistics of the first pass, which ffmpeg stores encoded in Base64.
+	 * The size of the records depends on the version of libvpx: it's found as the one
+	 * whose records, except the last one, are numbered progressively.
+	 *
+	 * @param firstPassLog the statistics written by the first pass
+	 * @return the totals of the first pass, or {@code null} if the statistics couldn't be read
+	 */
+	static @Nullable FirstPassSummary readFirstPass(Path firstPassLog) {
+		double[] fields;
+		try {
+			var content = Base64.getMimeDecoder().decode(Files.readString(firstPassLog, US_ASCII).strip());
+			fields = new double[content.length / Double.BYTES];
+			ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(fields);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.at(Level.DEBUG).setCause(e).log("Unable to read first pass statistics");
+			return null;
+		}
+
+		for (int recordFields = COUNT_FIELD + 1; recordFields <= MAX_RECORD_FIELDS; recordFields++) {
+			var records = fields.length / recordFields;
+			if (records < 2 || fields.length % recordFields != 0 || !areFramesNumbered(fields, recordFields, records - 1)) {
+				continue;
+			}
+
+			var total = (records - 1) * recordFields;
+			var frames = (long) fields[total + COUNT_FIELD];
+			var duration = fields[total + DURATION_FIELD] / TICKS_PER_SECOND;
+			if (frames > 0 && duration > 0) {
+				return new FirstPassSummary(frames, duration, fields[total + CODED_ERROR_FIELD]);
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean areFramesNumbered(double[] fields, int recordFields, int frames) {
+		for (int frame = 0; frame < frames; frame++) {
+			if (fields[frame * recordFields + FRAME_FIELD] != frame) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private record History(double[] sizeRatios, double @Nullable [] ratioDeviations, long[] samples, long plannedEncodes, long retries) {}
+
+	private void loadHistory(Path file) {
+		if (!Files.exists(file)) {
+			return;
+		}
+
+		try {
+			var history = GSON.fromJson(Files.readString(file, UTF_8), History.class);
+			if (history != null && history.sizeRatios().length == COMPLEXITY_CLASSES && history.samples().length == COMPLEXITY_CLASSES) {
+				System.arraycopy(history.sizeRatios(), 0, sizeRatios, 0, COMPLEXITY_CLASSES);
+				System.arraycopy(history.samples(), 0, samples, 0, COMPLEXITY_CLASSES);
+				if (history.ratioDeviations() != null && history.ratioDeviations().length == COMPLEXITY_CLASSES) {
+					System.arraycopy(history.ratioDeviations(), 0, ratioDeviations, 0, COMPLEXITY_CLASSES);
+				}
+				plannedEncodes = history.plannedEncodes();
+				retries = history.retries();
+			}
+		} catch (IOException | JsonParseException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to load bitrate history, starting from scratch");
+		}
+	}
+
+	/**
+	 * Writes the history to a temp file which then replaces the previous one,
+	 * so that a crash while writing never leaves a truncated history.
+	 */
+	private void saveHistory(Path file) {
+		var history = new History(sizeRatios, ratioDeviations, samples, plannedEncodes, retries);
+
+		try {
+			var tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.writeString(tempFile, GSON.toJson(history), UTF_8);
+			Files.move(tempFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to save bitrate history");
+		}
+	}
+}
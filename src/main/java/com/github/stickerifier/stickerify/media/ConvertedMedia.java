@@ -0,0 +1,36 @@
+package com.github.stickerifier.stickerify.media;
+
+import java.io.File;
+
+/**
+ * The media resulting from a conversion, either saved into a temp file or kept in memory.
+ */
+public sealed interface ConvertedMedia {
+
+	/**
+	 * @return the extension of the media, without the leading dot
+	 */
+	String fileExtension();
+
+	/**
+	 * A media saved into a temp file, which has to be deleted once sent.
+	 *
+	 * @param file the temp file containing the media
+	 */
+	record OnDisk(File file) implements ConvertedMedia {
+		@Override
+		public String fileExtension() {
+			var fileName = file.getName();
+
+			return fileName.substring(fileName.lastIndexOf('.') + 1);
+		}
+	}
+
+	/**
+	 * A media small enough to be kept in memory.
+	 *
+	 * @param fileExtension the extension of the media, without the leading dot
+	 * @param content the content of the media
+	 */
+	record InMemory(String fileExtension, byte[] content) implements ConvertedMedia {}
+}
@@ -0,0 +1,195 @@
+package com.github.stickerifier.stickerify.media;
+
+import static java.nio.ByteOrder.BIG_ENDIAN;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.READ;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Utility class to read the dimensions of an image from its header, without decoding it.
+ * Supported formats are PNG, WebP, JPEG, GIF and ICO: the file is memory-mapped so that only the pages
+ * containing the header are actually read, even for JPEG files whose metadata segments precede the frame header.
+ */
+final class ImageHeader {
+
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int PNG_IHDR_TYPE = 0x49484452;
+	private static final int RIFF_SIGNATURE = 0x52494646;
+	private static final int WEBP_SIGNATURE = 0x57454250;
+	private static final int VP8_CHUNK = 0x56503820;
+	private static final int VP8L_CHUNK = 0x5650384C;
+	private static final int VP8X_CHUNK = 0x56503858;
+	private static final int VP8_START_CODE = 0x9D012A;
+	private static final byte VP8L_SIGNATURE = 0x2F;
+	private static final int GIF_SIGNATURE = 0x474946;
+	private static final int ICO_SIGNATURE = 0x00000100;
+	private static final int ICO_ENTRY_SIZE = 16;
+
+	/**
+	 * Reads the dimensions of the image.
+	 *
+	 * @param file the image to inspect
+	 * @return the dimensions of the image, or {@code null} if the format isn't supported or the header is malformed
+	 * @throws IOException if the file couldn't be read
+	 */
+	static @Nullable Dimensions read(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), READ)) {
+			return read(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads the dimensions of the image from the beginning of its content.
+	 *
+	 * @param header the first bytes of the image
+	 * @return the dimensions of the image, or {@code null} if the format isn't supported or the header is malformed
+	 */
+	static @Nullable Dimensions read(ByteBuffer header) {
+		try {
+			if (hasPrefix(header, PNG_SIGNATURE)) {
+				return readPng(header.order(BIG_ENDIAN));
+			}
+			if (header.getInt(0) == RIFF_SIGNATURE && header.getInt(8) == WEBP_SIGNATURE) {
+				return readWebp(header);
+			}
+			if ((header.getShort(0) & 0xFFFF) == 0xFFD8) {
+				return readJpeg(header.order(BIG_ENDIAN));
+			}
+			if ((header.order(BIG_ENDIAN).getInt(0) >>> 8) == GIF_SIGNATURE) {
+				return readGif(header.order(LITTLE_ENDIAN));
+			}
+			if (header.order(BIG_ENDIAN).getInt(0) == ICO_SIGNATURE) {
+				return readIco(header.order(LITTLE_ENDIAN));
+			}
+		} catch (IndexOutOfBoundsException _) {
+			// the header is truncated
+		}
+
+		return null;
+	}
+
+	private static boolean hasPrefix(ByteBuffer header, byte[] prefix) {
+		return header.limit() >= prefix.length && header.slice(0, prefix.length).equals(ByteBuffer.wrap(prefix));
+	}
+
+	private static @Nullable Dimensions readPng(ByteBuffer header) {
+		if (header.getInt(12) != PNG_IHDR_TYPE) {
+			return null;
+		}
+
+		return Dimensions.of(header.getInt(16), header.getInt(20));
+	}
+
+	private static @Nullable Dimensions readWebp(ByteBuffer header) {
+		var chunkType = header.order(BIG_ENDIAN).getInt(12);
+		header.order(LITTLE_ENDIAN);
+
+		return switch (chunkType) {
+			case VP8_CHUNK -> {
+				var startCode = (header.get(23) & 0xFF) << 16 | (header.get(24) & 0xFF) << 8 | header.get(25) & 0xFF;
+				yield startCode == VP8_START_CODE
+						? Dimensions.of(header.getShort(26) & 0x3FFF, header.getShort(28) & 0x3FFF)
+						: null;
+			}
+			case VP8L_CHUNK -> {
+				if (header.get(20) != VP8L_SIGNATURE) {
+					yield null;
+				}
+
+				var bits = header.getInt(21);
+				yield Dimensions.of((bits & 0x3FFF) + 1, (bits >>> 14 & 0x3FFF) + 1);
+			}
+			case VP8X_CHUNK -> Dimensions.of(readUnsigned24(header, 24) + 1, readUnsigned24(header, 27) + 1);
+			default -> null;
+		};
+	}
+
+	private static int readUnsigned24(ByteBuffer buffer, int index) {
+		return buffer.get(index) & 0xFF | (buffer.get(index + 1) & 0xFF) << 8 | (buffer.get(index + 2) & 0xFF) << 16;
+	}
+
+	/**
+	 * Walks the segments of the JPEG file until the first start of frame marker (SOF0 to SOF15,
+	 * excluding DHT, JPG and DAC which share the same range) is found.
+	 */
+	private static @Nullable Dimensions readJpeg(ByteBuffer header) {
+		var position = 2;
+
+		while (position + 9 < header.limit()) {
+			if ((header.get(position) & 0xFF) != 0xFF) {
+				return null;
+			}
+
+			var marker = header.get(position + 1) & 0xFF;
+			if (marker == 0xFF) {
+				position++;
+				continue;
+			}
+
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+				return Dimensions.of(header.getShort(position + 7) & 0xFFFF, header.getShort(position + 5) & 0xFFFF);
+			}
+
+			if (marker == 0xD9 || marker == 0xDA) {
+				return null;
+			}
+
+			var isStandalone = marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8);
+			position += isStandalone ? 2 : 2 + (header.getShort(position + 2) & 0xFFFF);
+		}
+
+		return null;
+	}
+
+	private static @Nullable Dimensions readGif(ByteBuffer header) {
+		return Dimensions.of(header.getShort(6) & 0xFFFF, header.getShort(8) & 0xFFFF);
+	}
+
+	/**
+	 * Reads the dimensions of the largest image in the icon directory, where 0 stands for 256 pixels.
+	 */
+	private static @Nullable Dimensions readIco(ByteBuffer header) {
+		var images = header.getShort(4) & 0xFFFF;
+		@Nullable Dimensions largest = null;
+
+		for (int i = 0; i < images; i++) {
+			var entry = 6 + i * ICO_ENTRY_SIZE;
+			var width = header.get(entry) & 0xFF;
+			var height = header.get(entry + 1) & 0xFF;
+			var dimensions = Dimensions.of(width == 0 ? 256 : width, height == 0 ? 256 : height);
+
+			if (dimensions != null && (largest == null || dimensions.pixels() > largest.pixels())) {
+				largest = dimensions;
+			}
+		}
+
+		return largest;
+	}
+
+	/**
+	 * The dimensions declared by the header of an image.
+	 *
+	 * @param width the width in pixels
+	 * @param height the height in pixels
+	 */
+	record Dimensions(int width, int height) {
+		private static @Nullable Dimensions of(int width, int height) {
+			return width > 0 && height > 0 ? new Dimensions(width, height) : null;
+		}
+
+		long pixels() {
+			return (long) width * height;
+		}
+	}
+
+	private ImageHeader() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,164 @@
+package com.github.stickerifier.stickerify.media;
+
+/**
+ * Utility class to resize images with a separable triangle filter, widened when shrinking so that
+ * every source pixel contributes to the result.
+ * <p>
+ * Channels are resampled as separate planes of premultiplied values, and both passes run along columns:
+ * each output row is a weighted sum of whole input rows, a loop shape the JIT compiles to vector instructions.
+ * The horizontal pass is performed as a vertical one over the transposed planes.
+ */
+final class ImageResampler {
+
+	private static final int CHANNELS = 4;
+
+	/**
+	 * Resizes the image to the given dimensions.
+	 *
+	 * @param pixels the pixels of the image in ARGB order, row by row
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param targetWidth the width of the resized image
+	 * @param targetHeight the height of the resized image
+	 * @return the pixels of the resized image in ARGB order, row by row
+	 */
+	static int[] resize(int[] pixels, int width, int height, int targetWidth, int targetHeight) {
+		if (width == targetWidth && height == targetHeight) {
+			return pixels.clone();
+		}
+
+		var planes = toPremultipliedPlanes(pixels);
+		var resized = new float[CHANNELS][];
+
+		for (int channel = 0; channel < CHANNELS; channel++) {
+			var vertical = resizeColumns(planes[channel], width, height, targetHeight);
+			var horizontal = resizeColumns(transpose(vertical, width, targetHeight), targetHeight, width, targetWidth);
+			resized[channel] = transpose(horizontal, targetHeight, targetWidth);
+		}
+
+		return fromPremultipliedPlanes(resized, targetWidth * targetHeight);
+	}
+
+	private static float[][] toPremultipliedPlanes(int[] pixels) {
+		var alpha = new float[pixels.length];
+		var red = new float[pixels.length];
+		var green = new float[pixels.length];
+		var blue = new float[pixels.length];
+
+		for (int i = 0; i < pixels.length; i++) {
+			var pixel = pixels[i];
+			var opacity = (pixel >>> 24) / 255F;
+			alpha[i] = pixel >>> 24;
+			red[i] = (pixel >>> 16 & 0xFF) * opacity;
+			green[i] = (pixel >>> 8 & 0xFF) * opacity;
+			blue[i] = (pixel & 0xFF) * opacity;
+		}
+
+		return new float[][] { alpha, red, green, blue };
+	}
+
+	private static int[] fromPremultipliedPlanes(float[][] planes, int size) {
+		var pixels = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			var alpha = toByte(planes[0][i]);
+			if (alpha == 0) {
+				continue;
+			}
+
+			var scale = 255F / alpha;
+			pixels[i] = alpha << 24 | toByte(planes[1][i] * scale) << 16 | toByte(planes[2][i] * scale) << 8 | toByte(planes[3][i] * scale);
+		}
+
+		return pixels;
+	}
+
+	private static int toByte(float value) {
+		return Math.clamp(Math.round(value), 0, 255);
+	}
+
+	/**
+	 * Resizes the plane vertically: each output row accumulates the input rows covered by the filter.
+	 */
+	private static float[] resizeColumns(float[] plane, int width, int height, int targetHeight) {
+		var filter = Filter.of(height, targetHeight);
+		var resized = new float[width * targetHeight];
+
+		for (int y = 0; y < targetHeight; y++) {
+			var outputOffset = y * width;
+
+			for (int tap = 0; tap < filter.taps(); tap++) {
+				var weight = filter.weights()[y * filter.taps() + tap];
+				if (weight == 0F) {
+					continue;
+				}
+
+				var inputOffset = (filter.starts()[y] + tap) * width;
+				for (int x = 0; x < width; x++) {
+					resized[outputOffset + x] += plane[inputOffset + x] * weight;
+				}
+			}
+		}
+
+		return resized;
+	}
+
+	private static float[] transpose(float[] plane, int width, int height) {
+		var transposed = new float[plane.length];
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				transposed[x * height + y] = plane[y * width + x];
+			}
+		}
+
+		return transposed;
+	}
+
+	/**
+	 * The contribution of the input samples to each output sample: output {@code i} is the weighted sum
+	 * of the inputs from {@code starts[i]} to {@code starts[i] + taps - 1}, samples outside the edges being clamped.
+	 *
+	 * @param starts the first input sample of each output sample
+	 * @param taps the number of input samples contributing to each output sample
+	 * @param weights the normalized weights, {@code taps} for each output sample
+	 */
+	private record Filter(int[] starts, int taps, float[] weights) {
+		private static Filter of(int size, int targetSize) {
+			var scale = (double) size / targetSize;
+			var radius = Math.max(1D, scale);
+			var taps = Math.min(size, (int) Math.ceil(2 * radius) + 1);
+
+			var starts = new int[targetSize];
+			var weights = new float[targetSize * taps];
+
+			for (int i = 0; i < targetSize; i++) {
+				var center = (i + 0.5) * scale - 0.5;
+				var first = (int) Math.floor(center - radius);
+				var last = (int) Math.ceil(center + radius);
+				var start = Math.min(Math.max(first, 0), size - taps);
+				starts[i] = start;
+
+				var total = 0D;
+				var contributions = new double[taps];
+				for (int sample = first; sample <= last; sample++) {
+					var weight = 1 - Math.abs(sample - center) / radius;
+					if (weight > 0) {
+						contributions[Math.clamp(sample, 0, size - 1) - start] += weight;
+						total += weight;
+					}
+				}
+
+				for (int tap = 0; tap < taps; tap++) {
+					weights[i * taps + tap] = (float) (contributions[tap] / total);
+				}
+			}
+
+			return new Filter(starts, taps, weights);
+		}
+	}
+
+	private ImageResampler() {
+		throw new UnsupportedOperationException();
+	}
+}
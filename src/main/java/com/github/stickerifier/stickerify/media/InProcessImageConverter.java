@@ -0,0 +1,89 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_SIDE_LENGTH;
+
+import org.jspecify.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Utility class to convert PNG and JPEG images into WebP stickers without spawning external processes.
+ * <p>
+ * The image is decoded reading only every n-th pixel of every n-th row, so that the decoded image is at most
+ * twice as large as the sticker and memory doesn't depend on the resolution of the original.
+ * The remaining resize is left to {@link ImageResampler}, and the result is encoded by {@link WebpEncoder}.
+ */
+final class InProcessImageConverter {
+
+	/**
+	 * The image is decoded to at least this many pixels on its longest side, to resample it smoothly.
+	 */
+	private static final int MIN_DECODED_SIDE_LENGTH = 2 * MAX_SIDE_LENGTH;
+
+	/**
+	 * Converts the image into a WebP sticker whose longest side is 512 pixels.
+	 *
+	 * @param file the image to convert
+	 * @param dimensions the dimensions read from the header of the image
+	 * @return the content of the WebP sticker, or {@code null} if the image can't be decoded
+	 * @throws IOException if an error occurred reading the file
+	 */
+	static byte @Nullable [] convert(File file, ImageHeader.Dimensions dimensions) throws IOException {
+		try (var input = ImageIO.createImageInputStream(file)) {
+			if (input == null) {
+				return null;
+			}
+
+			var readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			var reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+
+				return convert(reader, dimensions);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static byte @Nullable [] convert(ImageReader reader, ImageHeader.Dimensions dimensions) throws IOException {
+		var longestSide = Math.max(dimensions.width(), dimensions.height());
+		var subsampling = Math.max(1, longestSide / MIN_DECODED_SIDE_LENGTH);
+
+		var parameters = reader.getDefaultReadParam();
+		parameters.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+		var image = reader.read(0, parameters);
+		if (image == null) {
+			return null;
+		}
+
+		var width = image.getWidth();
+		var height = image.getHeight();
+		var pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+		var targetWidth = width > height ? MAX_SIDE_LENGTH : scaleSide(width, height);
+		var targetHeight = width > height ? scaleSide(height, width) : MAX_SIDE_LENGTH;
+		var resized = ImageResampler.resize(pixels, width, height, targetWidth, targetHeight);
+
+		return WebpEncoder.encodeLossless(resized, targetWidth, targetHeight);
+	}
+
+	/**
+	 * Scales the shortest side keeping the aspect ratio, rounding like ffmpeg's {@code scale} filter does.
+	 */
+	private static int scaleSide(int side, int longestSide) {
+		return Math.max(1, (int) Math.round((double) side * MAX_SIDE_LENGTH / longestSide));
+	}
+
+	private InProcessImageConverter() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,192 @@
+package com.github.stickerifier.stickerify.media;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Utility class to read the properties of an animated sticker (a gzip-compressed Lottie animation)
+ * streaming its JSON content, without building the whole document in memory.
+ * <p>
+ * Only the top-level {@code w}, {@code h}, {@code fr}, {@code ip} and {@code op} fields are read:
+ * decompression stops as soon as all of them are found, and it's aborted if the decompressed content
+ * or its nesting exceed a fixed limit, so that crafted archives are rejected cheaply.
+ *
+ * @see <a href="https://lottiefiles.github.io/lottie-docs/animation/">Lottie animation</a>
+ */
+final class LottieHeader {
+
+	/**
+	 * Upper bound for the decompressed content: a compliant animated sticker is way smaller than this.
+	 */
+	static final long MAX_DECOMPRESSED_SIZE = 16L * 1024 * 1024;
+	static final int MAX_NESTING_DEPTH = 64;
+
+	/**
+	 * Bits of the required fields, so that a field repeated in the content is counted once.
+	 */
+	private static final int WIDTH_FIELD = 1;
+	private static final int HEIGHT_FIELD = 1 << 1;
+	private static final int FRAME_RATE_FIELD = 1 << 2;
+	private static final int START_FIELD = 1 << 3;
+	private static final int END_FIELD = 1 << 4;
+	private static final int REQUIRED_FIELDS = WIDTH_FIELD | HEIGHT_FIELD | FRAME_RATE_FIELD | START_FIELD | END_FIELD;
+
+	/**
+	 * Reads the properties of the animated sticker.
+	 *
+	 * @param file the gzip archive to inspect
+	 * @return the properties of the animation, or {@code null} if the archive doesn't contain a Lottie animation
+	 * @throws IOException if the archive couldn't be read or its content exceeds {@link #MAX_DECOMPRESSED_SIZE}
+	 */
+	static @Nullable Details read(File file) throws IOException {
+		try (var inputStream = new BoundedInputStream(new GZIPInputStream(new FileInputStream(file)), MAX_DECOMPRESSED_SIZE)) {
+			return read(inputStream);
+		}
+	}
+
+	/**
+	 * Reads the properties of the animated sticker from its decompressed content.
+	 *
+	 * @param content the JSON content of the animation, it won't be closed
+	 * @return the properties of the animation, or {@code null} if the content isn't a Lottie animation
+	 * or it's nested deeper than {@link #MAX_NESTING_DEPTH}
+	 * @throws IOException if the content couldn't be read
+	 */
+	static @Nullable Details read(InputStream content) throws IOException {
+		var reader = new JsonReader(new InputStreamReader(content, UTF_8));
+		reader.setNestingLimit(MAX_NESTING_DEPTH);
+
+		var width = 0;
+		var height = 0;
+		var frameRate = 0;
+		var start = 0F;
+		var end = 0F;
+		var foundFields = 0;
+
+		try {
+			if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+				return null;
+			}
+
+			reader.beginObject();
+			while (foundFields != REQUIRED_FIELDS && reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "w" -> {
+						width = reader.nextInt();
+						foundFields |= WIDTH_FIELD;
+					}
+					case "h" -> {
+						height = reader.nextInt();
+						foundFields |= HEIGHT_FIELD;
+					}
+					case "fr" -> {
+						frameRate = reader.nextInt();
+						foundFields |= FRAME_RATE_FIELD;
+					}
+					case "ip" -> {
+						start = (float) reader.nextDouble();
+						foundFields |= START_FIELD;
+					}
+					case "op" -> {
+						end = (float) reader.nextDouble();
+						foundFields |= END_FIELD;
+					}
+					default -> reader.skipValue();
+				}
+			}
+		} catch (MalformedJsonException | IllegalStateException | NumberFormatException _) {
+			return null;
+		}
+
+		return foundFields == REQUIRED_FIELDS ? new Details(width, height, frameRate, start, end) : null;
+	}
+
+	/**
+	 * The properties of a Lottie animation.
+	 *
+	 * @param width the width of the animation
+	 * @param height the height of the animation
+	 * @param frameRate the frame rate of the animation
+	 * @param start the frame the animation starts at
+	 * @param end the frame the animation ends at
+	 */
+	record Details(int width, int height, int frameRate, float start, float end) {
+		float duration() {
+			return (end - start) / frameRate;
+		}
+
+		@Override
+		public String toString() {
+			return "animated sticker [" +
+					"width=" + width +
+					", height=" + height +
+					", frameRate=" + frameRate +
+					", duration=" + duration() +
+					']';
+		}
+	}
+
+	/**
+	 * Fails the read as soon as more than {@code maxBytes} have been consumed.
+	 */
+	private static final class BoundedInputStream extends FilterInputStream {
+		private final long maxBytes;
+		private long readBytes;
+
+		private BoundedInputStream(InputStream in, long maxBytes) {
+			super(in);
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public int read() throws IOException {
+			var value = super.read();
+			if (value != -1) {
+				count(1);
+			}
+
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			var read = super.read(b, off, len);
+			if (read > 0) {
+				count(read);
+			}
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			var skipped = super.skip(n);
+			count(skipped);
+
+			return skipped;
+		}
+
+		private void count(long bytes) throws IOException {
+			readBytes += bytes;
+			if (readBytes > maxBytes) {
+				throw new IOException("The decompressed content exceeds " + maxBytes + " bytes");
+			}
+		}
+	}
+
+	private LottieHeader() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,357 @@
+package com.github.stickerifier.stickerify.media;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.READ;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the properties of a Matroska (or WebM) video walking its EBML structure, without decoding it.
+ * <p>
+ * Only the elements needed to check Telegram's requirements are read: the document type, the segment information,
+ * the tracks and the timestamps of the blocks belonging to the video track, used to estimate its frame rate
+ * when the track doesn't declare the duration of its frames.
+ *
+ * @see <a href="https://www.matroska.org/technical/elements.html">Matroska elements</a>
+ */
+final class MatroskaHeader {
+
+	private static final int EBML_ID = 0x1A45DFA3;
+	private static final int DOC_TYPE_ID = 0x4282;
+	private static final int SEGMENT_ID = 0x18538067;
+	private static final int INFO_ID = 0x1549A966;
+	private static final int TIMESTAMP_SCALE_ID = 0x2AD7B1;
+	private static final int DURATION_ID = 0x4489;
+	private static final int TRACKS_ID = 0x1654AE6B;
+	private static final int TRACK_ENTRY_ID = 0xAE;
+	private static final int TRACK_NUMBER_ID = 0xD7;
+	private static final int TRACK_TYPE_ID = 0x83;
+	private static final int CODEC_ID = 0x86;
+	private static final int DEFAULT_DURATION_ID = 0x23E383;
+	private static final int VIDEO_ID = 0xE0;
+	private static final int PIXEL_WIDTH_ID = 0xB0;
+	private static final int PIXEL_HEIGHT_ID = 0xBA;
+	private static final int CLUSTER_ID = 0x1F43B675;
+	private static final int CLUSTER_TIMESTAMP_ID = 0xE7;
+	private static final int SIMPLE_BLOCK_ID = 0xA3;
+	private static final int BLOCK_GROUP_ID = 0xA0;
+	private static final int BLOCK_ID = 0xA1;
+
+	private static final String DEFAULT_DOC_TYPE = "matroska";
+	private static final long DEFAULT_TIMESTAMP_SCALE = 1_000_000L;
+	private static final long UNKNOWN_SIZE = -1L;
+	private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+	/**
+	 * Reads the properties of the video.
+	 *
+	 * @param file the video to inspect
+	 * @return the properties of the video, {@link Details#NOT_MATROSKA} if the file doesn't start with an EBML header,
+	 * or {@code null} if the file is malformed
+	 * @throws IOException if the file couldn't be read
+	 */
+	static @Nullable Details read(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), READ)) {
+			return read(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads the properties of the video from its content.
+	 *
+	 * @param content the content of the video
+	 * @return the properties of the video, {@link Details#NOT_MATROSKA} if the content doesn't start with an EBML header,
+	 * or {@code null} if the content is malformed
+	 */
+	static @Nullable Details read(ByteBuffer content) {
+		try {
+			return new MatroskaHeader(content).readDocument();
+		} catch (IndexOutOfBoundsException | IllegalStateException _) {
+			return null;
+		}
+	}
+
+	private final ByteBuffer content;
+
+	private String docType = DEFAULT_DOC_TYPE;
+	private long timestampScale = DEFAULT_TIMESTAMP_SCALE;
+	private @Nullable Double duration;
+	private final List<Track> tracks = new ArrayList<>();
+	private @Nullable Track videoTrack;
+	private final List<Long> videoTimestamps = new ArrayList<>();
+	private long clusterTimestamp;
+
+	private MatroskaHeader(ByteBuffer content) {
+		this.content = content;
+	}
+
+	private @Nullable Details readDocument() {
+		if (content.limit() < 4 || content.getInt(0) != EBML_ID) {
+			return Details.NOT_MATROSKA;
+		}
+
+		var header = readElementHeader(0, content.limit());
+
+		for (var child : children(header)) {
+			if (child.id() == DOC_TYPE_ID) {
+				docType = readString(child);
+			}
+		}
+
+		var segment = readElementHeader(header.end(), content.limit());
+		if (segment.id() != SEGMENT_ID) {
+			return null;
+		}
+
+		for (var child : children(segment)) {
+			switch (child.id()) {
+				case INFO_ID -> readInfo(child);
+				case TRACKS_ID -> readTracks(child);
+				case CLUSTER_ID -> readCluster(child);
+				default -> {}
+			}
+		}
+
+		var durationSeconds = duration == null ? null : duration * timestampScale / NANOS_PER_SECOND;
+
+		var declaredFrameRate = videoTrack == null || videoTrack.defaultDuration() == 0 ? null : NANOS_PER_SECOND / videoTrack.defaultDuration();
+
+		return new Details(docType, durationSeconds, tracks, declaredFrameRate, estimateFrameRate());
+	}
+
+	private void readInfo(ElementHeader info) {
+		for (var child : children(info)) {
+			switch (child.id()) {
+				case TIMESTAMP_SCALE_ID -> timestampScale = readUnsigned(child);
+				case DURATION_ID -> duration = readFloat(child);
+				default -> {}
+			}
+		}
+	}
+
+	private void readTracks(ElementHeader tracksElement) {
+		for (var trackEntry : children(tracksElement)) {
+			if (trackEntry.id() != TRACK_ENTRY_ID) {
+				continue;
+			}
+
+			long number = 0;
+			int type = 0;
+			var codec = "";
+			long defaultDuration = 0;
+			int width = 0;
+			int height = 0;
+
+			for (var child : children(trackEntry)) {
+				switch (child.id()) {
+					case TRACK_NUMBER_ID -> number = readUnsigned(child);
+					case TRACK_TYPE_ID -> type = (int) readUnsigned(child);
+					case CODEC_ID -> codec = readString(child);
+					case DEFAULT_DURATION_ID -> defaultDuration = readUnsigned(child);
+					case VIDEO_ID -> {
+						for (var setting : children(child)) {
+							switch (setting.id()) {
+								case PIXEL_WIDTH_ID -> width = (int) readUnsigned(setting);
+								case PIXEL_HEIGHT_ID -> height = (int) readUnsigned(setting);
+								default -> {}
+							}
+						}
+					}
+					default -> {}
+				}
+			}
+
+			var track = new Track(number, type, codec, defaultDuration, width, height);
+			tracks.add(track);
+			if (videoTrack == null && track.isVideo()) {
+				videoTrack = track;
+			}
+		}
+	}
+
+	private void readCluster(ElementHeader cluster) {
+		for (var child : children(cluster)) {
+			switch (child.id()) {
+				case CLUSTER_TIMESTAMP_ID -> clusterTimestamp = readUnsigned(child);
+				case SIMPLE_BLOCK_ID -> readBlock(child);
+				case BLOCK_GROUP_ID -> {
+					for (var block : children(child)) {
+						if (block.id() == BLOCK_ID) {
+							readBlock(block);
+						}
+					}
+				}
+				default -> {}
+			}
+		}
+	}
+
+	/**
+	 * Records the timestamp of the block if it belongs to the video track:
+	 * a block starts with the track number, followed by a timestamp relative to the cluster.
+	 */
+	private void readBlock(ElementHeader block) {
+		var trackNumberLength = varIntLength(content.get(block.dataStart()));
+		var trackNumber = readVarInt(block.dataStart(), trackNumberLength, true);
+
+		if (videoTrack != null && videoTrack.number() == trackNumber) {
+			videoTimestamps.add(clusterTimestamp + content.getShort(block.dataStart() + trackNumberLength));
+		}
+	}
+
+	/**
+	 * Estimates the frame rate of the video track from the average distance between the timestamps of its blocks.
+	 */
+	private @Nullable Double estimateFrameRate() {
+		if (videoTimestamps.size() < 2) {
+			return null;
+		}
+
+		var first = videoTimestamps.stream().mapToLong(Long::longValue).min().orElseThrow();
+		var last = videoTimestamps.stream().mapToLong(Long::longValue).max().orElseThrow();
+		if (last == first) {
+			return null;
+		}
+
+		return (videoTimestamps.size() - 1) * NANOS_PER_SECOND / ((last - first) * timestampScale);
+	}
+
+	private List<ElementHeader> children(ElementHeader parent) {
+		var children = new ArrayList<ElementHeader>();
+		var position = parent.dataStart();
+
+		while (position < parent.end()) {
+			var child = readElementHeader(position, parent.end());
+			children.add(child);
+			position = child.end();
+		}
+
+		return children;
+	}
+
+	private ElementHeader readElementHeader(int position, int parentEnd) {
+		var idLength = varIntLength(content.get(position));
+		if (idLength > 4) {
+			throw new IllegalStateException("Invalid element identifier");
+		}
+
+		var id = (int) readVarInt(position, idLength, false);
+		var sizeLength = varIntLength(content.get(position + idLength));
+		var size = readVarInt(position + idLength, sizeLength, true);
+		var dataStart = position + idLength + sizeLength;
+
+		var end = size == UNKNOWN_SIZE ? parentEnd : dataStart + size;
+		if (end > parentEnd || end < dataStart) {
+			throw new IllegalStateException("The element exceeds its parent");
+		}
+
+		return new ElementHeader(id, dataStart, (int) end);
+	}
+
+	/**
+	 * @return the length of the variable-size integer, given by the position of the first bit set in its first byte
+	 */
+	private static int varIntLength(byte firstByte) {
+		var length = Integer.numberOfLeadingZeros(firstByte & 0xFF) - 23;
+		if (length > 8) {
+			throw new IllegalStateException("Invalid variable-size integer");
+		}
+
+		return length;
+	}
+
+	private long readVarInt(int position, int length, boolean removeMarker) {
+		long value = content.get(position) & 0xFF;
+		if (removeMarker) {
+			value &= 0xFF >> length;
+		}
+
+		var allOnes = value == (0xFF >> length);
+		for (int i = 1; i < length; i++) {
+			var next = content.get(position + i) & 0xFF;
+			allOnes &= next == 0xFF;
+			value = value << 8 | next;
+		}
+
+		return removeMarker && allOnes ? UNKNOWN_SIZE : value;
+	}
+
+	private long readUnsigned(ElementHeader element) {
+		var value = 0L;
+		for (int i = element.dataStart(); i < element.end(); i++) {
+			value = value << 8 | content.get(i) & 0xFF;
+		}
+
+		return value;
+	}
+
+	private double readFloat(ElementHeader element) {
+		return switch (element.end() - element.dataStart()) {
+			case 4 -> content.getFloat(element.dataStart());
+			case 8 -> content.getDouble(element.dataStart());
+			default -> throw new IllegalStateException("Invalid float element");
+		};
+	}
+
+	private String readString(ElementHeader element) {
+		var bytes = new byte[element.end() - element.dataStart()];
+		content.get(element.dataStart(), bytes);
+
+		return new String(bytes, US_ASCII).replace("\0", "");
+	}
+
+	private record ElementHeader(int id, int dataStart, int end) {}
+
+	/**
+	 * A track of the video.
+	 *
+	 * @param number the number identifying the track inside the blocks
+	 * @param type the type of the track, 1 for video and 2 for audio
+	 * @param codec the identifier of the codec, e.g. {@code V_VP9}
+	 * @param defaultDuration the duration of each frame in nanoseconds, or 0 if not declared
+	 * @param width the width of the video track
+	 * @param height the height of the video track
+	 */
+	record Track(long number, int type, String codec, long defaultDuration, int width, int height) {
+		boolean isVideo() {
+			return type == 1;
+		}
+
+		boolean isAudio() {
+			return type == 2;
+		}
+	}
+
+	/**
+	 * The properties of a Matroska video.
+	 *
+	 * @param docType the document type, either {@code webm} or {@code matroska}, or {@code null} if the file isn't a Matroska file
+	 * @param duration the duration in seconds, if declared
+	 * @param tracks the tracks of the video
+	 * @param declaredFrameRate the frame rate derived from the duration of the frames declared by the video track, if any
+	 * @param estimatedFrameRate the frame rate estimated from the timestamps of the blocks of the video track, if any
+	 */
+	record Details(@Nullable String docType, @Nullable Double duration, List<Track> tracks, @Nullable Double declaredFrameRate, @Nullable Double estimatedFrameRate) {
+		static final Details NOT_MATROSKA = new Details(null, null, List.of(), null, null);
+
+		boolean isMatroska() {
+			return docType != null;
+		}
+
+		@Nullable Track videoTrack() {
+			return tracks.stream().filter(Track::isVideo).findFirst().orElse(null);
+		}
+
+		boolean hasAudio() {
+			return tracks.stream().anyMatch(Track::isAudio);
+		}
+	}
+}
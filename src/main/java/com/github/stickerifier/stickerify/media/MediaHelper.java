@@ -14,11 +14,13 @@ import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_VIDE
 import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_VIDEO_FRAMES;
 import static com.github.stickerifier.stickerify.media.MediaConstraints.VP9_CODEC;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.github.stickerifier.stickerify.config.Environment;
 import com.github.stickerifier.stickerify.exception.FileOperationException;
 import com.github.stickerifier.stickerify.exception.MediaException;
+import com.github.stickerifier.stickerify.exception.ProcessAbortedException;
 import com.github.stickerifier.stickerify.exception.ProcessException;
+import com.github.stickerifier.stickerify.exception.UnsupportedMediaException;
 import com.github.stickerifier.stickerify.logger.StructuredLogger;
 import com.github.stickerifier.stickerify.process.OsConstants;
 import com.github.stickerifier.stickerify.process.ProcessHelper;
@@ -32,11 +34,12 @@ import org.slf4j.event.Level;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
-import java.util.zip.GZIPInputStream;
 
 public final class MediaHelper {
 
@@ -46,6 +49,33 @@ public final class MediaHelper {
 	private static final Gson GSON = new Gson();
 	private static final Set<String> SUPPORTED_VIDEOS = Set.of("image/gif", "video/quicktime", "video/webm",
 			"video/mp4", "video/x-m4v", "application/x-matroska", "video/x-msvideo");
+	private static final Set<String> PIPED_IMAGES = Set.of("image/png", "image/jpeg", "image/webp");
+	private static final String PIPED_INPUT = "pipe:0";
+	private static final String PIPED_OUTPUT = "pipe:1";
+	private static final Set<String> IN_PROCESS_CONVERTIBLE_IMAGES = Set.of("image/png", "image/jpeg");
+	private static final Set<String> IN_PROCESS_IMAGES = getInProcessImages();
+	private static final VideoEncoding DEFAULT_VIDEO_ENCODING = VideoEncoding.fromEnvironment();
+	private static final BitratePlanner BITRATE_PLANNER = BitratePlanner.fromEnvironment();
+	private static final boolean SPECULATIVE_VIDEO_ENCODING = Environment.getBoolean("SPECULATIVE_VIDEO_ENCODING", false);
+	/**
+	 * Upper bound for WebP images kept in memory: a lossless 512 x 512 image never exceeds it.
+	 */
+	private static final int MAX_IN_MEMORY_IMAGE_SIZE = 2 * 1024 * 1024;
+	/**
+	 * Images larger than this are rejected before being decoded, to protect against decompression bombs.
+	 */
+	private static final long MAX_DECODED_PIXELS = 100_000_000L;
+	/**
+	 * Larger images are left to ffmpeg: the JDK decodes every pixel of a JPEG even when subsampling it,
+	 * which makes it slower than ffmpeg past a few megapixels.
+	 */
+	private static final long MAX_IN_PROCESS_PIXELS = 4_000_000L;
+	/**
+	 * Frame rates estimated from block timestamps this close to the limit are double-checked with ffprobe,
+	 * since timestamps are rounded to the timestamp scale of the video.
+	 */
+	private static final double FRAME_RATE_ESTIMATE_TOLERANCE = 0.1;
+	private static final String VP9_TRACK_CODEC = "V_VP9";
 
 	private static final int IMAGE_KEEP_ASPECT_RATIO = -1;
 	private static final int VIDEO_KEEP_ASPECT_RATIO = -2;
@@ -60,16 +90,34 @@ public final class MediaHelper {
 	/**
 	 * Based on the type of passed-in file, it converts it into the proper media.
 	 * If no conversion was needed, {@code null} is returned.
+	 * Images are converted in memory, while videos are saved into temp files.
+	 *
+	 * Videos are encoded as configured by the {@code VIDEO_ENCODING} environment variable.
 	 *
 	 * @param inputFile the file to convert
-	 * @return a resized and converted file
+	 * @return a resized and converted media
 	 * @throws Exception either if the file is not supported, if the conversion failed,
 	 * or if the current thread is interrupted while converting a video file
 	 */
-	public static @Nullable File convert(File inputFile) throws Exception {
+	public static @Nullable ConvertedMedia convert(File inputFile) throws Exception {
+		return convert(inputFile, DEFAULT_VIDEO_ENCODING);
+	}
+
+	/**
+	 * Based on the type of passed-in file, it converts it into the proper media.
+	 * If no conversion was needed, {@code null} is returned.
+	 * Images are converted in memory, while videos are saved into temp files.
+	 *
+	 * @param inputFile the file to convert
+	 * @param videoEncoding the encoding to use if the file is a video
+	 * @return a resized and converted media
+	 * @throws Exception either if the file is not supported, if the conversion failed,
+	 * or if the current thread is interrupted while converting a video file
+	 */
+	public static @Nullable ConvertedMedia convert(File inputFile, VideoEncoding videoEncoding) throws Exception {
 		var mimeType = detectMimeType(inputFile);
 
-		return ScopedValue.where(MIME_TYPE_VALUE, mimeType).call(() -> performConversion(inputFile, mimeType));
+		return ScopedValue.where(MIME_TYPE_VALUE, mimeType).call(() -> performConversion(inputFile, mimeType, videoEncoding));
 	}
 
 	/**
@@ -91,22 +139,26 @@ public final class MediaHelper {
 	/**
 	 * @param inputFile the file to convert
 	 * @param mimeType the MIME type of the file
-	 * @return a resized and converted file
-	 * @throws MediaException if the file is not supported or if the conversion failed
+	 * @param videoEncoding the encoding to use if the file is a video
+	 * @return a resized and converted media
+	 * @throws UnsupportedMediaException if the file is not supported
+	 * @throws MediaException if the conversion failed
 	 * @throws InterruptedException if the current thread is interrupted while converting a video file
-	 * @see MediaHelper#convert(File)
+	 * @see MediaHelper#convert(File, VideoEncoding)
 	 */
-	private static @Nullable File performConversion(File inputFile, String mimeType) throws MediaException, InterruptedException {
+	private static @Nullable ConvertedMedia performConversion(File inputFile, String mimeType, VideoEncoding videoEncoding) throws MediaException, InterruptedException {
 		LOGGER.at(Level.DEBUG).log("MIME type successfully detected");
 
 		try {
+			var imageDimensions = isSupportedImage(mimeType) ? readImageDimensions(inputFile) : null;
+
 			if (isSupportedVideo(inputFile, mimeType)) {
 				if (isVideoCompliant(inputFile)) {
 					LOGGER.at(Level.INFO).log("The video doesn't need conversion");
 					return null;
 				}
 
-				return convertToWebm(inputFile);
+				return new ConvertedMedia.OnDisk(convertToWebm(inputFile, videoEncoding));
 			}
 
 			if (isAnimatedStickerCompliant(inputFile, mimeType)) {
@@ -115,19 +167,26 @@ public final class MediaHelper {
 			}
 
 			if (isSupportedImage(mimeType)) {
-				if (isImageCompliant(inputFile, mimeType)) {
+				if (isImageCompliant(inputFile, mimeType, imageDimensions)) {
 					LOGGER.at(Level.INFO).log("The image doesn't need conversion");
 					return null;
 				}
 
-				return convertToWebp(inputFile);
+				if (imageDimensions != null && imageDimensions.pixels() <= MAX_IN_PROCESS_PIXELS && IN_PROCESS_IMAGES.contains(mimeType)) {
+					var webpImage = convertInProcess(inputFile, imageDimensions);
+					if (webpImage != null) {
+						return webpImage;
+					}
+				}
+
+				return convertToWebp(inputFile, mimeType);
 			}
 		} catch (MediaException e) {
 			LOGGER.at(Level.WARN).setCause(e).log("The file could not be converted");
 			throw e;
 		}
 
-		throw new MediaException("The file with {} MIME type is not supported", mimeType);
+		throw new UnsupportedMediaException("The file with {} MIME type is not supported", mimeType);
 	}
 
 	/**
@@ -173,13 +232,78 @@ public final class MediaHelper {
 	/**
 	 * Checks if passed-in file is already compliant with Telegram's requisites.
 	 * If so, conversion won't take place and no file will be returned to the user.
+	 * The structure of the video is read natively, and ffprobe is run only if it's not enough to decide.
 	 *
 	 * @param file the file to check
 	 * @return {@code true} if the file is compliant
 	 * @throws MediaException if an error occurred retrieving video information
 	 * @throws InterruptedException if the current thread is interrupted while retrieving file info
 	 */
-	private static boolean isVideoCompliant(File file) throws MediaException, InterruptedException {
+	static boolean isVideoCompliant(File file) throws MediaException, InterruptedException {
+		return switch (checkMatroskaCompliance(file)) {
+			case COMPLIANT -> true;
+			case NOT_COMPLIANT -> false;
+			case UNDECIDED -> isVideoCompliantAccordingToFfprobe(file);
+		};
+	}
+
+	/**
+	 * Checks Telegram's requisites against the EBML structure of the video.
+	 * The outcome is left undecided when the file is malformed, when it doesn't declare its duration,
+	 * or when the frame rate can only be estimated from the timestamps of the blocks and it's close to the limit.
+	 *
+	 * @param file the video to check
+	 * @return whether the video is compliant, or {@link Compliance#UNDECIDED} if ffprobe is needed
+	 * @throws FileOperationException if an error occurred reading the file
+	 */
+	private static Compliance checkMatroskaCompliance(File file) throws FileOperationException {
+		try {
+			if (Files.size(file.toPath()) > MAX_VIDEO_FILE_SIZE) {
+				return Compliance.NOT_COMPLIANT;
+			}
+
+			var details = MatroskaHeader.read(file);
+			if (details == null) {
+				return Compliance.UNDECIDED;
+			}
+
+			var videoTrack = details.videoTrack();
+			if (!details.isMatroska() || videoTrack == null || details.hasAudio()
+					|| !VP9_TRACK_CODEC.equals(videoTrack.codec())
+					|| !isSizeCompliant(videoTrack.width(), videoTrack.height())) {
+				return Compliance.NOT_COMPLIANT;
+			}
+
+			var duration = details.duration();
+			if (duration == null) {
+				return Compliance.UNDECIDED;
+			}
+
+			if (duration > MAX_VIDEO_DURATION_SECONDS) {
+				return Compliance.NOT_COMPLIANT;
+			}
+
+			var frameRate = details.declaredFrameRate();
+			if (frameRate == null) {
+				var estimatedFrameRate = details.estimatedFrameRate();
+				if (estimatedFrameRate == null || Math.abs(estimatedFrameRate - MAX_VIDEO_FRAMES) <= MAX_VIDEO_FRAMES * FRAME_RATE_ESTIMATE_TOLERANCE) {
+					return Compliance.UNDECIDED;
+				}
+
+				frameRate = estimatedFrameRate;
+			}
+
+			return frameRate.floatValue() <= MAX_VIDEO_FRAMES ? Compliance.COMPLIANT : Compliance.NOT_COMPLIANT;
+		} catch (IOException e) {
+			throw new FileOperationException(e);
+		}
+	}
+
+	private enum Compliance {
+		COMPLIANT, NOT_COMPLIANT, UNDECIDED
+	}
+
+	private static boolean isVideoCompliantAccordingToFfprobe(File file) throws MediaException, InterruptedException {
 		var mediaInfo = retrieveMultimediaInfo(file);
 
 		var formatInfo = mediaInfo.format();
@@ -214,23 +338,52 @@ public final class MediaHelper {
 	 * @throws InterruptedException if the current thread is interrupted while retrieving file info
 	 */
 	static MultimediaInfo retrieveMultimediaInfo(File file) throws MediaException, InterruptedException {
-		var command = List.of(
+		try {
+			var output = ProcessHelper.executeCommand(buildFfprobeCommand(file.getAbsolutePath()));
+
+			return GSON.fromJson(output, MultimediaInfo.class);
+		} catch (ProcessException | JsonSyntaxException e) {
+			throw new MediaException("Unable to retrieve media information", e);
+		}
+	}
+
+	/**
+	 * Convenience method to retrieve multimedia information of an image, feeding it to ffprobe through its standard input.
+	 * Since the size of piped content is unknown to ffprobe, the format size is read from the file system.
+	 *
+	 * @param image the image to check
+	 * @return passed-in image's multimedia information
+	 * @throws MediaException if an error occurred retrieving file information
+	 * @throws InterruptedException if the current thread is interrupted while retrieving file info
+	 */
+	private static MultimediaInfo retrievePipedImageInfo(File image) throws MediaException, InterruptedException {
+		try (var input = FileChannel.open(image.toPath())) {
+			var output = ProcessHelper.executeCommand(buildFfprobeCommand(PIPED_INPUT), input);
+			var mediaInfo = GSON.fromJson(output, MultimediaInfo.class);
+
+			var formatInfo = mediaInfo.format();
+			if (formatInfo == null) {
+				return mediaInfo;
+			}
+
+			return new MultimediaInfo(mediaInfo.streams(), new FormatInfo(formatInfo.format(), formatInfo.duration(), input.size()));
+		} catch (IOException e) {
+			throw new FileOperationException(e);
+		} catch (ProcessException | JsonSyntaxException e) {
+			throw new MediaException("Unable to retrieve media information", e);
+		}
+	}
+
+	private static List<String> buildFfprobeCommand(String input) {
+		return List.of(
 				"ffprobe",
 				"-hide_banner",
 				"-v", "error",
 				"-print_format", "json",
 				"-show_format",
 				"-show_streams",
-				file.getAbsolutePath()
+				input
 		);
-
-		try {
-			var output = ProcessHelper.executeCommand(command);
-
-			return GSON.fromJson(output, MultimediaInfo.class);
-		} catch (ProcessException | JsonSyntaxException e) {
-			throw new MediaException("Unable to retrieve media information", e);
-		}
 	}
 
 	record MultimediaInfo(List<StreamInfo> streams, @Nullable FormatInfo format) {
@@ -270,8 +423,8 @@ public final class MediaHelper {
 	record FormatInfo(@SerializedName("format_name") String format, @Nullable Float duration, long size) {}
 
 	/**
-	 * Checks if the file is a {@code gzip} archive, then it reads its content and verifies if it's a valid JSON.
-	 * Once JSON information is retrieved, they are validated against Telegram's requirements.
+	 * Checks if the file is a {@code gzip} archive, then it streams its content reading the properties of the animation.
+	 * Once the properties are retrieved, they are validated against Telegram's requirements.
 	 *
 	 * @param file the file to check
 	 * @param mimeType the MIME type of the file
@@ -280,50 +433,34 @@ public final class MediaHelper {
 	 */
 	private static boolean isAnimatedStickerCompliant(File file, String mimeType) throws FileOperationException {
 		if ("application/gzip".equals(mimeType)) {
-			var uncompressedContent = "";
-
-			try (var gzipInputStream = new GZIPInputStream(new FileInputStream(file))) {
-				uncompressedContent = new String(gzipInputStream.readAllBytes(), UTF_8);
+			try {
+				if (Files.size(file.toPath()) > MAX_ANIMATION_FILE_SIZE) {
+					return false;
+				}
 			} catch (IOException e) {
-				LOGGER.at(Level.ERROR).setCause(e).addKeyValue(FILE_PATH_LOG_KEY, file.getPath()).log("Unable to retrieve gzip content");
+				throw new FileOperationException(e);
 			}
 
 			try {
-				var sticker = GSON.fromJson(uncompressedContent, AnimationDetails.class);
+				var sticker = LottieHeader.read(file);
+				if (sticker == null) {
+					LOGGER.at(Level.INFO).log("The archive isn't an animated sticker");
+					return false;
+				}
 
 				if (isAnimationCompliant(sticker)) {
-					try {
-						return Files.size(file.toPath()) <= MAX_ANIMATION_FILE_SIZE;
-					} catch (IOException e) {
-						throw new FileOperationException(e);
-					}
+					return true;
 				}
 
 				LOGGER.at(Level.WARN).addKeyValue(STICKER_LOG_KEY, sticker).log("The animated sticker doesn't meet Telegram's requirements");
-			} catch (JsonSyntaxException _) {
-				LOGGER.at(Level.INFO).log("The archive isn't an animated sticker");
+			} catch (IOException e) {
+				LOGGER.at(Level.ERROR).setCause(e).addKeyValue(FILE_PATH_LOG_KEY, file.getPath()).log("Unable to retrieve gzip content");
 			}
 		}
 
 		return false;
 	}
 
-	private record AnimationDetails(@SerializedName("w") int width, @SerializedName("h") int height, @SerializedName("fr") int frameRate, @SerializedName("ip") float start, @SerializedName("op") float end) {
-		private float duration() {
-			return (end - start) / frameRate;
-		}
-
-		@Override
-		public String toString() {
-			return "animated sticker [" +
-					"width=" + width +
-					", height=" + height +
-					", frameRate=" + frameRate +
-					", duration=" + duration() +
-					']';
-		}
-	}
-
 	/**
 	 * Checks if passed-in animation is already compliant with Telegram's requisites.
 	 * If so, conversion won't take place and no file will be returned to the user.
@@ -331,9 +468,8 @@ public final class MediaHelper {
 	 * @param animation the animation to check
 	 * @return {@code true} if the animation is compliant
 	 */
-	private static boolean isAnimationCompliant(@Nullable AnimationDetails animation) {
-		return animation != null
-				&& animation.frameRate() <= MAX_ANIMATION_FRAME_RATE
+	private static boolean isAnimationCompliant(LottieHeader.Details animation) {
+		return animation.frameRate() <= MAX_ANIMATION_FRAME_RATE
 				&& animation.duration() <= MAX_ANIMATION_DURATION_SECONDS
 				&& animation.width() == MAX_SIDE_LENGTH
 				&& animation.height() == MAX_SIDE_LENGTH;
@@ -349,17 +485,53 @@ public final class MediaHelper {
 		return mimeType.startsWith("image/");
 	}
 
+	/**
+	 * Reads the dimensions of the image from its header, rejecting images whose decoding would require too much memory.
+	 *
+	 * @param image the image to check
+	 * @return the dimensions of the image, or {@code null} if they can't be read from its header
+	 * @throws UnsupportedMediaException if the image has more than {@link #MAX_DECODED_PIXELS} pixels
+	 * @throws FileOperationException if an error occurred reading the file
+	 */
+	private static ImageHeader.@Nullable Dimensions readImageDimensions(File image) throws MediaException {
+		try {
+			var dimensions = ImageHeader.read(image);
+
+			if (dimensions != null && dimensions.pixels() > MAX_DECODED_PIXELS) {
+				throw new UnsupportedMediaException("The image size {}x{} exceeds the maximum of {} pixels", dimensions.width(), dimensions.height(), MAX_DECODED_PIXELS);
+			}
+
+			return dimensions;
+		} catch (IOException e) {
+			throw new FileOperationException(e);
+		}
+	}
+
 	/**
 	 * Checks if passed-in image is already compliant with Telegram's requisites.
+	 * If the dimensions were read from the header of the image, no external process is needed.
 	 *
 	 * @param image the image to check
 	 * @param mimeType the MIME type of the file
+	 * @param dimensions the dimensions read from the header of the image, if any
 	 * @return {@code true} if the file is compliant
 	 * @throws MediaException if an error occurred retrieving image information
 	 * @throws InterruptedException if the current thread is interrupted while retrieving file info
 	 */
-	private static boolean isImageCompliant(File image, String mimeType) throws MediaException, InterruptedException {
-		var mediaInfo = retrieveMultimediaInfo(image);
+	private static boolean isImageCompliant(File image, String mimeType, ImageHeader.@Nullable Dimensions dimensions) throws MediaException, InterruptedException {
+		if (!"image/png".equals(mimeType) && !"image/webp".equals(mimeType)) {
+			return false;
+		}
+
+		if (dimensions != null) {
+			try {
+				return isSizeCompliant(dimensions.width(), dimensions.height()) && Files.size(image.toPath()) <= MAX_IMAGE_FILE_SIZE;
+			} catch (IOException e) {
+				throw new FileOperationException(e);
+			}
+		}
+
+		var mediaInfo = PIPED_IMAGES.contains(mimeType) ? retrievePipedImageInfo(image) : retrieveMultimediaInfo(image);
 
 		var formatInfo = mediaInfo.format();
 		if (formatInfo == null) {
@@ -371,46 +543,92 @@ public final class MediaHelper {
 			return false;
 		}
 
-		return ("image/png".equals(mimeType) || "image/webp".equals(mimeType))
-				&& isSizeCompliant(imageInfo.width(), imageInfo.height())
+		return isSizeCompliant(imageInfo.width(), imageInfo.height())
 				&& formatInfo.size() <= MAX_IMAGE_FILE_SIZE;
 	}
 
 	/**
-	 * Given an image file, it converts it to a WebP file of the proper dimension (max 512 x 512).
+	 * Converts the image to a WebP image of the proper dimension (max 512 x 512) without spawning ffmpeg.
 	 *
 	 * @param file the image to convert to WebP
+	 * @param dimensions the dimensions read from the header of the image
+	 * @return converted image, or {@code null} if the image couldn't be converted in process
+	 * or if the result exceeds the maximum size, in which case ffmpeg should be used instead
+	 * @throws InterruptedException if the current thread is interrupted while waiting to convert the image
+	 */
+	private static ConvertedMedia.@Nullable InMemory convertInProcess(File file, ImageHeader.Dimensions dimensions) throws InterruptedException {
+		try {
+			var webpImage = ProcessHelper.executeInProcess(dimensions.pixels(), () -> InProcessImageConverter.convert(file, dimensions));
+			if (webpImage == null) {
+				LOGGER.at(Level.DEBUG).log("The image can't be decoded in process");
+				return null;
+			}
+
+			if (webpImage.length > MAX_IMAGE_FILE_SIZE) {
+				LOGGER.at(Level.DEBUG).log("The image converted in process exceeds the maximum size");
+				return null;
+			}
+
+			return new ConvertedMedia.InMemory("webp", webpImage);
+		} catch (IOException | RuntimeException e) {
+			// image readers may fail with unchecked exceptions on malformed files
+			LOGGER.at(Level.WARN).setCause(e).log("The image couldn't be converted in process");
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the MIME types of the images to convert in process from the {@code IN_PROCESS_IMAGE_TYPES}
+	 * environment variable: by default, every image is converted by ffmpeg.
+	 *
+	 * @return the MIME types of the images to convert in process
+	 * @throws IllegalArgumentException if a MIME type can't be converted in process
+	 */
+	private static Set<String> getInProcessImages() {
+		var mimeTypes = Environment.getList("IN_PROCESS_IMAGE_TYPES");
+		for (var mimeType : mimeTypes) {
+			if (!IN_PROCESS_CONVERTIBLE_IMAGES.contains(mimeType)) {
+				throw new IllegalArgumentException("The environment variable IN_PROCESS_IMAGE_TYPES must only contain " + IN_PROCESS_CONVERTIBLE_IMAGES + " (was " + mimeType + ")");
+			}
+		}
+
+		return Set.copyOf(mimeTypes);
+	}
+
+	/**
+	 * Given an image file, it converts it to a WebP image of the proper dimension (max 512 x 512).
+	 * Images which can be decoded without seeking are fed to ffmpeg through its standard input,
+	 * while the converted image is read from its standard output without going through the disk.
+	 *
+	 * @param file the image to convert to WebP
+	 * @param mimeType the MIME type of the file
 	 * @return converted image
 	 * @throws MediaException if an error occurred processing passed-in image
 	 * @throws InterruptedException if the current thread is interrupted while converting the file
 	 */
-	private static File convertToWebp(File file) throws MediaException, InterruptedException {
-		var webpImage = createTempFile("webp");
+	static ConvertedMedia convertToWebp(File file, String mimeType) throws MediaException, InterruptedException {
+		var pipeInput = PIPED_IMAGES.contains(mimeType);
 		var command = List.of(
 				"ffmpeg",
 				"-y",
 				"-hide_banner",
 				"-v", "error",
-				"-i", file.getAbsolutePath(),
+				"-i", pipeInput ? PIPED_INPUT : file.getAbsolutePath(),
 				"-vf", "scale='if(gt(iw,ih),%1$d,%2$d)':'if(gt(iw,ih),%2$d,%1$d)'".formatted(MAX_SIDE_LENGTH, IMAGE_KEEP_ASPECT_RATIO),
 				"-c:v", "libwebp",
 				"-lossless", "1",
 				"-compression_level", "6",
-				webpImage.getAbsolutePath()
+				"-f", "webp",
+				PIPED_OUTPUT
 		);
 
-		try {
-			ProcessHelper.executeCommand(command);
-		} catch (ProcessException e) {
-			try {
-				deleteFile(webpImage);
-			} catch (FileOperationException ex) {
-				e.addSuppressed(ex);
-			}
+		try (var input = pipeInput ? FileChannel.open(file.toPath()) : null) {
+			var webpImage = ProcessHelper.executeCommandCapturingOutput(command, input, MAX_IN_MEMORY_IMAGE_SIZE);
+
+			return new ConvertedMedia.InMemory("webp", webpImage);
+		} catch (IOException | ProcessException e) {
 			throw new MediaException("FFmpeg image conversion failed", e);
 		}
-
-		return webpImage;
 	}
 
 	/**
@@ -459,13 +677,20 @@ public final class MediaHelper {
 	/**
 	 * Given a video file, it converts it to a WebM file of the proper dimension (max 512 x 512),
 	 * based on the requirements specified by <a href="https://core.telegram.org/stickers/webm-vp9-encoding">Telegram documentation</a>.
+	 * When encoding in two passes, the bitrate of the second pass is chosen by the {@link BitratePlanner}
+	 * from the statistics of the first one.
+	 * The encode is aborted as soon as its result is bound to be too large, and the video is encoded once more
+	 * with a lower bitrate.
+	 * When the {@code SPECULATIVE_VIDEO_ENCODING} environment variable is {@code true} and the planned bitrate is
+	 * borderline, the lower bitrate pass runs alongside the planned one, as long as a process permit is idle.
 	 *
 	 * @param file the file to convert
+	 * @param videoEncoding whether to encode the video in two passes or in a single constrained-quality pass
 	 * @return converted video
 	 * @throws MediaException if file conversion is not successful
 	 * @throws InterruptedException if the current thread is interrupted while converting the video file
 	 */
-	private static File convertToWebm(File file) throws MediaException, InterruptedException {
+	static File convertToWebm(File file, VideoEncoding videoEncoding) throws MediaException, InterruptedException {
 		var webmVideo = createTempFile("webm");
 		var logPrefix = webmVideo.getAbsolutePath() + "-passlog";
 		var baseCommand = List.of(
@@ -483,7 +708,9 @@ public final class MediaHelper {
 				"-pix_fmt", "yuv420p",
 				"-t", String.valueOf(MAX_VIDEO_DURATION_SECONDS),
 				"-an",
-				"-enc_time_base", "1/1000",
+				"-enc_time_base", "1/1000"
+		);
+		var passLog = List.of(
 				"-passlogfile", logPrefix
 		);
 		var firstPass = List.of(
@@ -498,12 +725,25 @@ public final class MediaHelper {
 				"-pass", "2",
 				webmVideo.getAbsolutePath()
 		);
-		var highQualityBitrate = List.of(
+		var singlePass = List.of(
+				"-qmax", "63",
+				"-cpu-used", "4",
+				webmVideo.getAbsolutePath()
+		);
+		var lowQualityBitrate = List.of(
+				"-b:v", "250K",
+				"-maxrate", "250K",
+				"-bufsize", "125K",
+				"-qmin", "35"
+		);
+		var highQualityConstrained = List.of(
+				"-crf", "26",
 				"-b:v", "650K",
 				"-maxrate", "650K",
 				"-bufsize", "1300K"
 		);
-		var lowQualityBitrate = List.of(
+		var lowQualityConstrained = List.of(
+				"-crf", "45",
 				"-b:v", "250K",
 				"-maxrate", "250K",
 				"-bufsize", "125K",
@@ -511,12 +751,40 @@ public final class MediaHelper {
 		);
 
 		try {
-			ProcessHelper.executeCommand(buildFfmpegCommand(baseCommand, firstPass));
-			ProcessHelper.executeCommand(buildFfmpegCommand(baseCommand, highQualityBitrate, secondPass));
-
-			if (webmVideo.length() > MAX_VIDEO_FILE_SIZE) {
-				LOGGER.at(Level.WARN).log("Resulting file was too large (actual size was {} bytes), retrying with lower bitrate", webmVideo.length());
-				ProcessHelper.executeCommand(buildFfmpegCommand(baseCommand, lowQualityBitrate, secondPass));
+			boolean retryNeeded = switch (videoEncoding) {
+				case TWO_PASS -> {
+					ProcessHelper.executeCommand(buildFfmpegCommand(baseCommand, passLog, firstPass));
+					var plan = BITRATE_PLANNER.plan(Path.of(logPrefix + "-0.log"));
+
+					try (var speculativePass = SPECULATIVE_VIDEO_ENCODING && plan.borderline() ? prepareLowQualityPass(baseCommand, passLog, lowQualityBitrate) : null) {
+						// the speculative pass starts only once the second pass holds its permit, so it can't take it first
+						Runnable onStarted = speculativePass == null ? () -> {} : speculativePass::start;
+						var encode = encodeWithinSizeLimit(buildFfmpegCommand(baseCommand, passLog, plan.ffmpegOptions(), secondPass), webmVideo, plan.durationSeconds(), onStarted);
+						if (encode.aborted()) {
+							// the projected size is only an estimate, so it mustn't correct the next plans
+							BITRATE_PLANNER.recordAborted();
+						} else {
+							BITRATE_PLANNER.record(plan, encode.bytes());
+						}
+
+						if (speculativePass != null && encode.bytes() > MAX_VIDEO_FILE_SIZE && speculativePass.awaitInto(webmVideo)) {
+							// the speculative pass used the bitrate of the retry, which would give the same result again
+							LOGGER.at(Level.INFO).log("Resulting file was too large, using the speculative lower bitrate pass");
+							yield false;
+						}
+
+						yield exceedsSizeLimit(encode.bytes());
+					}
+				}
+				case SINGLE_PASS -> exceedsSizeLimit(encodeWithinSizeLimit(buildFfmpegCommand(baseCommand, highQualityConstrained, singlePass), webmVideo, 0, () -> {}).bytes());
+			};
+
+			if (retryNeeded) {
+				var retry = switch (videoEncoding) {
+					case TWO_PASS -> buildFfmpegCommand(baseCommand, passLog, lowQualityBitrate, secondPass);
+					case SINGLE_PASS -> buildFfmpegCommand(baseCommand, lowQualityConstrained, singlePass);
+				};
+				ProcessHelper.executeCommand(retry);
 			}
 		} catch (ProcessException e) {
 			try {
@@ -524,18 +792,86 @@ public final class MediaHelper {
 			} catch (FileOperationException ex) {
 				e.addSuppressed(ex);
 			}
-			throw new MediaException("FFmpeg two-pass conversion failed", e);
+			throw new MediaException("FFmpeg " + videoEncoding.description() + " conversion failed", e);
 		} finally {
-			try {
-				deleteFile(new File(logPrefix + "-0.log"));
-			} catch (FileOperationException e) {
-				LOGGER.at(Level.WARN).setCause(e).log("Could not delete log file");
+			if (videoEncoding == VideoEncoding.TWO_PASS) {
+				try {
+					deleteFile(new File(logPrefix + "-0.log"));
+				} catch (FileOperationException e) {
+					LOGGER.at(Level.WARN).setCause(e).log("Could not delete log file");
+				}
 			}
 		}
 
 		return webmVideo;
 	}
 
+	/**
+	 * Runs an encode which is aborted as soon as its result is bound to exceed the size limit.
+	 *
+	 * @param command the ffmpeg command writing into {@code output}
+	 * @param output the file the encode writes into
+	 * @param durationSeconds the duration of the video, or 0 if unknown
+	 * @param onStarted the action to run once the encode holds its process permit
+	 * @return the outcome of the encode
+	 * @throws ProcessException if the encode failed
+	 * @throws InterruptedException if the current thread is interrupted while encoding
+	 */
+	private static EncodedSize encodeWithinSizeLimit(List<String> command, File output, double durationSeconds, Runnable onStarted) throws ProcessException, InterruptedException {
+		var monitor = new SizeLimitMonitor(MAX_VIDEO_FILE_SIZE, durationSeconds);
+
+		try {
+			ProcessHelper.executeCommandWithProgress(command, monitor, onStarted);
+			return new EncodedSize(output.length(), false);
+		} catch (ProcessAbortedException _) {
+			LOGGER.at(Level.INFO).log("The encode was aborted, since its result was bound to be too large");
+			return new EncodedSize(Math.max(monitor.projectedBytes(), MAX_VIDEO_FILE_SIZE + 1), true);
+		}
+	}
+
+	private static boolean exceedsSizeLimit(long videoSize) {
+		if (videoSize <= MAX_VIDEO_FILE_SIZE) {
+			return false;
+		}
+
+		LOGGER.at(Level.WARN).log("Resulting file was too large (actual or projected size was {} bytes), retrying with lower bitrate", videoSize);
+		return true;
+	}
+
+	/**
+	 * @param bytes the size of the result, or the size it was projected to reach if the encode was aborted
+	 * @param aborted whether the encode was aborted, so that its size is only projected
+	 */
+	private record EncodedSize(long bytes, boolean aborted) {}
+
+	/**
+	 * Prepares the second pass with the lower bitrate to run in the background, writing into a temp file of its own.
+	 *
+	 * @return the pass to start
+	 * @throws FileOperationException if the temp file couldn't be created
+	 */
+	@SafeVarargs
+	private static SpeculativePass prepareLowQualityPass(final List<String>... commands) throws FileOperationException {
+		var speculativeVideo = createTempFile("webm");
+		var secondPass = List.of(
+				"-qmax", "63",
+				"-cpu-used", "4",
+				"-pass", "2",
+				speculativeVideo.getAbsolutePath()
+		);
+
+		return SpeculativePass.prepare(buildFfmpegCommand(buildFfmpegCommand(commands), secondPass), speculativeVideo);
+	}
+
+	/**
+	 * Reports how the bitrate of the second pass of videos has been planned.
+	 *
+	 * @return the statistics of the bitrate planner
+	 */
+	public static BitratePlanner.Stats bitratePlannerStats() {
+		return BITRATE_PLANNER.stats();
+	}
+
 	/**
 	 * Builds the ffmpeg command combining multiple parts.
 	 *
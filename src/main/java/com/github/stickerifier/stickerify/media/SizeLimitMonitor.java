@@ -0,0 +1,50 @@
+package com.github.stickerifier.stickerify.media;
+
+import com.github.stickerifier.stickerify.process.Progress;
+import com.github.stickerifier.stickerify.process.ProgressListener;
+
+/**
+ * Aborts an encode as soon as its output is bound to exceed the size limit: either because it already does,
+ * or because, past half of the video, the size written so far projects well beyond the limit.
+ */
+final class SizeLimitMonitor implements ProgressListener {
+
+	private static final double MIN_PROJECTED_FRACTION = 0.5;
+	/**
+	 * Rate control can't recover from a projection this much above the limit in the remaining part of the video.
+	 */
+	private static final double PROJECTION_MARGIN = 1.5;
+
+	private final long maxBytes;
+	private final double durationSeconds;
+	private volatile long projectedBytes;
+
+	/**
+	 * @param maxBytes the size limit of the output
+	 * @param durationSeconds the duration of the output, or 0 if unknown to only abort once the limit is exceeded
+	 */
+	SizeLimitMonitor(long maxBytes, double durationSeconds) {
+		this.maxBytes = maxBytes;
+		this.durationSeconds = durationSeconds;
+	}
+
+	@Override
+	public boolean onProgress(Progress progress) {
+		if (progress.totalSize() < 0) {
+			return true;
+		}
+
+		var fraction = durationSeconds > 0 ? progress.outTime().toNanos() / 1e9 / durationSeconds : 0;
+		var projected = fraction >= MIN_PROJECTED_FRACTION && fraction < 1 ? (long) (progress.totalSize() / fraction) : progress.totalSize();
+		projectedBytes = projected;
+
+		return progress.totalSize() <= maxBytes && (fraction < MIN_PROJECTED_FRACTION || projected <= maxBytes * PROJECTION_MARGIN);
+	}
+
+	/**
+	 * @return the size the output was projected to reach at the last progress report
+	 */
+	long projectedBytes() {
+		return projectedBytes;
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.stickerifier.stickerify.media;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.github.stickerifier.stickerify.exception.ProcessException;
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.github.stickerifier.stickerify.process.ProcessHelper;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * An encode run in the background while a better one is still in progress, so that its result is already available
+ * if the better one turns out to be unusable.
+ * <p>
+ * The pass is prepared before the better encode, and started once the better encode holds its process permit,
+ * so that it never takes the permit the better encode is waiting for.
+ * The encode only starts if a process permit is idle, so that it never delays the conversions of other users.
+ * Closing the pass kills the encode if it's still running and deletes its output.
+ * The CPU time of the encode is charged to the meter of the thread starting it.
+ */
+final class SpeculativePass implements AutoCloseable {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(SpeculativePass.class);
+
+	private final List<String> command;
+	private final File output;
+	private @Nullable Thread thread;
+	private volatile boolean succeeded;
+
+	private SpeculativePass(List<String> command, File output) {
+		this.command = command;
+		this.output = output;
+	}
+
+	/**
+	 * Prepares the encode, without starting it.
+	 *
+	 * @param command the command writing its result into {@code output}
+	 * @param output the file the encode writes into
+	 * @return the pass to start
+	 */
+	static SpeculativePass prepare(List<String> command, File output) {
+		return new SpeculativePass(command, output);
+	}
+
+	/**
+	 * Starts the encode in the background, unless it has already been started.
+	 */
+	void start() {
+		if (thread != null) {
+			return;
+		}
+
+		Runnable pass = () -> run(command);
+		if (ProcessHelper.CPU_METER.isBound()) {
+			var meter = ProcessHelper.CPU_METER.get();
+			thread = Thread.ofVirtual().start(() -> ScopedValue.where(ProcessHelper.CPU_METER, meter).run(pass));
+		} else {
+			thread = Thread.ofVirtual().start(pass);
+		}
+	}
+
+	private void run(List<String> command) {
+		try {
+			succeeded = ProcessHelper.executeCommandIfIdle(command) != null;
+			if (!succeeded) {
+				LOGGER.at(Level.DEBUG).log("No process permit was idle, the speculative pass didn't run");
+			}
+		} catch (ProcessException e) {
+			LOGGER.at(Level.DEBUG).setCause(e).log("The speculative pass failed");
+		} catch (InterruptedException _) {
+			LOGGER.at(Level.DEBUG).log("The speculative pass was cancelled");
+		}
+	}
+
+	/**
+	 * Waits for the encode to finish and, if it succeeded, moves its result into {@code target}.
+	 *
+	 * @param target the file to replace with the result of the encode
+	 * @return {@code true} if {@code target} now contains the result of the encode, {@code false} if it failed or never started
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the encode to finish
+	 */
+	boolean awaitInto(File target) throws InterruptedException {
+		if (thread == null) {
+			return false;
+		}
+
+		thread.join();
+		if (!succeeded) {
+			return false;
+		}
+
+		try {
+			Files.move(output.toPath(), target.toPath(), REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to use the result of the speculative pass");
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+
+		try {
+			Files.deleteIfExists(output.toPath());
+		} catch (IOException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to delete the result of the speculative pass");
+		}
+	}
+}
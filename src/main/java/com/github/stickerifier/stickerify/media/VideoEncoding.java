@@ -0,0 +1,49 @@
+package com.github.stickerifier.stickerify.media;
+
+import com.github.stickerifier.stickerify.config.Environment;
+
+import java.util.Locale;
+
+/**
+ * The strategy used to encode videos into VP9.
+ */
+public enum VideoEncoding {
+
+	/**
+	 * An analysis pass followed by an encode targeting the average bitrate: the best quality for the size limit.
+	 */
+	TWO_PASS,
+
+	/**
+	 * A single constrained-quality encode capped by the maximum bitrate: about half the encoding time,
+	 * at the cost of a slightly lower quality.
+	 */
+	SINGLE_PASS;
+
+	/**
+	 * @return the name of the encoding as used in the {@code VIDEO_ENCODING} environment variable
+	 */
+	String description() {
+		return name().toLowerCase(Locale.ROOT).replace('_', '-');
+	}
+
+	/**
+	 * Reads the encoding to use by default from the {@code VIDEO_ENCODING} environment variable,
+	 * either {@code two-pass} (the default) or {@code single-pass}.
+	 *
+	 * @return the default encoding
+	 * @throws IllegalArgumentException if the value isn't a valid encoding
+	 */
+	public static VideoEncoding fromEnvironment() {
+		var value = Environment.getString("VIDEO_ENCODING");
+		if (value == null) {
+			return TWO_PASS;
+		}
+
+		try {
+			return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("The environment variable VIDEO_ENCODING must be either two-pass or single-pass (was " + value + ")", e);
+		}
+	}
+}
@@ -0,0 +1,723 @@
+package com.github.stickerifier.stickerify.media;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Utility class to encode images into lossless WebP (VP8L) without external processes.
+ * <p>
+ * The encoder applies the subtract-green and the predictor transforms, choosing the predictor of each tile
+ * by the magnitude of its residuals, then it compresses the residuals with backward references to the previous pixel,
+ * the pixel above and the last position sharing the same hash, and with a single group of prefix codes.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9649">WebP image format</a>
+ */
+final class WebpEncoder {
+
+	private static final int VP8L_SIGNATURE = 0x2F;
+	private static final int VP8L_VERSION = 0;
+	private static final int MAX_DIMENSION = 1 << 14;
+
+	private static final int PREDICTOR_TRANSFORM = 0;
+	private static final int SUBTRACT_GREEN_TRANSFORM = 2;
+	private static final int PREDICTOR_TILE_BITS = 5;
+	private static final int PREDICTOR_MODES = 14;
+
+	private static final int NUM_LITERAL_CODES = 256;
+	private static final int NUM_LENGTH_CODES = 24;
+	private static final int NUM_DISTANCE_CODES = 40;
+	private static final int NUM_PLANE_CODES = 120;
+	private static final int MAX_CODE_LENGTH = 15;
+
+	private static final int NUM_CODE_LENGTH_CODES = 19;
+	private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+	private static final int[] CODE_LENGTH_CODE_ORDER = { 17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+	private static final int REPEAT_PREVIOUS_CODE = 16;
+	private static final int REPEAT_ZEROS_CODE = 17;
+	private static final int REPEAT_MANY_ZEROS_CODE = 18;
+	private static final int INITIAL_PREVIOUS_CODE_LENGTH = 8;
+
+	private static final int MIN_MATCH_LENGTH = 3;
+	private static final int MAX_MATCH_LENGTH = 4096;
+	private static final int MAX_DISTANCE = (1 << 20) - NUM_PLANE_CODES;
+	private static final int HASH_BITS = 16;
+
+	private static final int OPAQUE_BLACK = 0xFF000000;
+
+	/**
+	 * Encodes the image into a lossless WebP file.
+	 *
+	 * @param pixels the pixels of the image in ARGB order, row by row
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @return the content of the WebP file
+	 * @throws IllegalArgumentException if the dimensions are not supported by the format
+	 */
+	static byte[] encodeLossless(int[] pixels, int width, int height) {
+		if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION || pixels.length != width * height) {
+			throw new IllegalArgumentException("Invalid image dimensions " + width + "x" + height);
+		}
+
+		var argb = pixels.clone();
+		var hasAlpha = Arrays.stream(argb).anyMatch(pixel -> pixel >>> 24 != 0xFF);
+
+		var writer = new BitWriter(argb.length);
+		writer.write(VP8L_SIGNATURE, 8);
+		writer.write(width - 1, 14);
+		writer.write(height - 1, 14);
+		writer.write(hasAlpha ? 1 : 0, 1);
+		writer.write(VP8L_VERSION, 3);
+
+		writer.write(1, 1);
+		writer.write(SUBTRACT_GREEN_TRANSFORM, 2);
+		subtractGreen(argb);
+
+		writer.write(1, 1);
+		writer.write(PREDICTOR_TRANSFORM, 2);
+		writer.write(PREDICTOR_TILE_BITS - 2, 3);
+		var tilesWidth = subSampleSize(width, PREDICTOR_TILE_BITS);
+		var tilesHeight = subSampleSize(height, PREDICTOR_TILE_BITS);
+		var modes = choosePredictors(argb, width, height);
+		writeImage(writer, toModesImage(modes), tilesWidth, false);
+		var residuals = applyPredictors(argb, width, height, modes, tilesWidth);
+
+		writer.write(0, 1);
+		writeImage(writer, residuals, width, true);
+
+		return toRiff(writer.toByteArray());
+	}
+
+	private static void subtractGreen(int[] argb) {
+		for (int i = 0; i < argb.length; i++) {
+			var pixel = argb[i];
+			var green = pixel >>> 8 & 0xFF;
+			var red = (pixel >>> 16) - green & 0xFF;
+			var blue = pixel - green & 0xFF;
+			argb[i] = pixel & 0xFF00FF00 | red << 16 | blue;
+		}
+	}
+
+	private static int subSampleSize(int size, int bits) {
+		return (size + (1 << bits) - 1) >> bits;
+	}
+
+	/**
+	 * Picks the predictor of each tile minimizing the sum of the absolute values of its residuals.
+	 */
+	private static int[] choosePredictors(int[] argb, int width, int height) {
+		var tilesWidth = subSampleSize(width, PREDICTOR_TILE_BITS);
+		var tilesHeight = subSampleSize(height, PREDICTOR_TILE_BITS);
+		var modes = new int[tilesWidth * tilesHeight];
+
+		for (int tileY = 0; tileY < tilesHeight; tileY++) {
+			for (int tileX = 0; tileX < tilesWidth; tileX++) {
+				var bestMode = 0;
+				var bestCost = Long.MAX_VALUE;
+
+				for (int mode = 0; mode < PREDICTOR_MODES; mode++) {
+					var cost = 0L;
+					var startY = tileY << PREDICTOR_TILE_BITS;
+					var endY = Math.min(startY + (1 << PREDICTOR_TILE_BITS), height);
+					var startX = tileX << PREDICTOR_TILE_BITS;
+					var endX = Math.min(startX + (1 << PREDICTOR_TILE_BITS), width);
+
+					for (int y = startY; y < endY && cost < bestCost; y++) {
+						for (int x = startX; x < endX; x++) {
+							cost += residualCost(subtractPixels(argb[y * width + x], predict(argb, width, x, y, mode)));
+						}
+					}
+
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestMode = mode;
+					}
+				}
+
+				modes[tileY * tilesWidth + tileX] = bestMode;
+			}
+		}
+
+		return modes;
+	}
+
+	private static int residualCost(int difference) {
+		return Math.abs((byte) (difference >>> 24)) + Math.abs((byte) (difference >>> 16))
+				+ Math.abs((byte) (difference >>> 8)) + Math.abs((byte) difference);
+	}
+
+	private static int[] toModesImage(int[] modes) {
+		var image = new int[modes.length];
+		for (int i = 0; i < modes.length; i++) {
+			image[i] = OPAQUE_BLACK | modes[i] << 8;
+		}
+
+		return image;
+	}
+
+	private static int[] applyPredictors(int[] argb, int width, int height, int[] modes, int tilesWidth) {
+		var residuals = new int[argb.length];
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				var mode = modes[(y >> PREDICTOR_TILE_BITS) * tilesWidth + (x >> PREDICTOR_TILE_BITS)];
+				var index = y * width + x;
+				residuals[index] = subtractPixels(argb[index], predict(argb, width, x, y, mode));
+			}
+		}
+
+		return residuals;
+	}
+
+	/**
+	 * Predicts the pixel from its already decoded neighbours: the first pixel is predicted as opaque black,
+	 * the first row from the left pixel and the first column from the top pixel.
+	 * For the rightmost column, the pixel following the top one is the first pixel of the current row.
+	 */
+	private static int predict(int[] argb, int width, int x, int y, int mode) {
+		var index = y * width + x;
+		if (y == 0) {
+			return x == 0 ? OPAQUE_BLACK : argb[index - 1];
+		}
+		if (x == 0) {
+			return argb[index - width];
+		}
+
+		var left = argb[index - 1];
+		var top = argb[index - width];
+		var topRight = argb[index - width + 1];
+		var topLeft = argb[index - width - 1];
+
+		return switch (mode) {
+			case 0 -> OPAQUE_BLACK;
+			case 1 -> left;
+			case 2 -> top;
+			case 3 -> topRight;
+			case 4 -> topLeft;
+			case 5 -> average(average(left, topRight), top);
+			case 6 -> average(left, topLeft);
+			case 7 -> average(left, top);
+			case 8 -> average(topLeft, top);
+			case 9 -> average(top, topRight);
+			case 10 -> average(average(left, topLeft), average(top, topRight));
+			case 11 -> select(left, top, topLeft);
+			case 12 -> clampAddSubtractFull(left, top, topLeft);
+			case 13 -> clampAddSubtractHalf(average(left, top), topLeft);
+			default -> throw new IllegalArgumentException("Invalid predictor mode " + mode);
+		};
+	}
+
+	private static int average(int first, int second) {
+		return (((first ^ second) & 0xFEFEFEFE) >>> 1) + (first & second);
+	}
+
+	private static int select(int left, int top, int topLeft) {
+		var predictLeft = 0;
+		var predictTop = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			var l = left >>> shift & 0xFF;
+			var t = top >>> shift & 0xFF;
+			var tl = topLeft >>> shift & 0xFF;
+			predictLeft += Math.abs(t - tl);
+			predictTop += Math.abs(l - tl);
+		}
+
+		return predictLeft < predictTop ? left : top;
+	}
+
+	private static int clampAddSubtractFull(int first, int second, int third) {
+		var result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			var value = (first >>> shift & 0xFF) + (second >>> shift & 0xFF) - (third >>> shift & 0xFF);
+			result |= clamp(value) << shift;
+		}
+
+		return result;
+	}
+
+	private static int clampAddSubtractHalf(int first, int second) {
+		var result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			var a = first >>> shift & 0xFF;
+			var b = second >>> shift & 0xFF;
+			result |= clamp(a + (a - b) / 2) << shift;
+		}
+
+		return result;
+	}
+
+	private static int clamp(int value) {
+		return Math.clamp(value, 0, 255);
+	}
+
+	private static int subtractPixels(int first, int second) {
+		var alphaGreen = 0x00FF00FF + (first & 0xFF00FF00) - (second & 0xFF00FF00);
+		var redBlue = 0xFF00FF00 + (first & 0x00FF00FF) - (second & 0x00FF00FF);
+
+		return alphaGreen & 0xFF00FF00 | redBlue & 0x00FF00FF;
+	}
+
+	/**
+	 * Writes an entropy-coded image: no color cache, a single group of prefix codes and, for the main image,
+	 * backward references.
+	 */
+	private static void writeImage(BitWriter writer, int[] argb, int width, boolean isMainImage) {
+		writer.write(0, 1);
+		if (isMainImage) {
+			writer.write(0, 1);
+		}
+
+		var tokens = isMainImage ? findBackwardReferences(argb, width) : Tokens.literals(argb);
+
+		var green = new int[NUM_LITERAL_CODES + NUM_LENGTH_CODES];
+		var red = new int[NUM_LITERAL_CODES];
+		var blue = new int[NUM_LITERAL_CODES];
+		var alpha = new int[NUM_LITERAL_CODES];
+		var distance = new int[NUM_DISTANCE_CODES];
+
+		for (int i = 0; i < tokens.size; i++) {
+			var length = tokens.lengths[i];
+			var value = tokens.values[i];
+			if (length == 0) {
+				green[value >>> 8 & 0xFF]++;
+				red[value >>> 16 & 0xFF]++;
+				blue[value & 0xFF]++;
+				alpha[value >>> 24]++;
+			} else {
+				green[NUM_LITERAL_CODES + prefixCode(length)]++;
+				distance[prefixCode(value)]++;
+			}
+		}
+
+		var greenCode = PrefixCode.of(green, MAX_CODE_LENGTH);
+		var redCode = PrefixCode.of(red, MAX_CODE_LENGTH);
+		var blueCode = PrefixCode.of(blue, MAX_CODE_LENGTH);
+		var alphaCode = PrefixCode.of(alpha, MAX_CODE_LENGTH);
+		var distanceCode = PrefixCode.of(distance, MAX_CODE_LENGTH);
+
+		for (var code : new PrefixCode[] { greenCode, redCode, blueCode, alphaCode, distanceCode }) {
+			writePrefixCode(writer, code);
+		}
+
+		for (int i = 0; i < tokens.size; i++) {
+			var length = tokens.lengths[i];
+			var value = tokens.values[i];
+			if (length == 0) {
+				greenCode.write(writer, value >>> 8 & 0xFF);
+				redCode.write(writer, value >>> 16 & 0xFF);
+				blueCode.write(writer, value & 0xFF);
+				alphaCode.write(writer, value >>> 24);
+			} else {
+				greenCode.write(writer, NUM_LITERAL_CODES + prefixCode(length));
+				writer.write(extraBitsValue(length), extraBitsCount(length));
+				distanceCode.write(writer, prefixCode(value));
+				writer.write(extraBitsValue(value), extraBitsCount(value));
+			}
+		}
+	}
+
+	/**
+	 * Replaces runs of pixels already seen with backward references, greedily picking the longest match among
+	 * the previous pixel, the pixel above and the last position whose next two pixels share the same hash.
+	 */
+	private static Tokens findBackwardReferences(int[] argb, int width) {
+		var tokens = new Tokens(argb.length);
+		var hashTable = new int[1 << HASH_BITS];
+		Arrays.fill(hashTable, -1);
+
+		var position = 0;
+		while (position < argb.length) {
+			var bestLength = 0;
+			var bestDistance = 0;
+
+			for (var candidate : new int[] { position - width, position - 1, hashCandidate(argb, hashTable, position) }) {
+				if (candidate < 0 || candidate >= position || position - candidate > MAX_DISTANCE) {
+					continue;
+				}
+
+				var length = matchLength(argb, candidate, position);
+				if (length > bestLength) {
+					bestLength = length;
+					bestDistance = position - candidate;
+				}
+			}
+
+			if (bestLength >= MIN_MATCH_LENGTH) {
+				tokens.addCopy(bestLength, toDistanceCode(bestDistance, width));
+			} else {
+				bestLength = 1;
+				tokens.addLiteral(argb[position]);
+			}
+
+			for (var end = position + bestLength; position < end; position++) {
+				if (position + 1 < argb.length) {
+					hashTable[hash(argb[position], argb[position + 1])] = position;
+				}
+			}
+		}
+
+		return tokens;
+	}
+
+	private static int hashCandidate(int[] argb, int[] hashTable, int position) {
+		return position + 1 < argb.length ? hashTable[hash(argb[position], argb[position + 1])] : -1;
+	}
+
+	private static int hash(int first, int second) {
+		return (int) (((first * 0x9E3779B1L) ^ (second * 0x85EBCA77L)) * 0xC2B2AE3DL >>> 16) & ((1 << HASH_BITS) - 1);
+	}
+
+	private static int matchLength(int[] argb, int candidate, int position) {
+		var maxLength = Math.min(MAX_MATCH_LENGTH, argb.length - position);
+		var length = 0;
+		while (length < maxLength && argb[candidate + length] == argb[position + length]) {
+			length++;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Maps the distance to its code: the pixel above and the previous pixel have dedicated short codes,
+	 * every other distance is shifted past the codes reserved for the neighbourhood of the pixel.
+	 */
+	private static int toDistanceCode(int distance, int width) {
+		if (distance == width) {
+			return 1;
+		}
+		if (distance == 1) {
+			return 2;
+		}
+
+		return distance + NUM_PLANE_CODES;
+	}
+
+	private static int prefixCode(int value) {
+		var distance = value - 1;
+		if (distance < 4) {
+			return distance;
+		}
+
+		var highestBit = 31 - Integer.numberOfLeadingZeros(distance);
+		var secondHighestBit = distance >>> (highestBit - 1) & 1;
+
+		return 2 * highestBit + secondHighestBit;
+	}
+
+	private static int extraBitsCount(int value) {
+		var distance = value - 1;
+
+		return distance < 4 ? 0 : 30 - Integer.numberOfLeadingZeros(distance);
+	}
+
+	private static int extraBitsValue(int value) {
+		return value - 1 & (1 << extraBitsCount(value)) - 1;
+	}
+
+	/**
+	 * Writes the prefix code either as a simple code, when it has at most two symbols fitting in a byte,
+	 * or as a normal code whose code lengths are themselves run-length and prefix coded.
+	 */
+	private static void writePrefixCode(BitWriter writer, PrefixCode code) {
+		var symbols = code.symbols();
+		if (symbols.length <= 2 && Arrays.stream(symbols).allMatch(symbol -> symbol < NUM_LITERAL_CODES)) {
+			writer.write(1, 1);
+			writer.write(Math.max(symbols.length, 1) - 1, 1);
+
+			var first = symbols.length == 0 ? 0 : symbols[0];
+			if (first < 2) {
+				writer.write(0, 1);
+				writer.write(first, 1);
+			} else {
+				writer.write(1, 1);
+				writer.write(first, 8);
+			}
+
+			if (symbols.length == 2) {
+				writer.write(symbols[1], 8);
+			}
+
+			return;
+		}
+
+		writer.write(0, 1);
+
+		var tokens = new int[code.lengths().length];
+		var extraBits = new int[code.lengths().length];
+		var tokensCount = encodeCodeLengths(code.lengths(), tokens, extraBits);
+
+		var histogram = new int[NUM_CODE_LENGTH_CODES];
+		for (int i = 0; i < tokensCount; i++) {
+			histogram[tokens[i]]++;
+		}
+
+		var codeLengthCode = PrefixCode.of(histogram, MAX_CODE_LENGTH_CODE_LENGTH);
+
+		var codesCount = NUM_CODE_LENGTH_CODES;
+		while (codesCount > 4 && codeLengthCode.lengths()[CODE_LENGTH_CODE_ORDER[codesCount - 1]] == 0) {
+			codesCount--;
+		}
+
+		writer.write(codesCount - 4, 4);
+		for (int i = 0; i < codesCount; i++) {
+			writer.write(codeLengthCode.lengths()[CODE_LENGTH_CODE_ORDER[i]], 3);
+		}
+
+		writer.write(0, 1);
+
+		for (int i = 0; i < tokensCount; i++) {
+			codeLengthCode.write(writer, tokens[i]);
+			switch (tokens[i]) {
+				case REPEAT_PREVIOUS_CODE -> writer.write(extraBits[i], 2);
+				case REPEAT_ZEROS_CODE -> writer.write(extraBits[i], 3);
+				case REPEAT_MANY_ZEROS_CODE -> writer.write(extraBits[i], 7);
+				default -> {}
+			}
+		}
+	}
+
+	private static int encodeCodeLengths(int[] lengths, int[] tokens, int[] extraBits) {
+		var count = 0;
+		var previous = INITIAL_PREVIOUS_CODE_LENGTH;
+		var position = 0;
+
+		while (position < lengths.length) {
+			var value = lengths[position];
+			var run = 1;
+			while (position + run < lengths.length && lengths[position + run] == value) {
+				run++;
+			}
+			position += run;
+
+			if (value == 0) {
+				while (run > 0) {
+					if (run >= 11) {
+						var repeat = Math.min(run, 138);
+						tokens[count] = REPEAT_MANY_ZEROS_CODE;
+						extraBits[count++] = repeat - 11;
+						run -= repeat;
+					} else if (run >= 3) {
+						var repeat = Math.min(run, 10);
+						tokens[count] = REPEAT_ZEROS_CODE;
+						extraBits[count++] = repeat - 3;
+						run -= repeat;
+					} else {
+						tokens[count++] = 0;
+						run--;
+					}
+				}
+
+				continue;
+			}
+
+			if (value != previous) {
+				tokens[count++] = value;
+				previous = value;
+				run--;
+			}
+
+			while (run > 0) {
+				if (run >= 3) {
+					var repeat = Math.min(run, 6);
+					tokens[count] = REPEAT_PREVIOUS_CODE;
+					extraBits[count++] = repeat - 3;
+					run -= repeat;
+				} else {
+					tokens[count++] = value;
+					run--;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private static byte[] toRiff(byte[] bitstream) {
+		var padding = bitstream.length & 1;
+		var riff = new byte[20 + bitstream.length + padding];
+
+		writeTag(riff, 0, "RIFF");
+		writeLittleEndian(riff, 4, 12 + bitstream.length + padding);
+		writeTag(riff, 8, "WEBP");
+		writeTag(riff, 12, "VP8L");
+		writeLittleEndian(riff, 16, bitstream.length);
+		System.arraycopy(bitstream, 0, riff, 20, bitstream.length);
+
+		return riff;
+	}
+
+	private static void writeTag(byte[] destination, int offset, String tag) {
+		for (int i = 0; i < 4; i++) {
+			destination[offset + i] = (byte) tag.charAt(i);
+		}
+	}
+
+	private static void writeLittleEndian(byte[] destination, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			destination[offset + i] = (byte) (value >>> (8 * i));
+		}
+	}
+
+	/**
+	 * The sequence of literal pixels and backward references making up an image:
+	 * a literal has length 0 and its ARGB value, a backward reference has its length and its distance code.
+	 */
+	private static final class Tokens {
+		private final int[] lengths;
+		private final int[] values;
+		private int size;
+
+		private Tokens(int capacity) {
+			lengths = new int[capacity];
+			values = new int[capacity];
+		}
+
+		private static Tokens literals(int[] argb) {
+			var tokens = new Tokens(argb.length);
+			for (var pixel : argb) {
+				tokens.addLiteral(pixel);
+			}
+
+			return tokens;
+		}
+
+		private void addLiteral(int pixel) {
+			values[size++] = pixel;
+		}
+
+		private void addCopy(int length, int distanceCode) {
+			lengths[size] = length;
+			values[size++] = distanceCode;
+		}
+	}
+
+	/**
+	 * A canonical prefix code: a code made of a single symbol takes no bits at all.
+	 */
+	private record PrefixCode(int[] lengths, int[] codes, int[] symbols) {
+		private static PrefixCode of(int[] histogram, int maxLength) {
+			var symbols = IntStream.range(0, histogram.length).filter(symbol -> histogram[symbol] > 0).toArray();
+			var lengths = buildCodeLengths(histogram, symbols, maxLength);
+
+			return new PrefixCode(lengths, buildCodes(lengths, maxLength), symbols);
+		}
+
+		private void write(BitWriter writer, int symbol) {
+			if (symbols.length > 1) {
+				writer.write(codes[symbol], lengths[symbol]);
+			}
+		}
+
+		/**
+		 * Builds a Huffman tree, flattening the histogram until the deepest leaf fits in {@code maxLength} bits.
+		 */
+		private static int[] buildCodeLengths(int[] histogram, int[] symbols, int maxLength) {
+			var lengths = new int[histogram.length];
+			if (symbols.length == 1) {
+				lengths[symbols[0]] = 1;
+			}
+			if (symbols.length <= 1) {
+				return lengths;
+			}
+
+			for (long minCount = 1; ; minCount *= 2) {
+				var parents = new int[2 * symbols.length - 1];
+				var queue = new PriorityQueue<long[]>((first, second) -> first[0] != second[0] ? Long.compare(first[0], second[0]) : Long.compare(first[1], second[1]));
+				for (int i = 0; i < symbols.length; i++) {
+					queue.add(new long[] { Math.max(histogram[symbols[i]], minCount), i });
+				}
+
+				for (int node = symbols.length; queue.size() > 1; node++) {
+					var first = queue.poll();
+					var second = queue.poll();
+					parents[(int) first[1]] = node;
+					parents[(int) second[1]] = node;
+					queue.add(new long[] { first[0] + second[0], node });
+				}
+
+				var root = parents.length - 1;
+				var depths = new int[parents.length];
+				for (int node = root - 1; node >= 0; node--) {
+					depths[node] = depths[parents[node]] + 1;
+				}
+
+				var maxDepth = 0;
+				for (int i = 0; i < symbols.length; i++) {
+					lengths[symbols[i]] = depths[i];
+					maxDepth = Math.max(maxDepth, depths[i]);
+				}
+
+				if (maxDepth <= maxLength) {
+					return lengths;
+				}
+			}
+		}
+
+		private static int[] buildCodes(int[] lengths, int maxLength) {
+			var lengthsCount = new int[maxLength + 1];
+			for (var length : lengths) {
+				if (length > 0) {
+					lengthsCount[length]++;
+				}
+			}
+
+			var nextCode = new int[maxLength + 1];
+			var code = 0;
+			for (int bits = 1; bits <= maxLength; bits++) {
+				code = (code + lengthsCount[bits - 1]) << 1;
+				nextCode[bits] = code;
+			}
+
+			var codes = new int[lengths.length];
+			for (int symbol = 0; symbol < lengths.length; symbol++) {
+				var length = lengths[symbol];
+				if (length > 0) {
+					codes[symbol] = Integer.reverse(nextCode[length]++) >>> (32 - length);
+				}
+			}
+
+			return codes;
+		}
+	}
+
+	/**
+	 * Packs values into bytes starting from the least significant bit, as required by the format.
+	 */
+	private static final class BitWriter {
+		private byte[] buffer;
+		private int size;
+		private long bits;
+		private int bitsCount;
+
+		private BitWriter(int initialCapacity) {
+			buffer = new byte[Math.max(initialCapacity, 64)];
+		}
+
+		private void write(int value, int count) {
+			bits |= (long) value << bitsCount;
+			bitsCount += count;
+
+			while (bitsCount >= 8) {
+				if (size == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+
+				buffer[size++] = (byte) bits;
+				bits >>>= 8;
+				bitsCount -= 8;
+			}
+		}
+
+		private byte[] toByteArray() {
+			if (bitsCount > 0) {
+				write(0, 8 - bitsCount);
+			}
+
+			return Arrays.copyOf(buffer, size);
+		}
+	}
+
+	private WebpEncoder() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,18 @@
+package com.github.stickerifier.stickerify.process;
+
+import java.time.Duration;
+
+/**
+ * Receives the CPU time spent by the processes run on behalf of someone.
+ *
+ * @see ProcessHelper#CPU_METER
+ */
+@FunctionalInterface
+public interface CpuMeter {
+	/**
+	 * Called once a process has terminated.
+	 *
+	 * @param cpuTime the CPU time spent by the process
+	 */
+	void charge(Duration cpuTime);
+}
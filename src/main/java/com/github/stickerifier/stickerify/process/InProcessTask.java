@@ -0,0 +1,22 @@
+package com.github.stickerifier.stickerify.process;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * CPU-heavy work run by the bot itself rather than by an external command, such as an image encode.
+ *
+ * @param <T> the type of the result
+ * @see ProcessHelper#executeInProcess(long, InProcessTask)
+ */
+@FunctionalInterface
+public interface InProcessTask<T> {
+	/**
+	 * Runs the work.
+	 *
+	 * @return the result of the work
+	 * @throws IOException if the work failed reading or writing its data
+	 */
+	@Nullable T run() throws IOException;
+}
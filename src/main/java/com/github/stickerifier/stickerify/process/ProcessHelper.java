@@ -2,26 +2,51 @@ package com.github.stickerifier.stickerify.process;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.exception.ProcessAbortedException;
 import com.github.stickerifier.stickerify.exception.ProcessException;
 import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import org.jspecify.annotations.Nullable;
 import org.slf4j.event.Level;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.StringJoiner;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 public final class ProcessHelper {
 
 	private static final StructuredLogger LOGGER = new StructuredLogger(ProcessHelper.class);
-	private static final Semaphore SEMAPHORE = new Semaphore(getMaxConcurrentProcesses());
+	private static final ProcessScheduler SCHEDULER = ProcessScheduler.fromEnvironment();
+	private static final Duration TIMEOUT = Duration.ofMinutes(1);
+	private static final Duration STALL_TIMEOUT = Environment.getSeconds("PROCESS_STALL_TIMEOUT", Duration.ofSeconds(15));
+	private static final long POLL_INTERVAL_MILLIS = 500;
+	/**
+	 * The first samples of a process are taken sooner, so that short processes get their CPU time measured too.
+	 */
+	private static final long FIRST_POLL_INTERVAL_MILLIS = 5;
+	private static final String PROGRESS_OUTPUT = "pipe:1";
+
+	/**
+	 * The meter charged with the CPU time of the processes run by the current thread, if bound.
+	 */
+	public static final ScopedValue<CpuMeter> CPU_METER = ScopedValue.newInstance();
 
 	/**
 	 * Executes passed-in command and ensures it completed successfully.
-	 * Concurrency is limited by a process-wide semaphore sized by the {@code CONCURRENT_PROCESSES}
-	 * environment variable (defaults to 4).
+	 * Concurrency is limited by the {@link ProcessScheduler}, which runs probes, image encodes and video encodes
+	 * in separate lanes.
+	 * A command is killed after 1 minute, or as soon as it spends no CPU time for as long as
+	 * the {@code PROCESS_STALL_TIMEOUT} environment variable says (defaults to 15 seconds, 0 disables the check).
 	 *
 	 * @param command the command to be executed
 	 * @return the standard output of the command
@@ -29,22 +54,197 @@ public final class ProcessHelper {
 	 * <ul>
 	 *     <li>the command was unsuccessful
 	 *     <li>the waiting time elapsed
+	 *     <li>the command stalled
 	 *     <li>an unexpected failure happened running the command
 	 *     <li>an unexpected failure happened reading the output
 	 * </ul>
 	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
 	 */
 	public static String executeCommand(final List<String> command) throws ProcessException, InterruptedException {
-		SEMAPHORE.acquire();
+		return executeCommand(command, null);
+	}
+
+	/**
+	 * Executes passed-in command feeding its standard input with the content of {@code input},
+	 * and ensures it completed successfully.
+	 * The command is expected to read its input from {@code pipe:0}; if it stops reading before the end,
+	 * the remaining content is discarded.
+	 *
+	 * @param command the command to be executed
+	 * @param input the content to write into the standard input of the command, it won't be closed
+	 * @return the standard output of the command
+	 * @throws ProcessException either if:
+	 * <ul>
+	 *     <li>the command was unsuccessful
+	 *     <li>the waiting time elapsed
+	 *     <li>an unexpected failure happened running the command
+	 *     <li>an unexpected failure happened reading the output
+	 * </ul>
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 * @see #executeCommand(List)
+	 */
+	public static String executeCommand(final List<String> command, final @Nullable ReadableByteChannel input) throws ProcessException, InterruptedException {
+		return execute(command, input, new TextOutput());
+	}
+
+	/**
+	 * Executes passed-in command and ensures it completed successfully, capturing its binary standard output.
+	 * The command is expected to write its result into {@code pipe:1}, and to read its input from {@code pipe:0}
+	 * if {@code input} is not {@code null}.
+	 *
+	 * @param command the command to be executed
+	 * @param input the content to write into the standard input of the command, it won't be closed
+	 * @param maxOutputBytes the maximum size of the output
+	 * @return the standard output of the command
+	 * @throws ProcessException either if:
+	 * <ul>
+	 *     <li>the command was unsuccessful
+	 *     <li>the waiting time elapsed
+	 *     <li>the output exceeded {@code maxOutputBytes}
+	 *     <li>an unexpected failure happened running the command
+	 *     <li>an unexpected failure happened reading the output
+	 * </ul>
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 * @see #executeCommand(List, ReadableByteChannel)
+	 */
+	public static byte[] executeCommandCapturingOutput(final List<String> command, final @Nullable ReadableByteChannel input, final int maxOutputBytes) throws ProcessException, InterruptedException {
+		return execute(command, input, new BinaryOutput(maxOutputBytes));
+	}
+
+	/**
+	 * Executes passed-in ffmpeg command and ensures it completed successfully, reporting its progress while it runs.
+	 * The progress is written by ffmpeg into {@code pipe:1}, so the command must not write its result there.
+	 *
+	 * @param command the ffmpeg command to be executed
+	 * @param listener the listener receiving the progress reports, which can abort the command
+	 * @return the last progress report
+	 * @throws ProcessAbortedException if the listener aborted the command
+	 * @throws ProcessException either if:
+	 * <ul>
+	 *     <li>the command was unsuccessful
+	 *     <li>the waiting time elapsed
+	 *     <li>the command stalled
+	 *     <li>an unexpected failure happened running the command
+	 *     <li>an unexpected failure happened reading the output
+	 * </ul>
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 * @see #executeCommand(List)
+	 */
+	public static Progress executeCommandWithProgress(final List<String> command, final ProgressListener listener) throws ProcessException, InterruptedException {
+		return executeCommandWithProgress(command, listener, () -> {});
+	}
+
+	/**
+	 * Executes passed-in ffmpeg command and ensures it completed successfully, reporting its progress while it runs,
+	 * and letting the caller know when the command got its permit from the {@link ProcessScheduler}.
+	 *
+	 * @param command the ffmpeg command to be executed
+	 * @param listener the listener receiving the progress reports, which can abort the command
+	 * @param onStarted the action run on the current thread once the command holds its permit, right before it starts
+	 * @return the last progress report
+	 * @throws ProcessAbortedException if the listener aborted the command
+	 * @throws ProcessException if the command failed, see {@link #executeCommandWithProgress(List, ProgressListener)}
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 */
+	public static Progress executeCommandWithProgress(final List<String> command, final ProgressListener listener, final Runnable onStarted) throws ProcessException, InterruptedException {
+		var progressCommand = new ArrayList<String>(command.size() + 3);
+		progressCommand.add(command.getFirst());
+		progressCommand.addAll(List.of("-progress", PROGRESS_OUTPUT, "-nostats"));
+		progressCommand.addAll(command.subList(1, command.size()));
+
+		try (var _ = SCHEDULER.acquire(ProcessScheduler.Job.of(progressCommand))) {
+			onStarted.run();
+			return run(progressCommand, null, new ProgressOutput(listener));
+		}
+	}
+
+	/**
+	 * Executes passed-in command only if it doesn't take capacity from anyone else, that is
+	 * if its lane has enough free permits and no other command is waiting for them.
+	 * Interrupting the current thread kills the process.
+	 *
+	 * @param command the command to be executed
+	 * @return the standard output of the command, or {@code null} if the command was not executed
+	 * because no permit was idle
+	 * @throws ProcessException either if:
+	 * <ul>
+	 *     <li>the command was unsuccessful
+	 *     <li>the waiting time elapsed
+	 *     <li>an unexpected failure happened running the command
+	 *     <li>an unexpected failure happened reading the output
+	 * </ul>
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 * @see #executeCommand(List)
+	 */
+	public static @Nullable String executeCommandIfIdle(final List<String> command) throws ProcessException, InterruptedException {
+		try (var permit = SCHEDULER.tryAcquire(ProcessScheduler.Job.of(command))) {
+			return permit == null ? null : run(command, null, new TextOutput());
+		}
+	}
+
+	/**
+	 * Runs an image encode done by the bot itself, waiting for a permit of the image lane of the {@link ProcessScheduler}
+	 * like the image encodes done by external commands, so that in-process encodes are bounded just as much.
+	 *
+	 * @param cost the estimated cost of the task, such as the number of pixels of the image
+	 * @param task the task to run
+	 * @param <T> the type of the result
+	 * @return the result of the task
+	 * @throws IOException if the task failed
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the permit
+	 */
+	public static <T> @Nullable T executeInProcess(final long cost, final InProcessTask<T> task) throws IOException, InterruptedException {
+		try (var _ = SCHEDULER.acquire(new ProcessScheduler.Job(ProcessScheduler.Lane.IMAGE, 1, cost))) {
+			return task.run();
+		}
+	}
+
+	/**
+	 * Executes passed-in command and ensures it completed successfully, killing it as soon as
+	 * it spends no CPU time for {@code stallTimeout}.
+	 *
+	 * @param command the command to be executed
+	 * @param stallTimeout how long the command can spend no CPU time before it's considered stalled
+	 * @return the standard output of the command
+	 * @throws ProcessException if the command failed, see {@link #executeCommand(List)}
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the command to finish
+	 */
+	static String executeCommandWithStallTimeout(final List<String> command, final Duration stallTimeout) throws ProcessException, InterruptedException {
+		try (var _ = SCHEDULER.acquire(ProcessScheduler.Job.of(command))) {
+			return run(command, null, new TextOutput(), stallTimeout);
+		}
+	}
+
+	private static <T> T execute(final List<String> command, final @Nullable ReadableByteChannel input, final OutputCollector<T> standardOutput) throws ProcessException, InterruptedException {
+		try (var _ = SCHEDULER.acquire(ProcessScheduler.Job.of(command))) {
+			return run(command, input, standardOutput);
+		}
+	}
+
+	private static <T> T run(final List<String> command, final @Nullable ReadableByteChannel input, final OutputCollector<T> standardOutput) throws ProcessException, InterruptedException {
+		return run(command, input, standardOutput, STALL_TIMEOUT);
+	}
 
+	private static <T> T run(final List<String> command, final @Nullable ReadableByteChannel input, final OutputCollector<T> standardOutput, final Duration stallTimeout) throws ProcessException, InterruptedException {
 		try (var process = new ProcessBuilder(command).start()) {
-			var standardOutput = new StringJoiner("\n");
+			var inputThread = input == null ? null : Thread.ofVirtual().start(() -> {
+				try (var writer = process.getOutputStream()) {
+					Channels.newInputStream(input).transferTo(writer);
+				} catch (IOException e) {
+					LOGGER.at(Level.DEBUG).setCause(e).log("The process stopped reading its input");
+				}
+			});
+
 			var outputThread = Thread.ofVirtual().start(() -> {
-				try (var reader = process.inputReader(UTF_8)) {
-					reader.lines().forEach(standardOutput::add);
+				try (var stream = process.getInputStream()) {
+					standardOutput.collect(stream);
 				} catch (IOException | UncheckedIOException e) {
 					LOGGER.at(Level.ERROR).setCause(e).log("An error occurred using process output reader");
 				}
+
+				if (standardOutput.aborted()) {
+					process.destroyForcibly();
+				}
 			});
 
 			var standardError = new StringJoiner("\n");
@@ -58,40 +258,280 @@ public final class ProcessHelper {
 
 			var commandName = command.getFirst();
 
-			var finished = process.waitFor(1, TimeUnit.MINUTES);
-			if (!finished) {
+			var watch = new Watch(process, stallTimeout);
+			Termination termination;
+			try {
+				termination = watch.awaitTermination();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				throw e;
+			} finally {
+				if (CPU_METER.isBound()) {
+					CPU_METER.get().charge(watch.cpuTime());
+				}
+			}
+
+			if (termination != Termination.EXITED) {
 				process.destroyForcibly();
-				outputThread.join();
-				errorThread.join();
-				LOGGER.at(Level.WARN).log("The command {} timed out after 1m: {}", commandName, standardError.toString());
-				throw new ProcessException("The command {} timed out after 1m", commandName);
 			}
 
+			joinInputThread(inputThread);
 			outputThread.join();
 			errorThread.join();
 
+			switch (termination) {
+				case TIMED_OUT -> {
+					LOGGER.at(Level.WARN).log("The command {} timed out after 1m: {}", commandName, standardError.toString());
+					throw new ProcessException("The command {} timed out after 1m", commandName);
+				}
+				case STALLED -> {
+					LOGGER.at(Level.WARN).log("The command {} made no progress for {}s: {}", commandName, stallTimeout.toSeconds(), standardError.toString());
+					throw new ProcessException("The command {} made no progress for {}s", commandName, stallTimeout.toSeconds());
+				}
+				case EXITED -> {
+					if (standardOutput.aborted()) {
+						throw new ProcessAbortedException("The command {} was aborted", commandName);
+					}
+				}
+			}
+
 			var exitCode = process.exitValue();
 			if (exitCode != 0) {
 				LOGGER.at(Level.WARN).log("The command {} exited with code {}: {}", commandName, exitCode, standardError.toString());
 				throw new ProcessException("The command {} exited with code {}", commandName, exitCode);
 			}
 
-			return standardOutput.toString();
+			return standardOutput.result(commandName);
 		} catch (IOException e) {
 			throw new ProcessException(e);
-		} finally {
-			SEMAPHORE.release();
 		}
 	}
 
-	private static int getMaxConcurrentProcesses() {
-		var concurrentProcesses = System.getenv("CONCURRENT_PROCESSES");
-		var value = concurrentProcesses == null ? 4 : Integer.parseInt(concurrentProcesses);
-		if (value < 1) {
-			throw new IllegalArgumentException("The environment variable CONCURRENT_PROCESSES must be >= 1 (was " + concurrentProcesses + ")");
+	private enum Termination {
+		EXITED, TIMED_OUT, STALLED
+	}
+
+	/**
+	 * Follows a running process, sampling its CPU time periodically: every few milliseconds at first,
+	 * then every {@value #POLL_INTERVAL_MILLIS} milliseconds.
+	 * If the operating system doesn't report the CPU time of the process, it's never considered stalled.
+	 */
+	private static final class Watch {
+		private final Process process;
+		private final Duration stallTimeout;
+		private final long start = System.nanoTime();
+		private @Nullable Duration lastSample;
+		private Duration measuredCpuTime = Duration.ZERO;
+
+		private Watch(Process process, Duration stallTimeout) {
+			this.process = process;
+			this.stallTimeout = stallTimeout;
+			this.lastSample = sample();
+		}
+
+		/**
+		 * Waits for the process to exit, checking periodically whether it's still spending CPU time.
+		 */
+		private Termination awaitTermination() throws InterruptedException {
+			var lastActivity = start;
+			var pollInterval = FIRST_POLL_INTERVAL_MILLIS;
+
+			try {
+				while (!process.waitFor(pollInterval, TimeUnit.MILLISECONDS)) {
+					pollInterval = Math.min(2 * pollInterval, POLL_INTERVAL_MILLIS);
+
+					var now = System.nanoTime();
+					if (now - start >= TIMEOUT.toNanos()) {
+						return Termination.TIMED_OUT;
+					}
+
+					var currentCpuTime = sample();
+					if (currentCpuTime == null || !currentCpuTime.equals(lastSample)) {
+						lastSample = currentCpuTime;
+						lastActivity = now;
+					} else if (!stallTimeout.isZero() && now - lastActivity >= stallTimeout.toNanos()) {
+						return Termination.STALLED;
+					}
+				}
+
+				return Termination.EXITED;
+			} finally {
+				// the process might not have been reaped yet, and its CPU time still readable
+				sample();
+			}
+		}
+
+		private @Nullable Duration sample() {
+			var cpuTime = process.info().totalCpuDuration().orElse(null);
+			if (cpuTime != null && cpuTime.compareTo(measuredCpuTime) > 0) {
+				measuredCpuTime = cpuTime;
+			}
+
+			return cpuTime;
+		}
+
+		/**
+		 * The CPU time the process was last seen spending: the CPU time of a process can't be read once it's reaped,
+		 * so whatever it spent after the last sample isn't counted, rather than guessed.
+		 *
+		 * @return the CPU time spent by the process
+		 */
+		private Duration cpuTime() {
+			return measuredCpuTime;
+		}
+	}
+
+	private static void joinInputThread(@Nullable Thread inputThread) throws InterruptedException {
+		if (inputThread != null) {
+			inputThread.join();
 		}
+	}
+
+	/**
+	 * Accumulates the standard output of a process while it's running.
+	 */
+	private sealed interface OutputCollector<T> permits TextOutput, BinaryOutput, ProgressOutput {
+		void collect(InputStream stream) throws IOException;
+
+		T result(String commandName) throws ProcessException;
 
-		return value;
+		/**
+		 * @return {@code true} if the collector stopped reading the output because the process must be killed
+		 */
+		default boolean aborted() {
+			return false;
+		}
+	}
+
+	private static final class TextOutput implements OutputCollector<String> {
+		private final StringJoiner lines = new StringJoiner("\n");
+
+		@Override
+		public void collect(InputStream stream) throws IOException {
+			try (var reader = new BufferedReader(new InputStreamReader(stream, UTF_8))) {
+				reader.lines().forEach(lines::add);
+			}
+		}
+
+		@Override
+		public String result(String commandName) {
+			return lines.toString();
+		}
+	}
+
+	/**
+	 * Keeps up to {@code maxBytes} of output, discarding the rest so that the process is never blocked writing.
+	 */
+	private static final class BinaryOutput implements OutputCollector<byte[]> {
+		private final int maxBytes;
+		private byte[] content = new byte[0];
+		private boolean exceeded;
+
+		private BinaryOutput(int maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public void collect(InputStream stream) throws IOException {
+			content = stream.readNBytes(maxBytes);
+			exceeded = stream.transferTo(OutputStream.nullOutputStream()) > 0;
+		}
+
+		@Override
+		public byte[] result(String commandName) throws ProcessException {
+			if (exceeded) {
+				throw new ProcessException("The output of the command {} exceeded {} bytes", commandName, maxBytes);
+			}
+
+			return content;
+		}
+	}
+
+	/**
+	 * Parses the progress reports written by ffmpeg: blocks of {@code key=value} lines,
+	 * each terminated by a {@code progress} line.
+	 */
+	private static final class ProgressOutput implements OutputCollector<Progress> {
+		private final ProgressListener listener;
+		private Progress last = new Progress(Duration.ZERO, -1, 0);
+		private volatile boolean aborted;
+
+		private ProgressOutput(ProgressListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void collect(InputStream stream) throws IOException {
+			try (var reader = new BufferedReader(new InputStreamReader(stream, UTF_8))) {
+				var outTime = last.outTime();
+				var totalSize = last.totalSize();
+				var speed = last.speed();
+
+				String line;
+				while ((line = reader.readLine()) != null) {
+					var separator = line.indexOf('=');
+					if (separator < 0) {
+						continue;
+					}
+
+					var value = line.substring(separator + 1).strip();
+					switch (line.substring(0, separator)) {
+						case "out_time_us" -> outTime = parseMicros(value, outTime);
+						case "total_size" -> totalSize = parseLong(value, totalSize);
+						case "speed" -> speed = parseSpeed(value, speed);
+						case "progress" -> {
+							last = new Progress(outTime, totalSize, speed);
+							if (!listener.onProgress(last)) {
+								aborted = true;
+								return;
+							}
+						}
+						default -> {}
+					}
+				}
+			}
+		}
+
+		@Override
+		public Progress result(String commandName) {
+			return last;
+		}
+
+		@Override
+		public boolean aborted() {
+			return aborted;
+		}
+
+		private static Duration parseMicros(String value, Duration defaultValue) {
+			var micros = parseLong(value, -1);
+
+			return micros < 0 ? defaultValue : Duration.ofNanos(micros * 1000);
+		}
+
+		private static long parseLong(String value, long defaultValue) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException _) {
+				return defaultValue;
+			}
+		}
+
+		private static double parseSpeed(String value, double defaultValue) {
+			try {
+				return Double.parseDouble(value.endsWith("x") ? value.substring(0, value.length() - 1) : value);
+			} catch (NumberFormatException _) {
+				return defaultValue;
+			}
+		}
+	}
+
+	/**
+	 * Reports the load of each lane of the scheduler.
+	 *
+	 * @return the statistics of the lanes
+	 */
+	public static List<ProcessScheduler.LaneStats> schedulerStats() {
+		return SCHEDULER.stats();
 	}
 
 	private ProcessHelper() {
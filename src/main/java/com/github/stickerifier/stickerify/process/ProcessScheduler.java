@@ -0,0 +1,279 @@
+package com.github.stickerifier.stickerify.process;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import org.jspecify.annotations.Nullable;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides when commands can run, so that quick ones don't queue behind expensive ones.
+ * <p>
+ * Commands are split into lanes, each with its own capacity expressed in cores: probes, image encodes and video encodes.
+ * A command takes as many permits of its lane as the threads it uses, so a VP9 pass with {@code -threads 2} takes 2.
+ * Within a lane, the command with the lowest estimated cost runs first; the estimate decreases the longer
+ * a command waits, so that expensive commands are never starved.
+ */
+public final class ProcessScheduler {
+
+	/**
+	 * How much the estimated cost of a waiting command decreases each second, in bytes of input.
+	 */
+	private static final long AGING_BYTES_PER_SECOND = 1024 * 1024;
+	private static final String VIDEO_ENCODER_PREFIX = "libvpx";
+
+	private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+
+	ProcessScheduler(int probeCapacity, int imageCapacity, int videoCapacity) {
+		lanes.put(Lane.PROBE, new LaneQueue(Lane.PROBE, probeCapacity));
+		lanes.put(Lane.IMAGE, new LaneQueue(Lane.IMAGE, imageCapacity));
+		lanes.put(Lane.VIDEO, new LaneQueue(Lane.VIDEO, videoCapacity));
+	}
+
+	/**
+	 * Creates the scheduler with the capacities set by the environment variables
+	 * {@code CONCURRENT_PROBE_PROCESSES} (defaults to 2), {@code CONCURRENT_IMAGE_PROCESSES} (defaults to 2)
+	 * and {@code CONCURRENT_PROCESSES}, the cores for video encodes (defaults to 4).
+	 *
+	 * @return the scheduler
+	 * @throws IllegalArgumentException if any capacity is not a positive number
+	 */
+	static ProcessScheduler fromEnvironment() {
+		return new ProcessScheduler(
+				Environment.getInt("CONCURRENT_PROBE_PROCESSES", 2, 1),
+				Environment.getInt("CONCURRENT_IMAGE_PROCESSES", 2, 1),
+				Environment.getInt("CONCURRENT_PROCESSES", 4, 1)
+		);
+	}
+
+	public enum Lane {
+		PROBE, IMAGE, VIDEO
+	}
+
+	/**
+	 * A command waiting to run.
+	 *
+	 * @param lane the lane of the command
+	 * @param weight the cores the command uses
+	 * @param cost the estimated cost of the command, as the size of its input in bytes
+	 */
+	record Job(Lane lane, int weight, long cost) {
+		/**
+		 * Estimates the job of a command from its arguments: ffprobe commands are probes,
+		 * ffmpeg commands using a VP9 encoder are video encodes weighing their {@code -threads},
+		 * and any other command is an image encode.
+		 * The cost is the size of the input file, or 0 if the input is piped.
+		 *
+		 * @param command the command to run
+		 * @return the job of the command
+		 */
+		static Job of(List<String> command) {
+			var lane = Lane.IMAGE;
+			var weight = 1;
+			long cost = 0;
+
+			if ("ffprobe".equals(command.getFirst())) {
+				lane = Lane.PROBE;
+			}
+
+			for (int i = 1; i < command.size() - 1; i++) {
+				var value = command.get(i + 1);
+				switch (command.get(i)) {
+					case "-c:v" -> {
+						if (value.startsWith(VIDEO_ENCODER_PREFIX)) {
+							lane = Lane.VIDEO;
+						}
+					}
+					case "-threads" -> weight = parseThreads(value);
+					case "-i" -> cost = new File(value).length();
+					default -> {}
+				}
+			}
+
+			if (lane != Lane.VIDEO) {
+				weight = 1;
+			}
+
+			return new Job(lane, weight, cost);
+		}
+
+		private static int parseThreads(String value) {
+			try {
+				return Math.max(1, Integer.parseInt(value));
+			} catch (NumberFormatException _) {
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * Permits taken by a running command, given back when closed.
+	 */
+	interface Permit extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	/**
+	 * Waits for the lane of the job to have enough permits, and for the job to be the next in line.
+	 *
+	 * @param job the job to run
+	 * @return the permits of the job
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	Permit acquire(Job job) throws InterruptedException {
+		return lanes.get(job.lane()).acquire(job);
+	}
+
+	/**
+	 * Takes the permits of the job only if the lane has enough and nobody else is waiting for them.
+	 *
+	 * @param job the job to run
+	 * @return the permits of the job, or {@code null} if the lane isn't idle
+	 */
+	@Nullable Permit tryAcquire(Job job) {
+		return lanes.get(job.lane()).tryAcquire(job);
+	}
+
+	public List<LaneStats> stats() {
+		return Arrays.stream(Lane.values()).map(lane -> lanes.get(lane).stats()).toList();
+	}
+
+	/**
+	 * @param lane the lane
+	 * @param capacity the cores of the lane
+	 * @param running the cores taken by running commands
+	 * @param queued the number of commands waiting to run
+	 * @param started the number of commands started so far
+	 * @param meanWait the average time commands waited before running
+	 * @param maxWait the longest time a command waited before running
+	 */
+	public record LaneStats(Lane lane, int capacity, int running, int queued, long started, Duration meanWait, Duration maxWait) {}
+
+	private static final class LaneQueue {
+		private final Lane lane;
+		private final int capacity;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private final List<Waiter> waiters = new ArrayList<>();
+		private int running;
+		private long started;
+		private long totalWaitNanos;
+		private long maxWaitNanos;
+
+		private LaneQueue(Lane lane, int capacity) {
+			this.lane = lane;
+			this.capacity = capacity;
+		}
+
+		private Permit acquire(Job job) throws InterruptedException {
+			var weight = Math.min(job.weight(), capacity);
+			var waiter = new Waiter(job.cost(), System.nanoTime());
+
+			lock.lock();
+			try {
+				waiters.add(waiter);
+				try {
+					while (running + weight > capacity || next() != waiter) {
+						changed.await();
+					}
+				} catch (InterruptedException e) {
+					waiters.remove(waiter);
+					changed.signalAll();
+					throw e;
+				}
+
+				waiters.remove(waiter);
+				start(weight, System.nanoTime() - waiter.enqueuedAt());
+				changed.signalAll();
+
+				return () -> release(weight);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private @Nullable Permit tryAcquire(Job job) {
+			var weight = Math.min(job.weight(), capacity);
+
+			lock.lock();
+			try {
+				if (!waiters.isEmpty() || running + weight > capacity) {
+					return null;
+				}
+
+				start(weight, 0);
+
+				return () -> release(weight);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void start(int weight, long waitNanos) {
+			running += weight;
+			started++;
+			totalWaitNanos += waitNanos;
+			maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+		}
+
+		private void release(int weight) {
+			lock.lock();
+			try {
+				running -= weight;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return the waiter with the lowest cost, once discounted by the time it has been waiting
+		 */
+		private Waiter next() {
+			var now = System.nanoTime();
+
+			return waiters.stream().min(Comparator.comparingDouble(waiter -> waiter.agedCost(now))).orElseThrow();
+		}
+
+		private LaneStats stats() {
+			lock.lock();
+			try {
+				var meanWait = started == 0 ? Duration.ZERO : Duration.ofNanos(totalWaitNanos / started);
+
+				return new LaneStats(lane, capacity, running, waiters.size(), started, meanWait, Duration.ofNanos(maxWaitNanos));
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A command waiting in a lane, compared by identity since two commands may have the same cost and arrival time.
+	 */
+	private static final class Waiter {
+		private final long cost;
+		private final long enqueuedAt;
+
+		private Waiter(long cost, long enqueuedAt) {
+			this.cost = cost;
+			this.enqueuedAt = enqueuedAt;
+		}
+
+		private long enqueuedAt() {
+			return enqueuedAt;
+		}
+
+		private double agedCost(long now) {
+			return cost - (now - enqueuedAt) / 1e9 * AGING_BYTES_PER_SECOND;
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package com.github.stickerifier.stickerify.process;
+
+import java.time.Duration;
+
+/**
+ * A progress report of a running ffmpeg command, as written by its {@code -progress} option.
+ *
+ * @param outTime the timestamp of the output reached so far
+ * @param totalSize the bytes written into the output so far, or -1 if unknown
+ * @param speed how many seconds of output are produced each second, or 0 if unknown
+ */
+public record Progress(Duration outTime, long totalSize, double speed) {}
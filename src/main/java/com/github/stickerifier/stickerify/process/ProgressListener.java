@@ -0,0 +1,15 @@
+package com.github.stickerifier.stickerify.process;
+
+/**
+ * Receives the progress reports of a running ffmpeg command.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+	/**
+	 * Called every time ffmpeg reports its progress.
+	 *
+	 * @param progress the latest progress report
+	 * @return {@code false} to abort the command, {@code true} to let it continue
+	 */
+	boolean onProgress(Progress progress);
+}
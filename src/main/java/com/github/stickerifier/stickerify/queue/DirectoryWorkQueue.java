@@ -0,0 +1,282 @@
+package com.github.stickerifier.stickerify.queue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.stickerifier.stickerify.logger.StructuredLogger;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import com.google.gson.JsonParseException;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.utility.BotUtils;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Work queue shared by the nodes mounting the same directory, so that no external service is needed to scale out.
+ * <p>
+ * Each request is a file, written aside and then moved into the {@code ready} directory, so that it's never read
+ * while incomplete. A worker claims a request by moving its file into the {@code leased} directory under a name
+ * only that worker knows: the move is atomic, so only one of the workers trying to claim the same request succeeds.
+ * The last modification time of the leased file is the time the lease was last renewed: any node finding a lease
+ * which wasn't renewed in time moves its file back into the {@code ready} directory.
+ * The file is first moved into the {@code reaping} directory, where the worker can't renew it anymore,
+ * and its time is checked again there, so that a lease renewed right before being reaped is given back instead.
+ * <p>
+ * Lease times are compared across nodes, so their clocks have to be kept in sync well within the lease duration.
+ */
+public final class DirectoryWorkQueue implements WorkQueue {
+
+	private static final StructuredLogger LOGGER = new StructuredLogger(DirectoryWorkQueue.class);
+
+	private static final String READY_DIRECTORY = "ready";
+	private static final String LEASED_DIRECTORY = "leased";
+	private static final String INCOMING_DIRECTORY = "incoming";
+	private static final String REAPING_DIRECTORY = "reaping";
+	private static final String REQUEST_FILE_FORMAT = "%019d-%d-%d.json";
+	private static final char LEASE_SEPARATOR = '.';
+	private static final Duration POLL_INTERVAL = Duration.ofMillis(200);
+
+	private final Path ready;
+	private final Path leased;
+	private final Path incoming;
+	private final Path reaping;
+	private final Duration leaseDuration;
+	private final LongSupplier clock;
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private final LongAdder offered = new LongAdder();
+	private final LongAdder claimed = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	private DirectoryWorkQueue(Path directory, Duration leaseDuration, LongSupplier clock) throws IOException {
+		this.ready = Files.createDirectories(directory.resolve(READY_DIRECTORY));
+		this.leased = Files.createDirectories(directory.resolve(LEASED_DIRECTORY));
+		this.incoming = Files.createDirectories(directory.resolve(INCOMING_DIRECTORY));
+		this.reaping = Files.createDirectories(directory.resolve(REAPING_DIRECTORY));
+		this.leaseDuration = leaseDuration;
+		this.clock = clock;
+	}
+
+	/**
+	 * Opens the queue shared through {@code directory}, creating it if it doesn't exist.
+	 *
+	 * @param directory the directory shared by the nodes
+	 * @param leaseDuration how long a lease lasts if it isn't renewed
+	 * @return the opened queue
+	 * @throws IOException if the directory couldn't be created
+	 */
+	public static DirectoryWorkQueue open(Path directory, Duration leaseDuration) throws IOException {
+		return new DirectoryWorkQueue(directory, leaseDuration, System::currentTimeMillis);
+	}
+
+	static DirectoryWorkQueue open(Path directory, Duration leaseDuration, LongSupplier clock) throws IOException {
+		return new DirectoryWorkQueue(directory, leaseDuration, clock);
+	}
+
+	@Override
+	public void offer(TelegramRequest request) throws IOException {
+		var message = request.message();
+		var fileName = REQUEST_FILE_FORMAT.formatted(clock.getAsLong(), message.chat().id(), message.messageId());
+		var file = incoming.resolve(fileName);
+
+		try (var channel = FileChannel.open(file, CREATE_NEW, WRITE)) {
+			var content = ByteBuffer.wrap(BotUtils.toJson(message).getBytes(UTF_8));
+			while (content.hasRemaining()) {
+				channel.write(content);
+			}
+			channel.force(true);
+		}
+
+		Files.move(file, ready.resolve(fileName), ATOMIC_MOVE);
+		offered.increment();
+	}
+
+	@Override
+	public @Nullable Lease claim() throws InterruptedException {
+		while (closed.getCount() > 0) {
+			try {
+				requeueExpired();
+
+				var lease = claimOldest();
+				if (lease != null) {
+					return lease;
+				}
+			} catch (IOException e) {
+				LOGGER.at(Level.WARN).setCause(e).log("Unable to read the work queue");
+			}
+
+			if (closed.await(POLL_INTERVAL.toNanos(), TimeUnit.NANOSECONDS)) {
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	private @Nullable Lease claimOldest() throws IOException {
+		for (var file : list(ready)) {
+			var leasedFile = leased.resolve(file.getFileName().toString() + LEASE_SEPARATOR + UUID.randomUUID());
+
+			try {
+				// the lease starts before the move, so that it's never seen leased with an old time
+				Files.setLastModifiedTime(file, now());
+				Files.move(file, leasedFile, ATOMIC_MOVE);
+			} catch (NoSuchFileException _) {
+				continue;
+			}
+
+			claimed.increment();
+
+			var request = read(leasedFile);
+			if (request != null) {
+				return new DirectoryLease(request, leasedFile);
+			}
+
+			Files.deleteIfExists(leasedFile);
+		}
+
+		return null;
+	}
+
+	private @Nullable TelegramRequest read(Path file) throws IOException {
+		try {
+			var message = BotUtils.fromJson(Files.readString(file, UTF_8), Message.class);
+			if (message != null) {
+				return new TelegramRequest(message);
+			}
+		} catch (JsonParseException e) {
+			LOGGER.at(Level.WARN).setCause(e).log("Unable to read a request from the work queue, discarding it");
+		}
+
+		return null;
+	}
+
+	/**
+	 * Moves back into the {@code ready} directory the requests whose lease expired,
+	 * including the ones left in the {@code reaping} directory by a node which stopped while reaping them.
+	 */
+	private void requeueExpired() throws IOException {
+		var expiredBefore = clock.getAsLong() - leaseDuration.toMillis();
+
+		for (var file : list(leased)) {
+			try {
+				if (Files.getLastModifiedTime(file).toMillis() < expiredBefore) {
+					var reapingFile = reaping.resolve(file.getFileName());
+					Files.move(file, reapingFile, ATOMIC_MOVE);
+					requeue(reapingFile, expiredBefore);
+				}
+			} catch (NoSuchFileException _) {
+				// completed or requeued by another node in the meantime
+			}
+		}
+
+		for (var file : list(reaping)) {
+			try {
+				requeue(file, expiredBefore);
+			} catch (NoSuchFileException _) {
+				// completed or requeued by another node in the meantime
+			}
+		}
+	}
+
+	/**
+	 * Moves the file being reaped into the {@code ready} directory if its lease is still expired,
+	 * or back into the {@code leased} directory if it was renewed before the worker lost it.
+	 */
+	private void requeue(Path reapingFile, long expiredBefore) throws IOException {
+		var fileName = reapingFile.getFileName().toString();
+
+		if (Files.getLastModifiedTime(reapingFile).toMillis() < expiredBefore) {
+			Files.move(reapingFile, ready.resolve(fileName.substring(0, fileName.lastIndexOf(LEASE_SEPARATOR))), ATOMIC_MOVE);
+			expired.increment();
+		} else {
+			Files.move(reapingFile, leased.resolve(fileName), ATOMIC_MOVE);
+		}
+	}
+
+	private static List<Path> list(Path directory) throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.sorted().toList();
+		}
+	}
+
+	private FileTime now() {
+		return FileTime.fromMillis(clock.getAsLong());
+	}
+
+	@Override
+	public Duration leaseDuration() {
+		return leaseDuration;
+	}
+
+	@Override
+	public Stats stats() {
+		return new Stats(offered.sum(), claimed.sum(), completed.sum(), expired.sum());
+	}
+
+	@Override
+	public void close() {
+		closed.countDown();
+	}
+
+	private final class DirectoryLease implements Lease {
+
+		private final TelegramRequest request;
+		private final Path file;
+
+		private DirectoryLease(TelegramRequest request, Path file) {
+			this.request = request;
+			this.file = file;
+		}
+
+		@Override
+		public TelegramRequest request() {
+			return request;
+		}
+
+		@Override
+		public boolean renew() {
+			try {
+				Files.setLastModifiedTime(file, now());
+				return true;
+			} catch (NoSuchFileException _) {
+				return false;
+			} catch (IOException e) {
+				LOGGER.at(Level.WARN).setCause(e).log("Unable to renew the lease of a request");
+				return false;
+			}
+		}
+
+		@Override
+		public void complete() {
+			var reapingFile = reaping.resolve(file.getFileName());
+
+			try {
+				// the file may be moved back from the reaping directory while it's being looked for there
+				if (Files.deleteIfExists(file) || Files.deleteIfExists(reapingFile) || Files.deleteIfExists(file)) {
+					completed.increment();
+				}
+			} catch (IOException e) {
+				LOGGER.at(Level.WARN).setCause(e).log("Unable to remove an answered request from the work queue");
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.github.stickerifier.stickerify.queue;
+
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Work queue kept in the memory of the process, shared by a poller and workers built within the same one.
+ * <p>
+ * Expired leases are handed out again by the next claim, ahead of the requests never claimed.
+ */
+public final class InMemoryWorkQueue implements WorkQueue {
+
+	private final Duration leaseDuration;
+	private final LongSupplier nanoClock;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Deque<TelegramRequest> ready = new ArrayDeque<>();
+	private final Set<MemoryLease> leased = new LinkedHashSet<>();
+	private boolean closed;
+
+	private final LongAdder offered = new LongAdder();
+	private final LongAdder claimed = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param leaseDuration how long a lease lasts if it isn't renewed
+	 */
+	public InMemoryWorkQueue(Duration leaseDuration) {
+		this(leaseDuration, System::nanoTime);
+	}
+
+	InMemoryWorkQueue(Duration leaseDuration, LongSupplier nanoClock) {
+		this.leaseDuration = leaseDuration;
+		this.nanoClock = nanoClock;
+	}
+
+	@Override
+	public void offer(TelegramRequest request) {
+		lock.lock();
+		try {
+			ready.addLast(request);
+			offered.increment();
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public @Nullable Lease claim() throws InterruptedException {
+		lock.lock();
+		try {
+			while (!closed) {
+				requeueExpired();
+
+				var request = ready.pollFirst();
+				if (request != null) {
+					var lease = new MemoryLease(request, nanoClock.getAsLong() + leaseDuration.toNanos());
+					leased.add(lease);
+					claimed.increment();
+
+					return lease;
+				}
+
+				if (leased.isEmpty()) {
+					changed.await();
+				} else {
+					changed.await(leaseDuration.toNanos(), TimeUnit.NANOSECONDS);
+				}
+			}
+
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void requeueExpired() {
+		var now = nanoClock.getAsLong();
+
+		for (var iterator = leased.iterator(); iterator.hasNext(); ) {
+			var lease = iterator.next();
+			if (lease.expiresAt - now < 0) {
+				iterator.remove();
+				ready.addFirst(lease.request);
+				expired.increment();
+			}
+		}
+	}
+
+	@Override
+	public Duration leaseDuration() {
+		return leaseDuration;
+	}
+
+	@Override
+	public Stats stats() {
+		return new Stats(offered.sum(), claimed.sum(), completed.sum(), expired.sum());
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private final class MemoryLease implements Lease {
+
+		private final TelegramRequest request;
+		private long expiresAt;
+
+		private MemoryLease(TelegramRequest request, long expiresAt) {
+			this.request = request;
+			this.expiresAt = expiresAt;
+		}
+
+		@Override
+		public TelegramRequest request() {
+			return request;
+		}
+
+		@Override
+		public boolean renew() {
+			lock.lock();
+			try {
+				if (!leased.contains(this)) {
+					return false;
+				}
+
+				expiresAt = nanoClock.getAsLong() + leaseDuration.toNanos();
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void complete() {
+			lock.lock();
+			try {
+				if (leased.remove(this)) {
+					completed.increment();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.github.stickerifier.stickerify.queue;
+
+import com.github.stickerifier.stickerify.config.Environment;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Queue of the requests received by a node polling Telegram, answered by the worker nodes claiming them.
+ * <p>
+ * A claimed request is leased to its worker: if the lease isn't renewed before it expires, because the worker stopped
+ * or lost contact with the queue, the request is handed to another worker. A request is thus answered at least once.
+ */
+public interface WorkQueue extends AutoCloseable {
+
+	/**
+	 * Adds the request to the queue.
+	 *
+	 * @param request the request to answer
+	 * @throws IOException if the request couldn't be added
+	 */
+	void offer(TelegramRequest request) throws IOException;
+
+	/**
+	 * Waits for a request to answer and leases it to the caller.
+	 *
+	 * @return the lease of the request, or {@code null} if the queue has been closed
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	@Nullable Lease claim() throws InterruptedException;
+
+	/**
+	 * @return how long a lease lasts if it isn't renewed
+	 */
+	Duration leaseDuration();
+
+	Stats stats();
+
+	/**
+	 * Stops handing out requests. The leases already claimed can still be renewed and completed.
+	 */
+	@Override
+	void close();
+
+	/**
+	 * A request claimed by a worker.
+	 */
+	interface Lease {
+
+		/**
+		 * @return the leased request
+		 */
+		TelegramRequest request();
+
+		/**
+		 * Extends the lease by its duration.
+		 *
+		 * @return {@code false} if the lease already expired, so the request may be answered by another worker too
+		 */
+		boolean renew();
+
+		/**
+		 * Removes the request from the queue, once it has been answered.
+		 */
+		void complete();
+	}
+
+	/**
+	 * Snapshot of the queue counters.
+	 *
+	 * @param offered the requests added to the queue
+	 * @param claimed the requests leased to a worker, counting again the ones whose lease expired
+	 * @param completed the requests answered
+	 * @param expired the leases which expired, handing their request to another worker
+	 */
+	record Stats(long offered, long claimed, long completed, long expired) {}
+
+	/**
+	 * Creates the queue shared through the directory set by the {@code WORK_QUEUE_PATH} environment variable,
+	 * leasing the requests for the seconds set by {@code WORK_QUEUE_LEASE} (defaults to 60).
+	 * The poller and the workers run in different processes, so the directory is required:
+	 * a queue kept in the memory of the poller would never be claimed by any worker.
+	 *
+	 * @return the configured queue
+	 * @throws IllegalArgumentException if the directory isn't set or if the lease duration is not valid
+	 * @throws UncheckedIOException if the directory of the queue couldn't be opened
+	 */
+	static WorkQueue fromEnvironment() {
+		var leaseDuration = Environment.getSeconds("WORK_QUEUE_LEASE", Duration.ofMinutes(1));
+		if (leaseDuration.isZero()) {
+			throw new IllegalArgumentException("The WORK_QUEUE_LEASE environment variable must be positive");
+		}
+
+		var directory = Environment.getString("WORK_QUEUE_PATH");
+		if (directory == null) {
+			throw new IllegalArgumentException("The WORK_QUEUE_PATH environment variable is required when STICKERIFY_ROLE is poller or worker");
+		}
+
+		try {
+			return DirectoryWorkQueue.open(Path.of(directory), leaseDuration);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to open the work queue", e);
+		}
+	}
+}
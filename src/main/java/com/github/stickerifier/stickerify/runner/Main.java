@@ -2,8 +2,11 @@ package com.github.stickerifier.stickerify.runner;
 
 import com.github.stickerifier.stickerify.bot.Stickerify;
 
+import java.util.concurrent.CountDownLatch;
+
 public class Main {
 	static final Object LOCK = new Object();
+	private static final CountDownLatch CLOSED = new CountDownLatch(1);
 
 	static void main() {
 		try (var _ = new Stickerify()) {
@@ -11,6 +14,13 @@ public class Main {
 				synchronized (LOCK) {
 					LOCK.notifyAll();
 				}
+
+				// the JVM halts once the hooks return, so wait for the bot to hand off its requests
+				try {
+					CLOSED.await();
+				} catch (InterruptedException _) {
+					Thread.currentThread().interrupt();
+				}
 			}));
 
 			synchronized (LOCK) {
@@ -18,6 +28,8 @@ public class Main {
 			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
+		} finally {
+			CLOSED.countDown();
 		}
 	}
 }
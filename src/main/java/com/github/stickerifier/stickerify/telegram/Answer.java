@@ -28,6 +28,12 @@ public enum Answer {
 	FILE_TOO_LARGE("""
 			The file can't be converted because Telegram bots can't handle files larger than 20 MB at the moment: please send a smaller one.
 			"""),
+	BUSY("""
+			I'm busy converting a lot of files right now: please send yours again in a few minutes.
+			"""),
+	CPU_QUOTA_EXCEEDED("""
+			You've sent me a lot of demanding files lately: please wait a few minutes before sending the next one.
+			"""),
 	ABOUT("""
 			This bot is open source, check it out on [GitHub](https://github.com/Stickerifier/Stickerify).
 
@@ -0,0 +1,104 @@
+package com.github.stickerifier.stickerify.telegram;
+
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.stickerifier.stickerify.exception.FileOperationException;
+import com.github.stickerifier.stickerify.exception.FileTooLargeException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public final class FileDownloader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 64;
+	private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration READ_TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Streams the content at {@code fileUrl} into {@code destination} through a buffer of fixed size,
+	 * so that the memory used doesn't depend on the size of the file.
+	 * The download is aborted as soon as either the declared or the received size exceeds {@code maxSizeBytes}.
+	 *
+	 * @param fileUrl the URL of the file to download
+	 * @param destination the file the content will be written to
+	 * @param maxSizeBytes the maximum size of the file
+	 * @param digest the digest to update with the downloaded content
+	 * @return the number of bytes downloaded
+	 * @throws FileTooLargeException if the file is larger than {@code maxSizeBytes}
+	 * @throws FileOperationException if an error occurred downloading the file
+	 */
+	public static long download(String fileUrl, Path destination, long maxSizeBytes, MessageDigest digest) throws FileOperationException {
+		var buffer = acquireBuffer();
+
+		try {
+			var connection = URI.create(fileUrl).toURL().openConnection();
+			connection.setConnectTimeout((int) CONNECT_TIMEOUT.toMillis());
+			connection.setReadTimeout((int) READ_TIMEOUT.toMillis());
+
+			var declaredSize = connection.getContentLengthLong();
+			if (declaredSize > maxSizeBytes) {
+				abort(connection);
+				throw new FileTooLargeException("The file size {} exceeds the maximum of {} bytes", declaredSize, maxSizeBytes);
+			}
+
+			try (var inputStream = connection.getInputStream(); var outputChannel = FileChannel.open(destination, WRITE, TRUNCATE_EXISTING)) {
+				var downloadedBytes = 0L;
+
+				int readBytes;
+				while ((readBytes = inputStream.read(buffer.array(), 0, buffer.capacity())) != -1) {
+					downloadedBytes += readBytes;
+					if (downloadedBytes > maxSizeBytes) {
+						abort(connection);
+						throw new FileTooLargeException("The downloaded content exceeds the maximum of {} bytes", maxSizeBytes);
+					}
+
+					digest.update(buffer.array(), 0, readBytes);
+
+					buffer.clear().limit(readBytes);
+					while (buffer.hasRemaining()) {
+						outputChannel.write(buffer);
+					}
+				}
+
+				return downloadedBytes;
+			}
+		} catch (IOException e) {
+			throw new FileOperationException(e);
+		} finally {
+			BUFFERS.offer(buffer.clear());
+		}
+	}
+
+	/**
+	 * Releases the connection of an aborted download, dropping it rather than reading the rest of the content to reuse it.
+	 */
+	private static void abort(URLConnection connection) throws IOException {
+		if (connection instanceof HttpURLConnection httpConnection) {
+			httpConnection.disconnect();
+		} else {
+			connection.getInputStream().close();
+		}
+	}
+
+	private static ByteBuffer acquireBuffer() {
+		var buffer = BUFFERS.poll();
+
+		return buffer == null ? ByteBuffer.allocate(BUFFER_SIZE) : buffer;
+	}
+
+	private FileDownloader() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,195 @@
+package com.github.stickerifier.stickerify.telegram;
+
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Spaces out the messages sent to Telegram so that they stay within its rate limits,
+ * instead of waiting for a {@code retry_after} once they have already been exceeded.
+ * <p>
+ * Telegram allows about 30 messages per second overall, one per second in each private chat and 20 per minute
+ * in each group, tolerating short bursts. Each of these limits is a bucket holding a single atomic timestamp,
+ * the time at which its next message is due (the generic cell rate algorithm): sending a message reserves a slot
+ * by moving it forward, and the sender waits until its slot comes, so reserving never locks.
+ * <p>
+ * When Telegram still answers with a {@code retry_after}, only the bucket of that chat is paused.
+ * <p>
+ * Notices, messages the bot can do without such as the answer to a shed request, never wait for a slot:
+ * they are dropped instead when a slot isn't free right away, and each chat gets at most one of them every minute.
+ */
+public final class RateLimiter {
+
+	private static final Limit GLOBAL_LIMIT = new Limit(Duration.ofSeconds(1).dividedBy(30), 30);
+	private static final Limit PRIVATE_CHAT_LIMIT = new Limit(Duration.ofSeconds(1), 3);
+	private static final Limit GROUP_CHAT_LIMIT = new Limit(Duration.ofMinutes(1).dividedBy(20), 3);
+	/**
+	 * Buckets of chats with no message due are forgotten once this many chats are tracked.
+	 */
+	private static final int MAX_TRACKED_CHATS = 10_000;
+	private static final Duration NOTICE_INTERVAL = Duration.ofMinutes(1);
+
+	private final LongSupplier nanoClock;
+	private final AtomicLong globalBucket;
+	private final ConcurrentMap<Long, AtomicLong> chatBuckets = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, AtomicLong> lastNotices = new ConcurrentHashMap<>();
+
+	private final LongAdder reservations = new LongAdder();
+	private final LongAdder delayed = new LongAdder();
+	private final LongAdder delayNanos = new LongAdder();
+	private final LongAdder pauses = new LongAdder();
+	private final LongAdder droppedNotices = new LongAdder();
+
+	public RateLimiter() {
+		this(System::nanoTime);
+	}
+
+	RateLimiter(LongSupplier nanoClock) {
+		this.nanoClock = nanoClock;
+		this.globalBucket = new AtomicLong(nanoClock.getAsLong());
+	}
+
+	/**
+	 * The rate of a bucket.
+	 *
+	 * @param interval the time between two messages
+	 * @param burst how many messages can be sent at once
+	 */
+	private record Limit(Duration interval, int burst) {
+		private long intervalNanos() {
+			return interval.toNanos();
+		}
+
+		/**
+		 * @return how far ahead of its due time a message can be sent, thanks to the burst
+		 */
+		private long toleranceNanos() {
+			return intervalNanos() * (burst - 1);
+		}
+	}
+
+	/**
+	 * Waits until a message can be sent to the chat.
+	 *
+	 * @param chatId the chat the message is sent to, or {@code null} if the request doesn't send any message
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public void acquire(@Nullable Long chatId) throws InterruptedException {
+		if (chatId == null) {
+			return;
+		}
+
+		var delay = reserve(chatId);
+		if (delay > 0) {
+			Thread.sleep(Duration.ofNanos(delay));
+		}
+	}
+
+	/**
+	 * Reserves the slot of a message in the bucket of the chat and in the global one.
+	 * Both slots are reserved from now, since a global slot reserved in the future would delay
+	 * every message sent before it: a message waiting for its chat takes a global slot a bit early instead.
+	 *
+	 * @param chatId the chat the message is sent to
+	 * @return the nanoseconds to wait before sending the message
+	 */
+	long reserve(long chatId) {
+		var now = nanoClock.getAsLong();
+		var chatLimit = chatId < 0 ? GROUP_CHAT_LIMIT : PRIVATE_CHAT_LIMIT;
+		var chatBucket = chatBuckets.computeIfAbsent(chatId, _ -> new AtomicLong(now));
+
+		var chatDelay = reserve(chatBucket, chatLimit, now);
+		var globalDelay = reserve(globalBucket, GLOBAL_LIMIT, now);
+		var delay = Math.max(chatDelay, globalDelay);
+
+		reservations.increment();
+		if (delay > 0) {
+			delayed.increment();
+			delayNanos.add(delay);
+		}
+
+		if (chatBuckets.size() > MAX_TRACKED_CHATS) {
+			chatBuckets.values().removeIf(bucket -> bucket.get() <= now);
+		}
+
+		return delay;
+	}
+
+	/**
+	 * Tells whether a notice can be sent to the chat, which is the case if it got no other notice in the last minute
+	 * and neither its bucket nor the global one would make the notice wait.
+	 * The slot itself is still reserved by {@link #acquire(Long)}, right before sending the notice.
+	 *
+	 * @param chatId the chat the notice would be sent to
+	 * @return {@code true} if the notice can be sent, {@code false} if it should be dropped
+	 */
+	public boolean tryAcquireNotice(long chatId) {
+		var now = nanoClock.getAsLong();
+		var chatLimit = chatId < 0 ? GROUP_CHAT_LIMIT : PRIVATE_CHAT_LIMIT;
+		var chatBucket = chatBuckets.get(chatId);
+
+		var saturated = isSaturated(globalBucket, GLOBAL_LIMIT, now) || (chatBucket != null && isSaturated(chatBucket, chatLimit, now));
+		if (saturated || !claimNotice(chatId, now)) {
+			droppedNotices.increment();
+			return false;
+		}
+
+		if (lastNotices.size() > MAX_TRACKED_CHATS) {
+			lastNotices.values().removeIf(lastNotice -> now - lastNotice.get() >= NOTICE_INTERVAL.toNanos());
+		}
+
+		return true;
+	}
+
+	private boolean claimNotice(long chatId, long now) {
+		var lastNotice = lastNotices.computeIfAbsent(chatId, _ -> new AtomicLong(now - NOTICE_INTERVAL.toNanos()));
+		var previous = lastNotice.get();
+
+		return now - previous >= NOTICE_INTERVAL.toNanos() && lastNotice.compareAndSet(previous, now);
+	}
+
+	private static boolean isSaturated(AtomicLong bucket, Limit limit, long at) {
+		return bucket.get() - limit.toleranceNanos() > at;
+	}
+
+	private static long reserve(AtomicLong bucket, Limit limit, long at) {
+		var due = bucket.getAndAccumulate(at, (current, time) -> Math.max(current, time) + limit.intervalNanos());
+
+		return Math.max(0, Math.max(due, at) - limit.toleranceNanos() - at);
+	}
+
+	/**
+	 * Stops sending messages to the chat for the time requested by Telegram.
+	 *
+	 * @param chatId the chat whose messages were refused
+	 * @param retryAfter the time to wait before sending the next message
+	 */
+	public void pause(long chatId, Duration retryAfter) {
+		var chatLimit = chatId < 0 ? GROUP_CHAT_LIMIT : PRIVATE_CHAT_LIMIT;
+		var resumeAt = nanoClock.getAsLong() + retryAfter.toNanos() + chatLimit.toleranceNanos();
+
+		chatBuckets.computeIfAbsent(chatId, _ -> new AtomicLong(resumeAt)).accumulateAndGet(resumeAt, Math::max);
+		pauses.increment();
+	}
+
+	public Stats stats() {
+		return new Stats(reservations.sum(), delayed.sum(), Duration.ofNanos(delayNanos.sum()), pauses.sum(), droppedNotices.sum(), chatBuckets.size());
+	}
+
+	/**
+	 * Snapshot of the limiter counters.
+	 *
+	 * @param reservations the messages sent through the limiter
+	 * @param delayed the messages which had to wait for their slot
+	 * @param totalDelay the time spent waiting by all the messages
+	 * @param pauses the times Telegram asked to retry later
+	 * @param droppedNotices the notices dropped instead of being sent
+	 * @param trackedChats the chats whose bucket is kept
+	 */
+	public record Stats(long reservations, long delayed, Duration totalDelay, long pauses, long droppedNotices, int trackedChats) {}
+}
@@ -37,12 +37,12 @@ public record TelegramRequest(Message message) {
 	public @Nullable TelegramFile getFile() {
 		return getMessageMedia()
 				.map(media -> switch (media) {
-					case LivePhoto livePhoto -> new TelegramFile(livePhoto.fileId(), livePhoto.fileSize());
+					case LivePhoto livePhoto -> new TelegramFile(livePhoto.fileId(), livePhoto.fileUniqueId(), livePhoto.fileSize());
 					case PhotoSize[] photos when photos.length > 0 -> getBestPhoto(photos);
-					case Document document -> new TelegramFile(document.fileId(), document.fileSize());
-					case Sticker sticker -> new TelegramFile(sticker.fileId(), sticker.fileSize());
-					case Video video -> new TelegramFile(video.fileId(), video.fileSize());
-					case VideoNote videoNote -> new TelegramFile(videoNote.fileId(), videoNote.fileSize());
+					case Document document -> new TelegramFile(document.fileId(), document.fileUniqueId(), document.fileSize());
+					case Sticker sticker -> new TelegramFile(sticker.fileId(), sticker.fileUniqueId(), sticker.fileSize());
+					case Video video -> new TelegramFile(video.fileId(), video.fileUniqueId(), video.fileSize());
+					case VideoNote videoNote -> new TelegramFile(videoNote.fileId(), videoNote.fileUniqueId(), videoNote.fileSize());
 					default -> TelegramFile.NOT_SUPPORTED;
 				})
 				.orElse(null);
@@ -58,7 +58,7 @@ public record TelegramRequest(Message message) {
 
 	private TelegramFile getBestPhoto(PhotoSize[] photos) {
 		return Arrays.stream(photos)
-				.map(photo -> new TelegramFile(photo.fileId(), photo.fileSize()))
+				.map(photo -> new TelegramFile(photo.fileId(), photo.fileUniqueId(), photo.fileSize()))
 				.filter(TelegramFile::canBeDownloaded)
 				.max(comparing(TelegramFile::sizeValue))
 				.orElse(TelegramFile.TOO_LARGE);
@@ -0,0 +1,253 @@
+package com.github.stickerifier.stickerify.bot;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.dispatch.RequestDispatcher;
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.queue.InMemoryWorkQueue;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.utility.BotUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+@Tag(Tags.CONCURRENT)
+class HandoffTest {
+
+	private final InMemoryWorkQueue handoffQueue = new InMemoryWorkQueue(Duration.ofMinutes(1));
+	private final List<Integer> answered = Collections.synchronizedList(new ArrayList<>());
+	private final List<Integer> released = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	void requestsStillRunningAfterTheTimeoutAreHandedOff() throws Exception {
+		var handoff = new Handoff(Duration.ofMillis(200), handoffQueue);
+		var started = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+			submit(handoff, dispatcher, 1, () -> {
+				started.countDown();
+				try {
+					Thread.sleep(Duration.ofMinutes(1));
+				} catch (InterruptedException _) {
+					return;
+				}
+				answered.add(1);
+			});
+			submit(handoff, dispatcher, 2, () -> answered.add(2));
+			started.await();
+
+			handoff.drain(dispatcher, null);
+		}
+
+		assertThat(answered.isEmpty(), is(true));
+		assertThat(released, contains(2, 1));
+		assertThat(handoffQueue.stats().offered(), is(equalTo(2L)));
+		assertThat(handoff.stats().handedOffQueued(), is(equalTo(1L)));
+		assertThat(handoff.stats().handedOffRunning(), is(equalTo(1L)));
+	}
+
+	@Test
+	void requestsCompletingWithinTheTimeoutAreAnswered() throws Exception {
+		var handoff = new Handoff(Duration.ofMinutes(1), handoffQueue);
+		var started = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+			submit(handoff, dispatcher, 1, () -> {
+				started.countDown();
+				try {
+					Thread.sleep(Duration.ofMillis(100));
+				} catch (InterruptedException _) {
+					return;
+				}
+				answered.add(1);
+			});
+			started.await();
+
+			handoff.drain(dispatcher, null);
+		}
+
+		assertThat(answered, contains(1));
+		assertThat(released, contains(1));
+		assertThat(handoffQueue.stats().offered(), is(equalTo(0L)));
+	}
+
+	@Test
+	void requestsAlreadyReplyingAreWaitedFor() throws Exception {
+		var handoff = new Handoff(Duration.ofMillis(100), handoffQueue);
+		var replying = new CountDownLatch(1);
+		var request = request(1);
+		var runningRequest = handoff.track(request, () -> released.add(1));
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+			dispatcher.submit(request.getChatId(), 0, () -> {
+				try {
+					if (runningRequest.start() && runningRequest.reply()) {
+						replying.countDown();
+						Thread.sleep(Duration.ofMillis(500));
+						answered.add(1);
+					}
+				} catch (InterruptedException _) {
+					// cancelled
+				} finally {
+					runningRequest.finish();
+				}
+			});
+			replying.await();
+
+			handoff.drain(dispatcher, null);
+		}
+
+		assertThat(answered, contains(1));
+		assertThat(released, contains(1));
+		assertThat(runningRequest.isHandedOff(), is(false));
+		assertThat(handoffQueue.stats().offered(), is(equalTo(0L)));
+	}
+
+	@Test
+	void requestsHandedOffCantReply() throws Exception {
+		var handoff = new Handoff(Duration.ZERO, handoffQueue);
+		var runningRequest = handoff.track(request(1), () -> released.add(1));
+		var started = new CountDownLatch(1);
+		var replied = new ArrayList<Boolean>();
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+			dispatcher.submit(1, 0, () -> {
+				try {
+					if (runningRequest.start()) {
+						started.countDown();
+						try {
+							Thread.sleep(Duration.ofMinutes(1));
+						} catch (InterruptedException _) {
+							replied.add(runningRequest.reply());
+						}
+					}
+				} finally {
+					runningRequest.finish();
+				}
+			});
+			started.await();
+
+			handoff.drain(dispatcher, null);
+		}
+
+		assertThat(replied, contains(false));
+		assertThat(handoffQueue.stats().offered(), is(equalTo(1L)));
+	}
+
+	@Test
+	void requestsAreHandedOffToTheWorkQueueOfTheWorkers() throws Exception {
+		var handoff = new Handoff(Duration.ZERO, null);
+		var workQueue = new InMemoryWorkQueue(Duration.ofMinutes(1));
+		var blocked = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+			submit(handoff, dispatcher, 1, () -> {
+				try {
+					blocked.await();
+				} catch (InterruptedException _) {
+					// handed off
+				}
+			});
+
+			handoff.drain(dispatcher, workQueue);
+		}
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(1)));
+		assertThat(released, contains(1));
+	}
+
+	@Test
+	void requestsWhoseLeaseExpiredAreAbandoned() throws Exception {
+		var handoff = new Handoff(Duration.ZERO, null);
+		var request = request(1);
+		var runningRequest = handoff.track(request, () -> released.add(1));
+		var started = new CountDownLatch(1);
+		var interrupted = new CountDownLatch(1);
+
+		Thread.ofVirtual().start(() -> {
+			try {
+				if (runningRequest.start()) {
+					started.countDown();
+					Thread.sleep(Duration.ofMinutes(1));
+					answered.add(1);
+				}
+			} catch (InterruptedException _) {
+				interrupted.countDown();
+			} finally {
+				runningRequest.finish();
+			}
+		});
+		started.await();
+
+		assertThat(handoff.abandon(request), is(true));
+		interrupted.await();
+
+		assertThat(runningRequest.isHandedOff(), is(true));
+		assertThat(answered.isEmpty(), is(true));
+		assertThat(released.isEmpty(), is(true));
+		assertThat(handoff.stats().abandoned(), is(equalTo(1L)));
+	}
+
+	@Test
+	void requestsAlreadyReplyingAreNotAbandoned() {
+		var handoff = new Handoff(Duration.ZERO, null);
+		var request = request(1);
+		var runningRequest = handoff.track(request, () -> released.add(1));
+
+		assertThat(runningRequest.start() && runningRequest.reply(), is(true));
+		assertThat(handoff.abandon(request), is(false));
+
+		runningRequest.finish();
+		assertThat(released, contains(1));
+		assertThat(handoff.stats().abandoned(), is(equalTo(0L)));
+	}
+
+	private void submit(Handoff handoff, RequestDispatcher dispatcher, int messageId, Runnable answer) {
+		var request = request(messageId);
+		var runningRequest = handoff.track(request, () -> released.add(messageId));
+
+		dispatcher.submit(request.getChatId(), 0, () -> {
+			try {
+				if (runningRequest.start()) {
+					answer.run();
+				}
+			} finally {
+				runningRequest.finish();
+			}
+		});
+	}
+
+	private static TelegramRequest request(int messageId) {
+		var message = BotUtils.fromJson("""
+				{
+					message_id: %d,
+					chat: {
+						id: 1
+					},
+					text: "/start"
+				}
+				""".formatted(messageId), Message.class);
+
+		return new TelegramRequest(message);
+	}
+}
@@ -0,0 +1,145 @@
+package com.github.stickerifier.stickerify.bot;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.UpdatesListener;
+import com.pengrad.telegrambot.model.Update;
+import mockwebserver3.MockResponse;
+import mockwebserver3.MockWebServer;
+import mockwebserver3.QueueDispatcher;
+import mockwebserver3.junit5.StartStop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@Tag(Tags.TELEGRAM_API)
+class LongPollingTest {
+
+	private static final MockResponse NO_UPDATES = new MockResponse.Builder().body("""
+			{
+				ok: true,
+				result: []
+			}
+			""").build();
+
+	@StartStop
+	private final MockWebServer server = new MockWebServer();
+
+	private final List<Integer> receivedUpdates = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setup() {
+		((QueueDispatcher) server.getDispatcher()).setFailFast(NO_UPDATES);
+	}
+
+	@Test
+	void fullBatchesArePolledAgainRightAwayWithBiggerLimit() throws Exception {
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(updates(1, 10));
+		server.enqueue(updates(11, 5));
+
+		var polling = new LongPolling();
+		try (polling) {
+			polling.start(bot(), this::process, _ -> {});
+
+			assertThat(server.takeRequest().getTarget(), is(equalTo("/api/token/deleteWebhook")));
+
+			assertThat(server.takeRequest().getBody().utf8(), is(equalTo("offset=0&limit=10&timeout=50")));
+			assertThat(server.takeRequest().getBody().utf8(), is(equalTo("offset=11&limit=20&timeout=50")));
+			assertThat(server.takeRequest().getBody().utf8(), is(equalTo("offset=16&limit=10&timeout=50")));
+		}
+
+		assertThat(receivedUpdates, is(equalTo(IntStream.rangeClosed(1, 15).boxed().toList())));
+
+		var stats = polling.stats();
+		assertEquals(0, stats.failedPolls());
+		assertEquals(2, stats.batchSizes().count());
+		assertEquals(15, stats.batchSizes().p90());
+	}
+
+	@Test
+	void failuresArePolledAgainWithBackoff() throws Exception {
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.FAILURE_RESPONSE);
+		server.enqueue(updates(1, 1));
+
+		var failures = new CopyOnWriteArrayList<String>();
+		var polling = new LongPolling();
+		try (polling) {
+			polling.start(bot(), this::process, e -> failures.add(e.getMessage()));
+
+			server.takeRequest();
+			server.takeRequest();
+			server.takeRequest();
+			assertThat(server.takeRequest().getBody().utf8(), containsString("offset=0"));
+			assertThat(server.takeRequest().getBody().utf8(), containsString("offset=2"));
+		}
+
+		assertThat(receivedUpdates, is(equalTo(List.of(1))));
+		assertEquals(2, failures.size());
+		assertEquals(2, polling.stats().failedPolls());
+	}
+
+	@Test
+	void unconfirmedBatchesArePolledAgain() throws Exception {
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(updates(1, 2));
+		server.enqueue(updates(1, 2));
+
+		var refused = new AtomicBoolean();
+		UpdatesListener listener = updates -> refused.getAndSet(true) ? process(updates) : UpdatesListener.CONFIRMED_UPDATES_NONE;
+
+		try (var polling = new LongPolling()) {
+			polling.start(bot(), listener, _ -> {});
+
+			server.takeRequest();
+			assertThat(server.takeRequest().getBody().utf8(), containsString("offset=0"));
+			assertThat(server.takeRequest().getBody().utf8(), containsString("offset=0"));
+			assertThat(server.takeRequest().getBody().utf8(), containsString("offset=3"));
+		}
+
+		assertThat(receivedUpdates, is(equalTo(List.of(1, 2))));
+	}
+
+	@Test
+	void pollingDoesNotStartWhenTheWebhookCannotBeDeleted() {
+		server.enqueue(MockResponses.FAILURE_RESPONSE);
+
+		try (var polling = new LongPolling()) {
+			assertThrows(IllegalStateException.class, () -> polling.start(bot(), this::process, _ -> {}));
+		}
+
+		assertEquals(1, server.getRequestCount());
+	}
+
+	private TelegramBot bot() {
+		return new TelegramBot.Builder("token").apiUrl(server.url("api/").toString()).build();
+	}
+
+	private int process(List<Update> updates) {
+		updates.forEach(update -> receivedUpdates.add(update.updateId()));
+		return UpdatesListener.CONFIRMED_UPDATES_ALL;
+	}
+
+	private static MockResponse updates(int firstId, int count) {
+		var updates = IntStream.range(firstId, firstId + count)
+				.mapToObj(id -> "{ update_id: " + id + " }")
+				.collect(Collectors.joining(", "));
+
+		return new MockResponse.Builder().body("{ ok: true, result: [" + updates + "] }").build();
+	}
+}
@@ -66,6 +66,22 @@ public final class MockResponses {
 			}
 			""").build();
 
+	static final String HELP_UPDATE = """
+			{
+				update_id: 1,
+				message: {
+					message_id: 1,
+					from: {
+						id: 123456
+					},
+					chat: {
+						id: 1
+					},
+					text: "/help"
+				}
+			}
+			""";
+
 	static final MockResponse PRIVACY_MESSAGE = new MockResponse.Builder().body("""
 			{
 				ok: true,
@@ -205,6 +221,68 @@ public final class MockResponses {
 			}
 			""").build();
 
+	static final MockResponse DUPLICATED_PNG_FILE = new MockResponse.Builder().body("""
+			{
+				ok: true,
+				result: [
+					{
+						update_id: 1,
+						message: {
+							message_id: 1,
+							from: {
+								id: 123456
+							},
+							chat: {
+								id: 1
+							},
+							photo: [
+								{
+									file_id: "big.png",
+									file_unique_id: "big_png",
+									file_size: 200000
+								}
+							]
+						}
+					},
+					{
+						update_id: 2,
+						message: {
+							message_id: 2,
+							from: {
+								id: 654321
+							},
+							chat: {
+								id: 2
+							},
+							photo: [
+								{
+									file_id: "forwarded_big.png",
+									file_unique_id: "big_png",
+									file_size: 200000
+								}
+							]
+						}
+					}
+				]
+			}
+			""").build();
+
+	static final MockResponse CONVERTED_DOCUMENT = new MockResponse.Builder().body("""
+			{
+				ok: true,
+				result: {
+					message_id: 3,
+					chat: {
+						id: 1
+					},
+					document: {
+						file_id: "converted_sticker.webp",
+						file_unique_id: "converted_sticker"
+					}
+				}
+			}
+			""").build();
+
 	static final MockResponse WEBP_FILE = new MockResponse.Builder().body("""
 			{
 				ok: true,
@@ -383,6 +461,17 @@ public final class MockResponses {
 		}
 	}
 
+	static MockResponse fileDownloadDeclaringSize(long declaredSize) {
+		return new MockResponse.Builder().body("content").setHeader("Content-Length", declaredSize).build();
+	}
+
+	static MockResponse chunkedFileDownload(int size) {
+		try (var buffer = new Buffer()) {
+			buffer.write(new byte[size]);
+			return new MockResponse.Builder().chunkedBody(buffer, 64 * 1024).build();
+		}
+	}
+
 	private MockResponses() {
 		throw new UnsupportedOperationException();
 	}
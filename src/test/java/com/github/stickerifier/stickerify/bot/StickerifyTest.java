@@ -1,36 +1,69 @@
 package com.github.stickerifier.stickerify.bot;
 
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static com.github.stickerifier.stickerify.telegram.model.TelegramFile.MAX_DOWNLOADABLE_FILE_SIZE_IN_BYTES;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.cache.ConversionCache;
+import com.github.stickerifier.stickerify.cache.ConversionStore;
+import com.github.stickerifier.stickerify.cache.InFlightConversions;
+import com.github.stickerifier.stickerify.cache.StoredConversion;
+import com.github.stickerifier.stickerify.dispatch.CpuQuotas;
+import com.github.stickerifier.stickerify.dispatch.RequestDispatcher;
 import com.github.stickerifier.stickerify.junit.ClearTempFiles;
 import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.queue.InMemoryWorkQueue;
+import com.github.stickerifier.stickerify.queue.WorkQueue;
 import com.github.stickerifier.stickerify.telegram.Answer;
+import com.github.stickerifier.stickerify.telegram.RateLimiter;
 import com.google.gson.JsonParser;
 import com.pengrad.telegrambot.TelegramBot;
+import mockwebserver3.MockResponse;
 import mockwebserver3.MockWebServer;
 import mockwebserver3.QueueDispatcher;
 import mockwebserver3.RecordedRequest;
 import mockwebserver3.junit5.StartStop;
+import org.jspecify.annotations.Nullable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 @Tag(Tags.TELEGRAM_API)
 @ClearTempFiles
 class StickerifyTest {
 
+	private static final String WEBHOOK_SECRET = "webhook-secret";
+
 	@StartStop
 	private final MockWebServer server = new MockWebServer();
 
 	@BeforeEach
 	void setup() {
-		((QueueDispatcher) server.getDispatcher()).setFailFast(MockResponses.SUCCESS_RESPONSE);
+		var dispatcher = new QueueDispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+				// the webhook is deleted before polling, without taking the responses enqueued by the test
+				return "/api/token/deleteWebhook".equals(request.getTarget()) ? MockResponses.SUCCESS_RESPONSE : super.dispatch(request);
+			}
+		};
+		dispatcher.setFailFast(MockResponses.SUCCESS_RESPONSE);
+		server.setDispatcher(dispatcher);
 	}
 
 	@Test
@@ -47,14 +80,64 @@ class StickerifyTest {
 		}
 	}
 
-	private Stickerify runBot() {
-		var bot = new TelegramBot.Builder("token")
+	private Stickerify runBot() throws InterruptedException {
+		return runBot(ReplyMode.STANDARD);
+	}
+
+	private Stickerify runBot(ReplyMode replyMode) throws InterruptedException {
+		var bot = runBot(new LongPolling(), replyMode);
+		assertEquals("/api/token/deleteWebhook", server.takeRequest().getTarget());
+
+		return bot;
+	}
+
+	private Stickerify runBot(UpdateSource updateSource, ReplyMode replyMode) {
+		return new Stickerify(newTelegramBot(), Runnable::run, updateSource, replyMode);
+	}
+
+	private Stickerify runBot(Role role, WorkQueue workQueue) throws InterruptedException {
+		return runBot(Executors.newVirtualThreadPerTaskExecutor(), role, workQueue, null);
+	}
+
+	private Stickerify runBot(ConversionStore conversionStore) throws InterruptedException {
+		return runBot(Runnable::run, Role.STANDALONE, null, conversionStore);
+	}
+
+	private Stickerify runBot(Executor executor, Role role, @Nullable WorkQueue workQueue, @Nullable ConversionStore conversionStore) throws InterruptedException {
+		var bot = new Stickerify(newTelegramBot(), executor, new LongPolling(), null, role, workQueue,
+				new ConversionCache(100, Duration.ofHours(1)), conversionStore, new InFlightConversions(),
+				new RequestDispatcher(executor, 4, 1, 16, Long.MAX_VALUE), new Handoff(Duration.ZERO, null),
+				new CpuQuotas(Duration.ZERO, Duration.ZERO), new RateLimiter(), ReplyMode.STANDARD);
+		bot.start();
+
+		if (role != Role.WORKER) {
+			assertEquals("/api/token/deleteWebhook", server.takeRequest().getTarget());
+		}
+
+		return bot;
+	}
+
+	private TelegramBot newTelegramBot() {
+		return new TelegramBot.Builder("token")
 				.apiUrl(server.url("api/").toString())
 				.fileApiUrl(server.url("files/").toString())
-				.updateListenerSleep(500)
 				.build();
+	}
+
+	private static int postUpdate(WebhookServer webhook, @Nullable String secretToken, String update) throws Exception {
+		var address = webhook.address();
+		var connection = (HttpURLConnection) URI.create("http://localhost:" + address.getPort() + "/webhook").toURL().openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		if (secretToken != null) {
+			connection.setRequestProperty(WebhookServer.SECRET_TOKEN_HEADER, secretToken);
+		}
 
-		return new Stickerify(bot, Runnable::run);
+		try (var body = connection.getOutputStream()) {
+			body.write(update.getBytes(UTF_8));
+		}
+
+		return connection.getResponseCode();
 	}
 
 	private static void assertResponseContainsMarkdownMessage(RecordedRequest request, Answer answer) {
@@ -99,6 +182,67 @@ class StickerifyTest {
 		}
 	}
 
+	@Test
+	void helpMessageFromPollerToWorker() throws Exception {
+		server.enqueue(MockResponses.HELP_MESSAGE);
+		var workQueue = new InMemoryWorkQueue(Duration.ofMinutes(1));
+
+		try (var _ = runBot(Role.WORKER, workQueue); var _ = runBot(Role.POLLER, workQueue)) {
+			var getUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", getUpdates.getTarget());
+
+			RecordedRequest answer;
+			do {
+				answer = server.takeRequest();
+			} while ("/api/token/getUpdates".equals(answer.getTarget()));
+
+			assertEquals("/api/token/sendRichMessage", answer.getTarget());
+			assertResponseContainsMarkdownMessage(answer, Answer.HELP);
+			assertEquals(1, workQueue.stats().offered());
+			assertEquals(1, workQueue.stats().claimed());
+		}
+	}
+
+	@Test
+	void helpMessageFromWebhook() throws Exception {
+		var webhook = new WebhookServer("https://example.com/webhook", 0, WEBHOOK_SECRET);
+
+		try (var _ = runBot(webhook, ReplyMode.STANDARD)) {
+			var setWebhook = server.takeRequest();
+			assertEquals("/api/token/setWebhook", setWebhook.getTarget());
+			assertNotNull(setWebhook.getBody());
+			assertThat(setWebhook.getBody().utf8(), containsString("secret_token=" + WEBHOOK_SECRET));
+
+			assertEquals(200, postUpdate(webhook, WEBHOOK_SECRET, MockResponses.HELP_UPDATE));
+
+			var sendRichMessage = server.takeRequest();
+			assertEquals("/api/token/sendRichMessage", sendRichMessage.getTarget());
+			assertResponseContainsMarkdownMessage(sendRichMessage, Answer.HELP);
+		}
+	}
+
+	@Test
+	void webhookFailsToStartWhenTelegramRefusesIt() {
+		server.enqueue(MockResponses.FAILURE_RESPONSE);
+		var webhook = new WebhookServer("https://example.com/webhook", 0, WEBHOOK_SECRET);
+
+		assertThrows(IllegalStateException.class, () -> runBot(webhook, ReplyMode.STANDARD));
+	}
+
+	@Test
+	void webhookRefusesWrongSecretToken() throws Exception {
+		var webhook = new WebhookServer("https://example.com/webhook", 0, WEBHOOK_SECRET);
+
+		try (var _ = runBot(webhook, ReplyMode.STANDARD)) {
+			var setWebhook = server.takeRequest();
+			assertEquals("/api/token/setWebhook", setWebhook.getTarget());
+
+			assertEquals(401, postUpdate(webhook, null, MockResponses.HELP_UPDATE));
+			assertEquals(401, postUpdate(webhook, "wrong", MockResponses.HELP_UPDATE));
+			assertEquals(1, server.getRequestCount());
+		}
+	}
+
 	@Test
 	void privacyMessage() throws Exception {
 		server.enqueue(MockResponses.PRIVACY_MESSAGE);
@@ -155,6 +299,81 @@ class StickerifyTest {
 		}
 	}
 
+	@Test
+	void downloadDeclaringTooLargeSize() throws Exception {
+		server.enqueue(MockResponses.PNG_FILE);
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.fileInfo("big.png"));
+		server.enqueue(MockResponses.fileDownloadDeclaringSize(MAX_DOWNLOADABLE_FILE_SIZE_IN_BYTES + 1));
+
+		assertDownloadTooLarge();
+	}
+
+	@Test
+	void downloadStreamingTooLargeContent() throws Exception {
+		server.enqueue(MockResponses.PNG_FILE);
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.fileInfo("big.png"));
+		server.enqueue(MockResponses.chunkedFileDownload((int) MAX_DOWNLOADABLE_FILE_SIZE_IN_BYTES + 1));
+
+		assertDownloadTooLarge();
+	}
+
+	private void assertDownloadTooLarge() throws Exception {
+		try (var _ = runBot()) {
+			var getUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", getUpdates.getTarget());
+
+			var sendRichMessageDraft = server.takeRequest();
+			assertEquals("/api/token/sendRichMessageDraft", sendRichMessageDraft.getTarget());
+
+			var getFile = server.takeRequest();
+			assertEquals("/api/token/getFile", getFile.getTarget());
+
+			var download = server.takeRequest();
+			assertEquals("/files/token/big.png", download.getTarget());
+
+			var sendRichMessage = server.takeRequest();
+			assertEquals("/api/token/sendRichMessage", sendRichMessage.getTarget());
+			assertResponseContainsMarkdownMessage(sendRichMessage, Answer.FILE_TOO_LARGE);
+		}
+	}
+
+	@Test
+	void downloadedContentDigestFindsStoredConversion(@TempDir Path storeDirectory) throws Exception {
+		var content = Files.readAllBytes(loadResource("big.png").toPath());
+		var conversionStore = ConversionStore.open(storeDirectory, 4L << 20);
+		conversionStore.put(MessageDigest.getInstance("SHA-256").digest(content), new StoredConversion.Converted("webp", "stored conversion".getBytes(UTF_8)));
+
+		server.enqueue(MockResponses.PNG_FILE);
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.fileInfo("big.png"));
+		server.enqueue(MockResponses.fileDownload("big.png"));
+
+		try (var _ = runBot(conversionStore)) {
+			var getUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", getUpdates.getTarget());
+
+			var sendRichMessageDraft = server.takeRequest();
+			assertEquals("/api/token/sendRichMessageDraft", sendRichMessageDraft.getTarget());
+
+			var getFile = server.takeRequest();
+			assertEquals("/api/token/getFile", getFile.getTarget());
+
+			var download = server.takeRequest();
+			assertEquals("/files/token/big.png", download.getTarget());
+
+			var sendDocument = server.takeRequest();
+			assertEquals("/api/token/sendDocument", sendDocument.getTarget());
+			assertNotNull(sendDocument.getBody());
+			assertThat(sendDocument.getBody().utf8(), containsString("stored conversion"));
+
+			var sendRichMessage = server.takeRequest();
+			assertEquals("/api/token/sendRichMessage", sendRichMessage.getTarget());
+			assertResponseContainsMarkdownMessage(sendRichMessage, Answer.FILE_READY);
+		}
+	}
+
 	@Test
 	void fileAlreadyValid() throws Exception {
 		server.enqueue(MockResponses.ANIMATED_STICKER);
@@ -216,6 +435,71 @@ class StickerifyTest {
 		}
 	}
 
+	@Test
+	void compactReplyToConvertedPng() throws Exception {
+		server.enqueue(MockResponses.PNG_FILE);
+		server.enqueue(MockResponses.fileInfo("big.png"));
+		server.enqueue(MockResponses.fileDownload("big.png"));
+
+		try (var _ = runBot(new ReplyMode(true, Duration.ofMinutes(1)))) {
+			var getUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", getUpdates.getTarget());
+
+			var getFile = server.takeRequest();
+			assertEquals("/api/token/getFile", getFile.getTarget());
+
+			var download = server.takeRequest();
+			assertEquals("/files/token/big.png", download.getTarget());
+
+			var sendDocument = server.takeRequest();
+			assertEquals("/api/token/sendDocument", sendDocument.getTarget());
+			assertNotNull(sendDocument.getBody());
+			assertThat(sendDocument.getBody().utf8(), containsString(Answer.FILE_READY.getText()));
+
+			var nextGetUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", nextGetUpdates.getTarget());
+		}
+	}
+
+	@Test
+	void convertedFileReused() throws Exception {
+		server.enqueue(MockResponses.DUPLICATED_PNG_FILE);
+		server.enqueue(MockResponses.SUCCESS_RESPONSE);
+		server.enqueue(MockResponses.fileInfo("big.png"));
+		server.enqueue(MockResponses.fileDownload("big.png"));
+		server.enqueue(MockResponses.CONVERTED_DOCUMENT);
+
+		try (var _ = runBot()) {
+			var getUpdates = server.takeRequest();
+			assertEquals("/api/token/getUpdates", getUpdates.getTarget());
+
+			var sendRichMessageDraft = server.takeRequest();
+			assertEquals("/api/token/sendRichMessageDraft", sendRichMessageDraft.getTarget());
+
+			var getFile = server.takeRequest();
+			assertEquals("/api/token/getFile", getFile.getTarget());
+
+			var download = server.takeRequest();
+			assertEquals("/files/token/big.png", download.getTarget());
+
+			var sendDocument = server.takeRequest();
+			assertEquals("/api/token/sendDocument", sendDocument.getTarget());
+
+			var sendRichMessage = server.takeRequest();
+			assertEquals("/api/token/sendRichMessage", sendRichMessage.getTarget());
+			assertResponseContainsMarkdownMessage(sendRichMessage, Answer.FILE_READY);
+
+			var resendDocument = server.takeRequest();
+			assertEquals("/api/token/sendDocument", resendDocument.getTarget());
+			assertNotNull(resendDocument.getBody());
+			assertThat(resendDocument.getBody().utf8(), containsString("document=converted_sticker.webp"));
+
+			var secondSendRichMessage = server.takeRequest();
+			assertEquals("/api/token/sendRichMessage", secondSendRichMessage.getTarget());
+			assertResponseContainsMarkdownMessage(secondSendRichMessage, Answer.FILE_READY);
+		}
+	}
+
 	@Test
 	void convertedWebp() throws Exception {
 		server.enqueue(MockResponses.WEBP_FILE);
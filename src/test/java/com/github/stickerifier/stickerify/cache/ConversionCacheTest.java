@@ -0,0 +1,48 @@
+package com.github.stickerifier.stickerify.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.cache.ConversionCache.Stats;
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+@Tag(Tags.CACHE)
+class ConversionCacheTest {
+
+	@Test
+	void leastRecentlyUsedResultIsEvicted() {
+		var cache = new ConversionCache(2, Duration.ofHours(1));
+		cache.put("first", ConversionResult.ALREADY_VALID);
+		cache.put("second", ConversionResult.UNSUPPORTED);
+		cache.get("first");
+		cache.put("third", new ConversionResult.Converted("converted"));
+
+		assertThat(cache.get("first"), is(equalTo(ConversionResult.ALREADY_VALID)));
+		assertThat(cache.get("second"), is(nullValue()));
+		assertThat(cache.get("third"), is(equalTo(new ConversionResult.Converted("converted"))));
+		assertThat(cache.stats(), is(equalTo(new Stats(3, 1, 1, 2, 2))));
+	}
+
+	@Test
+	void expiredResultIsDiscarded() {
+		var cache = new ConversionCache(2, Duration.ZERO);
+		cache.put("file", ConversionResult.ALREADY_VALID);
+
+		assertThat(cache.get("file"), is(nullValue()));
+		assertThat(cache.stats(), is(equalTo(new Stats(0, 1, 1, 0, 2))));
+	}
+
+	@Test
+	void disabledCacheStoresNothing() {
+		var cache = new ConversionCache(0, Duration.ofHours(1));
+		cache.put("file", ConversionResult.ALREADY_VALID);
+
+		assertThat(cache.get("file"), is(nullValue()));
+	}
+}
@@ -0,0 +1,173 @@
+package com.github.stickerifier.stickerify.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+
+@Tag(Tags.CACHE)
+class ConversionStoreTest {
+
+	private static final long MAX_SIZE_BYTES = 4L << 20;
+
+	@TempDir
+	private Path directory;
+
+	@Test
+	void storedConversionIsRetrieved() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			store.put(digest("valid"), StoredConversion.ALREADY_VALID);
+			store.put(digest("converted"), new StoredConversion.Converted("webp", new byte[] { 1, 2, 3 }));
+
+			assertThat(store.get(digest("valid")), is(equalTo(StoredConversion.ALREADY_VALID)));
+			assertConverted(store.get(digest("converted")), "webp", new byte[] { 1, 2, 3 });
+			assertThat(store.get(digest("missing")), is(nullValue()));
+			assertThat(store.stats(), is(equalTo(new ConversionStore.Stats(2, 1, 0, 2, 3, MAX_SIZE_BYTES))));
+		}
+	}
+
+	@Test
+	void storedConversionSurvivesRestart() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			store.put(digest("converted"), new StoredConversion.Converted("webm", new byte[] { 4, 5 }));
+		}
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			assertConverted(store.get(digest("converted")), "webm", new byte[] { 4, 5 });
+		}
+	}
+
+	@Test
+	void oldestConversionsAreEvicted() throws Exception {
+		var content = new byte[900 * 1024];
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			for (int i = 0; i < 6; i++) {
+				store.put(digest("file" + i), new StoredConversion.Converted("webp", content));
+			}
+
+			assertThat(store.get(digest("file0")), is(nullValue()));
+			assertThat(store.get(digest("file5")), is(notNullValue()));
+
+			var stats = store.stats();
+			assertThat(stats.evictions(), is(equalTo(2L)));
+			assertThat(stats.sizeBytes() <= MAX_SIZE_BYTES, is(true));
+		}
+	}
+
+	@Test
+	void indexIsFreedOnceMostSlotsAreUsed() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				for (int i = 0; i < 2000; i++) {
+					store.put(digest("valid" + i), StoredConversion.ALREADY_VALID);
+				}
+			});
+
+			assertThat(store.get(digest("valid1999")), is(equalTo(StoredConversion.ALREADY_VALID)));
+
+			var stats = store.stats();
+			assertThat(stats.evictions() > 0, is(true));
+			assertThat(stats.entries() < 768, is(true));
+		}
+	}
+
+	@Test
+	void rebuiltIndexReplacesTheOldOne() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			for (int i = 0; i < 2000; i++) {
+				store.put(digest("valid" + i), StoredConversion.ALREADY_VALID);
+			}
+		}
+
+		assertThat(Files.exists(directory.resolve("index.rebuilt")), is(false));
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			assertThat(store.get(digest("valid1999")), is(equalTo(StoredConversion.ALREADY_VALID)));
+			assertThat(store.get(digest("valid0")), is(nullValue()));
+		}
+	}
+
+	@Test
+	void conversionPromotedWhileItsSegmentIsEvictedIsKept() throws Exception {
+		var content = new byte[900 * 1024];
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			for (int i = 0; i < 4; i++) {
+				store.put(digest("file" + i), new StoredConversion.Converted("webp", content));
+			}
+
+			// promoting the oldest file starts a new segment, which evicts the segment of the file itself
+			assertThat(store.get(digest("file0")), is(notNullValue()));
+
+			var stored = 0;
+			for (int i = 0; i < 4; i++) {
+				if (store.get(digest("file" + i)) != null) {
+					stored++;
+				}
+			}
+
+			assertThat(store.get(digest("file0")), is(notNullValue()));
+			assertThat(store.stats().entries(), is(equalTo(stored)));
+		}
+	}
+
+	@Test
+	void conversionWithMissingDataIsDiscarded() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			store.put(digest("converted"), new StoredConversion.Converted("webp", new byte[] { 1, 2, 3 }));
+		}
+
+		truncateSegments();
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			assertThat(store.get(digest("converted")), is(nullValue()));
+			assertThat(store.stats().entries(), is(equalTo(0)));
+		}
+	}
+
+	@Test
+	void storeWithDifferentCapacityIsReset() throws Exception {
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES)) {
+			store.put(digest("valid"), StoredConversion.ALREADY_VALID);
+		}
+
+		try (var store = ConversionStore.open(directory, MAX_SIZE_BYTES * 64)) {
+			assertThat(store.get(digest("valid")), is(nullValue()));
+		}
+	}
+
+	private void truncateSegments() throws IOException {
+		try (var files = Files.list(directory)) {
+			for (var file : files.filter(path -> path.getFileName().toString().startsWith("segment-")).toList()) {
+				Files.write(file, new byte[0]);
+			}
+		}
+	}
+
+	private static void assertConverted(StoredConversion conversion, String fileExtension, byte[] content) {
+		assertThat(conversion, is(instanceOf(StoredConversion.Converted.class)));
+
+		var converted = (StoredConversion.Converted) conversion;
+		assertThat(converted.fileExtension(), is(equalTo(fileExtension)));
+		assertThat(converted.content(), is(equalTo(content)));
+	}
+
+	private static byte[] digest(String content) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(content.getBytes());
+	}
+}
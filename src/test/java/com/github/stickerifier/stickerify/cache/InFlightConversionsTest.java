@@ -0,0 +1,102 @@
+package com.github.stickerifier.stickerify.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.cache.InFlightConversions.Follower;
+import com.github.stickerifier.stickerify.cache.InFlightConversions.Leader;
+import com.github.stickerifier.stickerify.cache.InFlightConversions.Stats;
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Tag(Tags.CACHE)
+class InFlightConversionsTest {
+
+	@Test
+	void followersReceiveLeaderResult() throws Exception {
+		var conversions = new InFlightConversions();
+		var leader = (Leader) conversions.join("file");
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var followers = new Future<?>[3];
+			for (int i = 0; i < followers.length; i++) {
+				var follower = (Follower) conversions.join("file");
+				followers[i] = executor.submit(follower::await);
+			}
+
+			var result = new ConversionResult.Converted("converted");
+			leader.complete(result);
+
+			for (var follower : followers) {
+				assertThat(follower.get(), is(equalTo(result)));
+			}
+		}
+
+		assertThat(conversions.stats(), is(equalTo(new Stats(1, 3, 0))));
+	}
+
+	@Test
+	void completedConversionIsStartedAgain() {
+		var conversions = new InFlightConversions();
+		((Leader) conversions.join("file")).complete(null);
+
+		assertThat(conversions.join("file"), is(instanceOf(Leader.class)));
+	}
+
+	@Test
+	void failedConversionIsReportedToFollowers() throws Exception {
+		var conversions = new InFlightConversions();
+		var leader = (Leader) conversions.join("file");
+		var follower = (Follower) conversions.join("file");
+
+		leader.complete(null);
+
+		assertThat(follower.await(), is(nullValue()));
+	}
+
+	@Test
+	void followersOfFailedConversionElectNewLeader() throws Exception {
+		var conversions = new InFlightConversions();
+		var leader = (Leader) conversions.join("file");
+		var followers = new Follower[] { (Follower) conversions.join("file"), (Follower) conversions.join("file") };
+
+		leader.complete(null);
+
+		for (var follower : followers) {
+			assertThat(follower.await(), is(nullValue()));
+		}
+
+		var newLeader = conversions.join("file");
+		var newFollower = conversions.join("file");
+		assertThat(newLeader, is(instanceOf(Leader.class)));
+		assertThat(newFollower, is(instanceOf(Follower.class)));
+
+		((Leader) newLeader).complete(ConversionResult.ALREADY_VALID);
+
+		assertThat(((Follower) newFollower).await(), is(equalTo(ConversionResult.ALREADY_VALID)));
+		assertThat(conversions.stats(), is(equalTo(new Stats(2, 3, 0))));
+	}
+
+	@Test
+	void interruptedFollowerDoesNotAffectOthers() throws Exception {
+		var conversions = new InFlightConversions();
+		var leader = (Leader) conversions.join("file");
+		var interruptedFollower = (Follower) conversions.join("file");
+		var follower = (Follower) conversions.join("file");
+
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, interruptedFollower::await);
+
+		leader.complete(ConversionResult.ALREADY_VALID);
+
+		assertThat(follower.await(), is(equalTo(ConversionResult.ALREADY_VALID)));
+	}
+}
@@ -0,0 +1,78 @@
+package com.github.stickerifier.stickerify.dispatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.dispatch.CpuQuotas.Stats;
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+@Tag(Tags.CONCURRENT)
+class CpuQuotasTest {
+
+	private static final long USER = 1;
+	private static final long OTHER_USER = 2;
+	private static final Duration BURST = Duration.ofMinutes(1);
+	private static final Duration RATE_PER_MINUTE = Duration.ofSeconds(30);
+
+	private long now;
+	private final CpuQuotas quotas = new CpuQuotas(BURST, RATE_PER_MINUTE, () -> now);
+
+	@Test
+	void burstIsAllowed() {
+		quotas.charge(USER, BURST);
+
+		assertThat(quotas.overBudget(USER), is(equalTo(Duration.ZERO)));
+	}
+
+	@Test
+	void overspendingWaitsForRefill() {
+		quotas.charge(USER, BURST.plusSeconds(15));
+
+		assertThat(quotas.overBudget(USER), is(equalTo(Duration.ofSeconds(30))));
+		assertThat(quotas.overBudget(OTHER_USER), is(equalTo(Duration.ZERO)));
+
+		advance(Duration.ofSeconds(30));
+
+		assertThat(quotas.overBudget(USER), is(equalTo(Duration.ZERO)));
+	}
+
+	@Test
+	void idleTimeRefillsUpToBurst() {
+		quotas.charge(USER, BURST);
+		advance(Duration.ofMinutes(10));
+
+		quotas.charge(USER, BURST);
+		assertThat(quotas.overBudget(USER), is(equalTo(Duration.ZERO)));
+
+		quotas.charge(USER, Duration.ofSeconds(1));
+		assertThat(quotas.overBudget(USER), is(equalTo(Duration.ofSeconds(2))));
+	}
+
+	@Test
+	void zeroBurstDisablesQuotas() {
+		var disabled = new CpuQuotas(Duration.ZERO, RATE_PER_MINUTE, () -> now);
+
+		disabled.charge(USER, Duration.ofHours(1));
+
+		assertThat(disabled.overBudget(USER), is(equalTo(Duration.ZERO)));
+	}
+
+	@Test
+	void statsCountChargesAndThrottles() {
+		quotas.charge(USER, BURST);
+		quotas.charge(USER, Duration.ofSeconds(1));
+		quotas.overBudget(USER);
+		quotas.overBudget(OTHER_USER);
+
+		assertThat(quotas.stats(), is(equalTo(new Stats(1, BURST.plusSeconds(1), 1))));
+	}
+
+	private void advance(Duration duration) {
+		now += duration.toNanos();
+	}
+}
@@ -0,0 +1,147 @@
+package com.github.stickerifier.stickerify.dispatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.dispatch.RequestDispatcher.Stats;
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+@Tag(Tags.CONCURRENT)
+class RequestDispatcherTest {
+
+	private static final long HEAVY_CHAT = 1;
+	private static final long LIGHT_CHAT = 2;
+
+	private final ManualExecutor executor = new ManualExecutor();
+	private final List<String> completed = new ArrayList<>();
+
+	@Test
+	void chatsAreServedInTurn() {
+		var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+		for (int i = 1; i <= 4; i++) {
+			submit(dispatcher, HEAVY_CHAT, 0, "heavy" + i);
+		}
+		submit(dispatcher, LIGHT_CHAT, 0, "light");
+
+		executor.runAll();
+
+		assertThat(completed, contains("heavy1", "heavy2", "light", "heavy3", "heavy4"));
+	}
+
+	@Test
+	void largerFilesTakeMoreTurns() {
+		var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+		submit(dispatcher, HEAVY_CHAT, 0, "first");
+		submit(dispatcher, HEAVY_CHAT, 3 * RequestDispatcher.QUANTUM_BYTES, "large");
+		for (int i = 1; i <= 4; i++) {
+			submit(dispatcher, LIGHT_CHAT, RequestDispatcher.QUANTUM_BYTES, "small" + i);
+		}
+
+		executor.runAll();
+
+		assertThat(completed, contains("first", "small1", "small2", "large", "small3", "small4"));
+	}
+
+	@Test
+	void requestsOfTheSameChatAreCapped() {
+		var dispatcher = new RequestDispatcher(executor, 4, 2, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+		for (int i = 1; i <= 3; i++) {
+			submit(dispatcher, HEAVY_CHAT, 0, "heavy" + i);
+		}
+
+		assertThat(executor.tasks.size(), is(equalTo(2)));
+		assertThat(dispatcher.stats(), is(equalTo(new Stats(3, 0, 2, 2, 1, 0, 1))));
+
+		executor.runAll();
+
+		assertThat(dispatcher.stats(), is(equalTo(new Stats(3, 0, 3, 0, 0, 0, 0))));
+	}
+
+	@Test
+	void requestsPastTheInFlightLimitAreShed() {
+		var dispatcher = new RequestDispatcher(executor, 1, 1, 2, Long.MAX_VALUE);
+
+		assertThat(dispatcher.submit(HEAVY_CHAT, 0, () -> {}), is(true));
+		assertThat(dispatcher.submit(HEAVY_CHAT, 0, () -> {}), is(true));
+		assertThat(dispatcher.submit(LIGHT_CHAT, 0, () -> {}), is(false));
+
+		assertThat(dispatcher.stats(), is(equalTo(new Stats(2, 1, 1, 1, 1, 0, 1))));
+
+		executor.runAll();
+
+		assertThat(dispatcher.submit(LIGHT_CHAT, 0, () -> {}), is(true));
+	}
+
+	@Test
+	void requestsPastTheInFlightBytesAreShed() {
+		var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, 1000);
+
+		assertThat(dispatcher.submit(HEAVY_CHAT, 2000, () -> {}), is(true));
+		assertThat(dispatcher.submit(LIGHT_CHAT, 1, () -> {}), is(false));
+
+		executor.runAll();
+
+		assertThat(dispatcher.submit(LIGHT_CHAT, 600, () -> {}), is(true));
+		assertThat(dispatcher.submit(LIGHT_CHAT, 400, () -> {}), is(true));
+		assertThat(dispatcher.submit(HEAVY_CHAT, 1, () -> {}), is(false));
+		assertThat(dispatcher.stats().inFlightBytes(), is(equalTo(1000L)));
+	}
+
+	@Test
+	void closedDispatcherRejectsRequests() throws Exception {
+		var dispatcher = new RequestDispatcher(Runnable::run, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+		dispatcher.close();
+
+		assertThrows(IllegalStateException.class, () -> dispatcher.submit(HEAVY_CHAT, 0, () -> {}));
+	}
+
+	@Test
+	void drainGivesUpOnceTheTimeoutElapses() throws Exception {
+		var dispatcher = new RequestDispatcher(executor, 1, 1, Integer.MAX_VALUE, Long.MAX_VALUE);
+		submit(dispatcher, HEAVY_CHAT, 0, "running");
+
+		assertThat(dispatcher.drain(Duration.ofMillis(10)), is(false));
+		assertThrows(IllegalStateException.class, () -> dispatcher.submit(LIGHT_CHAT, 0, () -> {}));
+
+		executor.runAll();
+
+		assertThat(dispatcher.drain(Duration.ZERO), is(true));
+	}
+
+	private void submit(RequestDispatcher dispatcher, long chatId, long fileSize, String name) {
+		dispatcher.submit(chatId, fileSize, () -> completed.add(name));
+	}
+
+	/**
+	 * Collects the started requests, to run them one at a time in order.
+	 */
+	private static final class ManualExecutor implements Executor {
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		private void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.poll().run();
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.github.stickerifier.stickerify.journal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.utility.BotUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+@Tag(Tags.TELEGRAM_API)
+class UpdateJournalTest {
+
+	private static final long CAPACITY = 4096;
+
+	@TempDir
+	private Path directory;
+
+	private Path journalFile() {
+		return directory.resolve("updates.journal");
+	}
+
+	@Test
+	void unansweredUpdatesAreRecovered() throws IOException {
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			journal.accept(List.of(update(1), update(2), update(3)));
+			journal.complete(2);
+		}
+
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			assertThat(updateIds(journal.recoveredUpdates()), contains(1, 3));
+			assertThat(journal.recoveredUpdates().getFirst().message().text(), is(equalTo("/start 1")));
+		}
+	}
+
+	@Test
+	void answeredUpdatesAreNotRecovered() throws IOException {
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			journal.accept(List.of(update(1), update(2)));
+			journal.complete(1);
+			journal.complete(2);
+		}
+
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			assertThat(journal.recoveredUpdates(), is(empty()));
+		}
+	}
+
+	@Test
+	void updatesAlreadyInTheJournalAreNotAcceptedAgain() throws IOException {
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			journal.accept(List.of(update(1)));
+		}
+
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			var accepted = journal.accept(List.of(update(1), update(2)));
+
+			assertThat(updateIds(accepted), contains(2));
+			assertThat(journal.stats().pending(), is(equalTo(2)));
+		}
+	}
+
+	@Test
+	void incompleteRecordEndsTheJournal() throws IOException {
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			journal.accept(List.of(update(1)));
+			journal.accept(List.of(update(2)));
+		}
+
+		var content = Files.readAllBytes(journalFile());
+		var secondUpdate = new String(content, UTF_8).indexOf("/start 2");
+		content[secondUpdate] ^= 1;
+		Files.write(journalFile(), content);
+
+		try (var journal = UpdateJournal.open(journalFile(), CAPACITY)) {
+			assertThat(updateIds(journal.recoveredUpdates()), contains(1));
+		}
+	}
+
+	@Test
+	void fullJournalIsRewrittenWithPendingUpdates() throws IOException {
+		try (var journal = UpdateJournal.open(journalFile(), 256)) {
+			journal.accept(List.of(update(0)));
+			for (int i = 1; i <= 50; i++) {
+				journal.accept(List.of(update(i)));
+				journal.complete(i);
+			}
+
+			assertThat(journal.stats().rewrites(), is(greaterThan(1L)));
+		}
+
+		try (var journal = UpdateJournal.open(journalFile(), 256)) {
+			assertThat(updateIds(journal.recoveredUpdates()), contains(0));
+		}
+	}
+
+	private static Update update(int updateId) {
+		return BotUtils.parseUpdate("""
+				{
+					update_id: %d,
+					message: {
+						message_id: %1$d,
+						from: {
+							id: 123456
+						},
+						chat: {
+							id: 1
+						},
+						text: "/start %1$d"
+					}
+				}
+				""".formatted(updateId));
+	}
+
+	private static List<Integer> updateIds(List<Update> updates) {
+		return updates.stream().map(Update::updateId).toList();
+	}
+}
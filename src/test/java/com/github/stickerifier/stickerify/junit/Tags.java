@@ -2,6 +2,7 @@ package com.github.stickerifier.stickerify.junit;
 
 public final class Tags {
 	public static final String ANIMATED_STICKER = "AnimatedSticker";
+	public static final String CACHE = "Cache";
 	public static final String CONCURRENT = "Concurrent";
 	public static final String IMAGE = "Image";
 	public static final String LOG = "Log";
@@ -0,0 +1,167 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_VIDEO_FILE_SIZE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.media.BitratePlanner.Stats;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.VIDEO)
+class BitratePlannerTest {
+
+	private static final int LIBVPX_RECORD_FIELDS = 27;
+	private static final double FRAME_DURATION_TICKS = 380_000;
+
+	@TempDir
+	private Path directory;
+
+	@ParameterizedTest
+	@ValueSource(ints = { LIBVPX_RECORD_FIELDS, LIBVPX_RECORD_FIELDS + 1 })
+	void totalsAreReadWhateverTheRecordSize(int recordFields) throws Exception {
+		var log = writeFirstPassLog(recordFields, 77, 10);
+
+		var summary = BitratePlanner.readFirstPass(log);
+
+		assertThat(summary, is(notNullValue()));
+		assertThat(summary.frames(), is(equalTo(77L)));
+		assertThat(summary.durationSeconds(), is(closeTo(2.926, 0.001)));
+		assertThat(summary.codedError(), is(closeTo(770, 0.001)));
+		assertThat(summary.complexityClass(), is(equalTo(3)));
+	}
+
+	@Test
+	void unreadableStatisticsHaveNoTotals() throws Exception {
+		var log = directory.resolve("passlog-0.log");
+		Files.writeString(log, "not Base64!", US_ASCII);
+
+		assertThat(BitratePlanner.readFirstPass(log), is(nullValue()));
+		assertThat(BitratePlanner.readFirstPass(directory.resolve("missing.log")), is(nullValue()));
+	}
+
+	@Test
+	void unreadableStatisticsGetMaximumBitrate() {
+		var planner = new BitratePlanner(null);
+
+		var plan = planner.plan(directory.resolve("missing.log"));
+
+		assertThat(plan.bitrateKbps(), is(equalTo(BitratePlanner.MAX_BITRATE_KBPS)));
+		assertThat(plan.complexityClass(), is(equalTo(-1)));
+	}
+
+	@Test
+	void overshootLowersBitrateOfSameComplexity() throws Exception {
+		var planner = new BitratePlanner(null);
+		var log = writeFirstPassLog(LIBVPX_RECORD_FIELDS, 77, 10);
+
+		var firstPlan = planner.plan(log);
+		assertThat(firstPlan.bitrateKbps(), is(equalTo(BitratePlanner.MAX_BITRATE_KBPS)));
+
+		planner.record(firstPlan, (long) (firstPlan.predictedBytes() * 1.5));
+		var secondPlan = planner.plan(log);
+
+		assertThat(secondPlan.bitrateKbps(), is(lessThan(firstPlan.bitrateKbps())));
+		assertThat(secondPlan.predictedBytes() * 1.5, is(lessThan((double) MAX_VIDEO_FILE_SIZE)));
+		assertThat(planner.stats(), is(equalTo(new Stats(1, 1))));
+	}
+
+	@Test
+	void unobservedComplexityIsBorderline() throws Exception {
+		var planner = new BitratePlanner(null);
+		var log = writeFirstPassLog(LIBVPX_RECORD_FIELDS, 77, 10);
+
+		var plan = planner.plan(log);
+		assertThat(plan.borderline(), is(true));
+
+		planner.record(plan, (long) plan.predictedBytes());
+
+		assertThat(planner.plan(log).borderline(), is(false));
+	}
+
+	@Test
+	void abortedEncodeCountsAsRetryWithoutCorrectingThePlan() throws Exception {
+		var planner = new BitratePlanner(null);
+		var log = writeFirstPassLog(LIBVPX_RECORD_FIELDS, 77, 10);
+
+		var plan = planner.plan(log);
+		planner.recordAborted();
+
+		assertThat(planner.plan(log), is(equalTo(plan)));
+		assertThat(planner.stats(), is(equalTo(new Stats(1, 1))));
+	}
+
+	@Test
+	void historySurvivesRestarts() throws Exception {
+		var history = directory.resolve("bitrate-history.json");
+		var log = writeFirstPassLog(LIBVPX_RECORD_FIELDS, 77, 10);
+
+		var planner = new BitratePlanner(history);
+		var plan = planner.plan(log);
+		planner.record(plan, (long) (plan.predictedBytes() * 1.5));
+
+		var restartedPlanner = new BitratePlanner(history);
+
+		assertThat(restartedPlanner.plan(log), is(equalTo(planner.plan(log))));
+		assertThat(restartedPlanner.stats(), is(equalTo(planner.stats())));
+	}
+
+	@Test
+	void corruptedHistoryIsIgnored() throws Exception {
+		var history = directory.resolve("bitrate-history.json");
+		Files.writeString(history, "{\"sizeRatios\":", US_ASCII);
+
+		var planner = new BitratePlanner(history);
+
+		assertThat(planner.stats(), is(equalTo(new Stats(0, 0))));
+	}
+
+	/**
+	 * Writes statistics shaped like the ones of libvpx: one record per frame, numbered progressively,
+	 * followed by a record summing all of them.
+	 */
+	private Path writeFirstPassLog(int recordFields, int frames, double codedError) throws Exception {
+		var buffer = ByteBuffer.allocate((frames + 1) * recordFields * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		var total = new double[recordFields];
+
+		for (int frame = 0; frame < frames; frame++) {
+			var record = new double[recordFields];
+			record[0] = frame;
+			record[3] = codedError;
+			record[23] = FRAME_DURATION_TICKS;
+			record[24] = 1;
+
+			for (int field = 0; field < recordFields; field++) {
+				buffer.putDouble(record[field]);
+				total[field] += record[field];
+			}
+		}
+
+		total[23]++;
+		for (var field : total) {
+			buffer.putDouble(field);
+		}
+
+		var log = directory.resolve("passlog-0.log");
+		Files.writeString(log, Base64.getEncoder().encodeToString(buffer.array()), US_ASCII);
+
+		return log;
+	}
+}
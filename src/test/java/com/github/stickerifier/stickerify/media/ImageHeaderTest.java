@@ -0,0 +1,40 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.media.ImageHeader.Dimensions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.IMAGE)
+class ImageHeaderTest {
+
+	@ParameterizedTest
+	@CsvSource({
+			"big.png, 600, 600",
+			"big.jpg, 3800, 2534",
+			"detailed.jpg, 1024, 1024",
+			"static.webp, 512, 1024",
+			"animated.webp, 400, 400",
+			"valid.gif, 112, 60",
+			"favicon.ico, 16, 16"
+	})
+	void dimensionsAreReadFromHeader(String fileName, int expectedWidth, int expectedHeight) throws Exception {
+		var dimensions = ImageHeader.read(loadResource(fileName));
+
+		assertThat(dimensions, is(equalTo(new Dimensions(expectedWidth, expectedHeight))));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "valid.tiff", "document.txt", "animated_sticker.tgs" })
+	void unsupportedFormatHasNoDimensions(String fileName) throws Exception {
+		assertThat(ImageHeader.read(loadResource(fileName)), is(nullValue()));
+	}
+}
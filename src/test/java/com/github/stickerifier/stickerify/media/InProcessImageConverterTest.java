@@ -0,0 +1,51 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_IMAGE_FILE_SIZE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.media.ImageHeader.Dimensions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.ByteBuffer;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.IMAGE)
+class InProcessImageConverterTest {
+
+	@ParameterizedTest
+	@CsvSource({
+			"big.jpg, 512, 341",
+			"detailed.jpg, 512, 512",
+			"big.png, 512, 512",
+			"small_image.png, 512, 512",
+			"valid.png, 512, 512"
+	})
+	void imageIsResizedAndEncoded(String fileName, int expectedWidth, int expectedHeight) throws Exception {
+		var image = loadResource(fileName);
+		var dimensions = ImageHeader.read(image);
+		assertNotNull(dimensions);
+
+		var webpImage = InProcessImageConverter.convert(image, dimensions);
+		assertNotNull(webpImage);
+
+		assertThat(ImageHeader.read(ByteBuffer.wrap(webpImage)), is(equalTo(new Dimensions(expectedWidth, expectedHeight))));
+		assertThat((long) webpImage.length, is(lessThanOrEqualTo(MAX_IMAGE_FILE_SIZE)));
+	}
+
+	@Test
+	void imageWithoutDecoderIsNotConverted() throws Exception {
+		var image = loadResource("static.webp");
+
+		assertThat(InProcessImageConverter.convert(image, new Dimensions(512, 1024)), is(nullValue()));
+	}
+}
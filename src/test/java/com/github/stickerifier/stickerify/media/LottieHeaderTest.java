@@ -0,0 +1,87 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.media.LottieHeader.Details;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.ANIMATED_STICKER)
+class LottieHeaderTest {
+
+	@TempDir
+	private Path directory;
+
+	@ParameterizedTest
+	@CsvSource({
+			"animated_sticker.tgs, 512, 512, 60, 0, 120",
+			"low_fps_animated_sticker.tgs, 512, 512, 30, 0, 60",
+			"non_compliant_animated_sticker.tgs, 100, 100, 30, 0, 84"
+	})
+	void detailsAreReadFromTopLevelFields(String fileName, int width, int height, int frameRate, float start, float end) throws Exception {
+		var details = LottieHeader.read(loadResource(fileName));
+
+		assertThat(details, is(equalTo(new Details(width, height, frameRate, start, end))));
+	}
+
+	@Test
+	void readingStopsOnceAllFieldsAreFound() throws Exception {
+		var content = """
+				{"w":512,"h":512,"fr":60,"ip":0,"op":120,"layers":[ this isn't JSON""";
+
+		var details = LottieHeader.read(new ByteArrayInputStream(content.getBytes(UTF_8)));
+
+		assertThat(details, is(equalTo(new Details(512, 512, 60, 0, 120))));
+	}
+
+	@Test
+	void repeatedFieldsDontReplaceMissingOnes() throws Exception {
+		var content = """
+				{"w":512,"w":512,"w":512,"fr":60,"ip":0,"op":120}""";
+
+		assertThat(LottieHeader.read(new ByteArrayInputStream(content.getBytes(UTF_8))), is(nullValue()));
+	}
+
+	@Test
+	void contentWithoutAnimationHasNoDetails() throws Exception {
+		assertThat(LottieHeader.read(loadResource("unsupported_archive.gz")), is(nullValue()));
+	}
+
+	@Test
+	void deeplyNestedContentHasNoDetails() throws Exception {
+		var content = "{\"layers\":" + "[".repeat(LottieHeader.MAX_NESTING_DEPTH + 1);
+
+		assertThat(LottieHeader.read(new ByteArrayInputStream(content.getBytes(UTF_8))), is(nullValue()));
+	}
+
+	@Test
+	void oversizedContentIsRejected() throws Exception {
+		var archive = directory.resolve("bomb.tgs");
+		try (var outputStream = new GZIPOutputStream(Files.newOutputStream(archive))) {
+			outputStream.write("{\"nm\":\"".getBytes(UTF_8));
+			var padding = "a".repeat(1024 * 1024).getBytes(UTF_8);
+			for (int i = 0; i <= LottieHeader.MAX_DECOMPRESSED_SIZE / padding.length; i++) {
+				outputStream.write(padding);
+			}
+		}
+
+		assertThrows(IOException.class, () -> LottieHeader.read(archive.toFile()));
+	}
+}
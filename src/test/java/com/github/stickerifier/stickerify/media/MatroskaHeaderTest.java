@@ -0,0 +1,60 @@
+package com.github.stickerifier.stickerify.media;
+
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.media.MatroskaHeader.Details;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.VIDEO)
+class MatroskaHeaderTest {
+
+	@ParameterizedTest
+	@CsvSource({
+			"no_conversion_needed.webm, 512, 288, 1.2, 10",
+			"short_low_fps.webm, 500, 282, 1.0, 10",
+			"small_video_sticker.webm, 500, 208, 2.6, 30",
+			"vertical_video_sticker.webm, 282, 500, 2.0, 30"
+	})
+	void detailsAreReadFromStructure(String fileName, int expectedWidth, int expectedHeight, double expectedDuration, double expectedFrameRate) throws Exception {
+		var details = MatroskaHeader.read(loadResource(fileName));
+
+		assertThat(details, is(notNullValue()));
+		assertThat(details.docType(), is(equalTo("webm")));
+		assertThat(details.hasAudio(), is(false));
+		assertThat(details.duration(), is(closeTo(expectedDuration, 0.05)));
+		assertThat(details.estimatedFrameRate(), is(closeTo(expectedFrameRate, 0.5)));
+
+		var videoTrack = details.videoTrack();
+		assertThat(videoTrack, is(notNullValue()));
+		assertThat(videoTrack.codec(), is(equalTo("V_VP9")));
+		assertThat(videoTrack.width(), is(equalTo(expectedWidth)));
+		assertThat(videoTrack.height(), is(equalTo(expectedHeight)));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "highly_accurate_fps_count.mp4", "static.webp", "document.txt" })
+	void otherFormatsAreNotMatroska(String fileName) throws Exception {
+		assertThat(MatroskaHeader.read(loadResource(fileName)), is(equalTo(Details.NOT_MATROSKA)));
+	}
+
+	@Test
+	void truncatedVideoIsMalformed() throws Exception {
+		var content = ByteBuffer.wrap(Files.readAllBytes(loadResource("short_low_fps.webm").toPath()));
+
+		assertThat(MatroskaHeader.read(content.slice(0, 64)), is(nullValue()));
+	}
+}
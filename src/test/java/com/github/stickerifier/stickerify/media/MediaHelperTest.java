@@ -5,9 +5,11 @@ import static com.github.stickerifier.stickerify.media.MediaConstraints.MATROSKA
 import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_IMAGE_FILE_SIZE;
 import static com.github.stickerifier.stickerify.media.MediaConstraints.MAX_VIDEO_FILE_SIZE;
 import static com.github.stickerifier.stickerify.media.MediaConstraints.VP9_CODEC;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.nullValue;
@@ -18,6 +20,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import com.github.stickerifier.stickerify.exception.MediaException;
+import com.github.stickerifier.stickerify.exception.UnsupportedMediaException;
 import com.github.stickerifier.stickerify.junit.ClearTempFiles;
 import com.github.stickerifier.stickerify.junit.Tags;
 import com.github.stickerifier.stickerify.process.ProcessHelper;
@@ -29,6 +32,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,26 +52,34 @@ class MediaHelperTest {
 		assertImageConsistency(result, 512, 341);
 	}
 
-	private static void assertImageConsistency(@Nullable File image, int expectedWidth, int expectedHeight) throws Exception {
+	private static void assertImageConsistency(@Nullable ConvertedMedia image, int expectedWidth, int expectedHeight) throws Exception {
 		assertNotNull(image);
 
-		var mediaInfo = MediaHelper.retrieveMultimediaInfo(image);
+		var mediaInfo = MediaHelper.retrieveMultimediaInfo(toFile(image));
 		var imageInfo = mediaInfo.video();
 		assertNotNull(imageInfo);
 		var formatInfo = mediaInfo.format();
 		assertNotNull(formatInfo);
-		var actualExtension = getExtension(image);
+		var actualExtension = image.fileExtension();
 
 		assertAll("Image validation failed",
-				() -> assertThat("image's extension must be webp", actualExtension, is(equalTo(".webp"))),
+				() -> assertThat("image must be kept in memory", image, is(instanceOf(ConvertedMedia.InMemory.class))),
+				() -> assertThat("image's extension must be webp", actualExtension, is(equalTo("webp"))),
 				() -> assertThat("image's width is not correct", imageInfo.width(), is(equalTo(expectedWidth))),
 				() -> assertThat("image's height is not correct", imageInfo.height(), is(equalTo(expectedHeight))),
 				() -> assertThat("image size should not exceed 512 KB", formatInfo.size(), is(lessThanOrEqualTo(MAX_IMAGE_FILE_SIZE)))
 		);
 	}
 
-	private static String getExtension(File file) {
-		return file.getName().substring(file.getName().lastIndexOf('.'));
+	private static File toFile(ConvertedMedia media) throws Exception {
+		return switch (media) {
+			case ConvertedMedia.OnDisk(var file) -> file;
+			case ConvertedMedia.InMemory(var fileExtension, var content) -> {
+				var file = File.createTempFile("Stickerify-", "." + fileExtension);
+				Files.write(file.toPath(), content);
+				yield file;
+			}
+		};
 	}
 
 	@Test
@@ -158,20 +171,20 @@ class MediaHelperTest {
 		assertVideoConsistency(result, 512, 288, 29.97003F, 2.969F);
 	}
 
-	private static void assertVideoConsistency(@Nullable File video, int expectedWidth, int expectedHeight, float expectedFrameRate, float expectedDuration) throws Exception {
+	private static void assertVideoConsistency(@Nullable ConvertedMedia video, int expectedWidth, int expectedHeight, float expectedFrameRate, float expectedDuration) throws Exception {
 		assertNotNull(video);
 
-		var mediaInfo = MediaHelper.retrieveMultimediaInfo(video);
+		var mediaInfo = MediaHelper.retrieveMultimediaInfo(toFile(video));
 		var videoInfo = mediaInfo.video();
 		assertNotNull(videoInfo);
 		var formatInfo = mediaInfo.format();
 		assertNotNull(formatInfo);
 		assertNotNull(formatInfo.duration());
 
-		var actualExtension = getExtension(video);
+		var actualExtension = video.fileExtension();
 
 		assertAll("Video validation failed",
-				() -> assertThat("video's extension must be webm", actualExtension, is(equalTo(".webm"))),
+				() -> assertThat("video's extension must be webm", actualExtension, is(equalTo("webm"))),
 				() -> assertThat("video's width is not correct", videoInfo.width(), is(equalTo(expectedWidth))),
 				() -> assertThat("video's height is not correct", videoInfo.height(), is(equalTo(expectedHeight))),
 				() -> assertThat("video's frame rate is not correct", videoInfo.frameRate(), is(equalTo(expectedFrameRate))),
@@ -282,6 +295,15 @@ class MediaHelperTest {
 		assertVideoConsistency(result, 512, 434, 26F, 2.961F);
 	}
 
+	@Test
+	@Tag(Tags.VIDEO)
+	void resizeVideoInSinglePass() throws Exception {
+		var mp4Video = loadResource("highly_accurate_fps_count.mp4");
+		var result = MediaHelper.convert(mp4Video, VideoEncoding.SINGLE_PASS);
+
+		assertVideoConsistency(result, 512, 434, 26F, 2.961F);
+	}
+
 	@Test
 	@Tag(Tags.ANIMATED_STICKER)
 	void noAnimatedStickerConversionNeeded() throws Exception {
@@ -318,6 +340,23 @@ class MediaHelperTest {
 		assertThat(ex.getMessage(), equalTo("The file with application/gzip MIME type is not supported"));
 	}
 
+	@Test
+	@Tag(Tags.UNSUPPORTED_FILE)
+	void imageWithTooManyPixels() throws Exception {
+		var header = ByteBuffer.allocate(33)
+				.put(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' })
+				.putInt(13)
+				.put("IHDR".getBytes(US_ASCII))
+				.putInt(50_000)
+				.putInt(50_000)
+				.put(new byte[] { 8, 6, 0, 0, 0, 0, 0, 0, 0 });
+		var pixelBomb = File.createTempFile("Stickerify-", ".png");
+		Files.write(pixelBomb.toPath(), header.array());
+
+		var ex = assertThrows(UnsupportedMediaException.class, () -> MediaHelper.convert(pixelBomb));
+		assertThat(ex.getMessage(), equalTo("The image size 50000x50000 exceeds the maximum of 100000000 pixels"));
+	}
+
 	@Test
 	@Tag(Tags.UNSUPPORTED_FILE)
 	void unsupportedFile() {
@@ -0,0 +1,51 @@
+package com.github.stickerifier.stickerify.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.process.Progress;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.VIDEO)
+class SizeLimitMonitorTest {
+
+	private static final long MAX_BYTES = 1000;
+
+	@Test
+	void encodeExceedingTheLimitIsAborted() {
+		var monitor = new SizeLimitMonitor(MAX_BYTES, 0);
+
+		assertThat(monitor.onProgress(new Progress(Duration.ofSeconds(1), MAX_BYTES, 1)), is(true));
+		assertThat(monitor.onProgress(new Progress(Duration.ofSeconds(2), MAX_BYTES + 1, 1)), is(false));
+	}
+
+	@Test
+	void projectionIsOnlyTrustedPastHalfOfTheVideo() {
+		var monitor = new SizeLimitMonitor(MAX_BYTES, 4);
+
+		assertThat(monitor.onProgress(new Progress(Duration.ofSeconds(1), 900, 1)), is(true));
+		assertThat(monitor.onProgress(new Progress(Duration.ofSeconds(2), 900, 1)), is(false));
+		assertThat(monitor.projectedBytes(), is(equalTo(1800L)));
+	}
+
+	@Test
+	void slightOvershootIsLeftToRateControl() {
+		var monitor = new SizeLimitMonitor(MAX_BYTES, 4);
+
+		assertThat(monitor.onProgress(new Progress(Duration.ofSeconds(2), 600, 1)), is(true));
+		assertThat(monitor.projectedBytes(), is(equalTo(1200L)));
+	}
+
+	@Test
+	void unknownSizeIsIgnored() {
+		var monitor = new SizeLimitMonitor(MAX_BYTES, 4);
+
+		assertThat(monitor.onProgress(new Progress(Duration.ZERO, -1, 0)), is(true));
+	}
+}
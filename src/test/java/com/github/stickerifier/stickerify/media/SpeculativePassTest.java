@@ -0,0 +1,68 @@
+package com.github.stickerifier.stickerify.media;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.VIDEO)
+class SpeculativePassTest {
+
+	@TempDir
+	private Path directory;
+
+	private static List<String> writeAfter(int seconds, Path output) {
+		return List.of("sh", "-c", "sleep " + seconds + " && printf speculative > " + output);
+	}
+
+	@Test
+	void resultIsUsedWhenTheMainPassOvershoots() throws Exception {
+		var output = directory.resolve("speculative.webm");
+		var target = directory.resolve("video.webm");
+		Files.writeString(target, "too large", UTF_8);
+
+		try (var speculativePass = SpeculativePass.prepare(writeAfter(0, output), output.toFile())) {
+			speculativePass.start();
+
+			assertThat(speculativePass.awaitInto(target.toFile()), is(true));
+		}
+
+		assertThat(Files.readString(target, UTF_8), is("speculative"));
+	}
+
+	@Test
+	void passIsCancelledWhenTheMainPassFits() throws Exception {
+		var output = directory.resolve("speculative.webm");
+		var start = System.nanoTime();
+
+		try (var speculativePass = SpeculativePass.prepare(writeAfter(30, output), output.toFile())) {
+			speculativePass.start();
+		}
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start), is(lessThan(Duration.ofSeconds(10))));
+		assertThat(Files.exists(output), is(false));
+	}
+
+	@Test
+	void passNeverStartedIsIgnored() throws Exception {
+		var output = directory.resolve("speculative.webm");
+		var target = directory.resolve("video.webm");
+
+		try (var speculativePass = SpeculativePass.prepare(writeAfter(0, output), output.toFile())) {
+			assertThat(speculativePass.awaitInto(target.toFile()), is(false));
+		}
+
+		assertThat(Files.exists(target), is(false));
+	}
+}
@@ -0,0 +1,69 @@
+package com.github.stickerifier.stickerify.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.process.ProcessHelper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Random;
+
+@Tag(Tags.MEDIA)
+@Tag(Tags.IMAGE)
+class WebpEncoderTest {
+
+	@Test
+	void opaqueImageIsEncodedLosslessly() throws Exception {
+		var width = 301;
+		var height = 97;
+		var pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			var x = i % width;
+			var y = i / width;
+			pixels[i] = 0xFF000000 | (x & 0xFF) << 16 | (y * 2 & 0xFF) << 8 | (x + y & 0xFF);
+		}
+
+		assertThat(decode(WebpEncoder.encodeLossless(pixels, width, height), pixels.length), is(equalTo(pixels)));
+	}
+
+	@Test
+	void transparentImageIsEncodedLosslessly() throws Exception {
+		var width = 64;
+		var height = 64;
+		var pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = i < pixels.length / 2 ? 0x00000000 : 0x80FF2040;
+		}
+
+		assertThat(decode(WebpEncoder.encodeLossless(pixels, width, height), pixels.length), is(equalTo(pixels)));
+	}
+
+	@Test
+	void noiseIsEncodedLosslessly() throws Exception {
+		var width = 128;
+		var height = 65;
+		var random = new Random(42);
+		var pixels = random.ints(width * height).toArray();
+
+		assertThat(decode(WebpEncoder.encodeLossless(pixels, width, height), pixels.length), is(equalTo(pixels)));
+	}
+
+	private static int[] decode(byte[] webpImage, int pixelsCount) throws Exception {
+		var command = List.of("ffmpeg", "-v", "error", "-i", "pipe:0", "-f", "rawvideo", "-pix_fmt", "bgra", "pipe:1");
+
+		var rawImage = ProcessHelper.executeCommandCapturingOutput(command, Channels.newChannel(new ByteArrayInputStream(webpImage)), pixelsCount * 4);
+
+		var pixels = new int[rawImage.length / 4];
+		ByteBuffer.wrap(rawImage).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
+
+		return pixels;
+	}
+}
@@ -0,0 +1,129 @@
+package com.github.stickerifier.stickerify.process;
+
+import static com.github.stickerifier.stickerify.ResourceHelper.loadResource;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.stickerifier.stickerify.exception.ProcessAbortedException;
+import com.github.stickerifier.stickerify.exception.ProcessException;
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Tag(Tags.VIDEO)
+class ProcessHelperTest {
+
+	private static List<String> decodeCommand() {
+		return List.of(
+				"ffmpeg",
+				"-v", "error",
+				"-i", loadResource("highly_accurate_fps_count.mp4").getAbsolutePath(),
+				"-f", "null",
+				OsConstants.NULL_FILE
+		);
+	}
+
+	@Test
+	void progressIsReportedUntilTheEnd() throws Exception {
+		var reports = new CopyOnWriteArrayList<Progress>();
+
+		var last = ProcessHelper.executeCommandWithProgress(decodeCommand(), reports::add);
+
+		assertThat(reports, is(not(empty())));
+		assertThat(last, is(reports.getLast()));
+		assertThat(last.outTime(), is(greaterThan(Duration.ofSeconds(2))));
+		assertThat(last.speed(), is(greaterThan(0D)));
+	}
+
+	@Test
+	void listenerAbortsTheCommand() {
+		assertThrows(ProcessAbortedException.class, () -> ProcessHelper.executeCommandWithProgress(decodeCommand(), _ -> false));
+	}
+
+	@Test
+	void commandIsNotExecutedWhileItsLaneIsBusy() throws Exception {
+		var sleep = List.of("sleep", "30");
+		var capacity = imageLane().capacity();
+		var sleepers = new ArrayList<Thread>();
+
+		try {
+			for (int i = 0; i < capacity; i++) {
+				sleepers.add(Thread.ofVirtual().start(() -> {
+					try {
+						ProcessHelper.executeCommand(sleep);
+					} catch (Exception _) {
+						// interrupted once the test is over
+					}
+				}));
+			}
+
+			while (imageLane().running() < capacity) {
+				Thread.sleep(10);
+			}
+
+			assertThat(ProcessHelper.executeCommandIfIdle(List.of("true")), is(nullValue()));
+		} finally {
+			sleepers.forEach(Thread::interrupt);
+			for (var sleeper : sleepers) {
+				sleeper.join();
+			}
+		}
+
+		assertThat(ProcessHelper.executeCommandIfIdle(List.of("true")), is(""));
+	}
+
+	@Test
+	void inProcessTaskRunsHoldingAnImagePermit() throws Exception {
+		var runningInLane = ProcessHelper.executeInProcess(1_000_000, () -> imageLane().running());
+
+		assertThat(runningInLane, is(1));
+		assertThat(imageLane().running(), is(0));
+	}
+
+	private static ProcessScheduler.LaneStats imageLane() {
+		return ProcessHelper.schedulerStats().stream().filter(stats -> stats.lane() == ProcessScheduler.Lane.IMAGE).findFirst().orElseThrow();
+	}
+
+	@Test
+	void stalledProcessIsKilled() {
+		var start = System.nanoTime();
+
+		var exception = assertThrows(ProcessException.class, () -> ProcessHelper.executeCommandWithStallTimeout(List.of("sleep", "30"), Duration.ofSeconds(1)));
+
+		assertThat(exception.getMessage(), containsString("made no progress"));
+		assertThat(Duration.ofNanos(System.nanoTime() - start), is(lessThan(Duration.ofSeconds(10))));
+	}
+
+	@Test
+	void sleepingProcessIsChargedAlmostNoCpuTime() throws Exception {
+		var charged = new AtomicReference<Duration>();
+
+		ScopedValue.where(ProcessHelper.CPU_METER, charged::set).call(() -> ProcessHelper.executeCommand(List.of("sleep", "1")));
+
+		assertThat(charged.get(), is(lessThan(Duration.ofMillis(100))));
+	}
+
+	@Test
+	void startedActionRunsOnceBeforeTheFirstReport() throws Exception {
+		var reportsWhenStarted = new CopyOnWriteArrayList<Integer>();
+		var reports = new CopyOnWriteArrayList<Progress>();
+
+		ProcessHelper.executeCommandWithProgress(decodeCommand(), reports::add, () -> reportsWhenStarted.add(reports.size()));
+
+		assertThat(reportsWhenStarted, is(List.of(0)));
+		assertThat(reports, is(not(empty())));
+	}
+}
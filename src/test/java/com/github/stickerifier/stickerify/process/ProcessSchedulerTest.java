@@ -0,0 +1,100 @@
+package com.github.stickerifier.stickerify.process;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.process.ProcessScheduler.Job;
+import com.github.stickerifier.stickerify.process.ProcessScheduler.Lane;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Tag(Tags.CONCURRENT)
+class ProcessSchedulerTest {
+
+	private static final long MEBIBYTE = 1024 * 1024;
+
+	@Test
+	void commandsAreSplitIntoLanes() {
+		assertThat(Job.of(List.of("ffprobe", "-i", "missing.mp4")), is(equalTo(new Job(Lane.PROBE, 1, 0))));
+		assertThat(Job.of(List.of("ffmpeg", "-i", "pipe:0", "-c:v", "libwebp", "pipe:1")), is(equalTo(new Job(Lane.IMAGE, 1, 0))));
+		assertThat(Job.of(List.of("ffmpeg", "-i", "missing.gif", "-c:v", "libvpx-vp9", "-threads", "2", "out.webm")), is(equalTo(new Job(Lane.VIDEO, 2, 0))));
+	}
+
+	@Test
+	void cheapestJobRunsFirst() throws Exception {
+		var scheduler = new ProcessScheduler(1, 1, 1);
+		var order = new CopyOnWriteArrayList<Long>();
+
+		var holder = scheduler.acquire(new Job(Lane.IMAGE, 1, 0));
+		var expensive = startWaiting(scheduler, new Job(Lane.IMAGE, 1, 10 * MEBIBYTE), order);
+		awaitQueued(scheduler, 1);
+		var cheap = startWaiting(scheduler, new Job(Lane.IMAGE, 1, MEBIBYTE), order);
+		awaitQueued(scheduler, 2);
+
+		holder.close();
+		expensive.join();
+		cheap.join();
+
+		assertThat(order, contains(MEBIBYTE, 10 * MEBIBYTE));
+	}
+
+	@Test
+	void waitingMakesExpensiveJobsCheaper() throws Exception {
+		var scheduler = new ProcessScheduler(1, 1, 1);
+		var order = new CopyOnWriteArrayList<Long>();
+
+		var holder = scheduler.acquire(new Job(Lane.IMAGE, 1, 0));
+		var expensive = startWaiting(scheduler, new Job(Lane.IMAGE, 1, MEBIBYTE), order);
+		awaitQueued(scheduler, 1);
+		Thread.sleep(1500);
+		var cheap = startWaiting(scheduler, new Job(Lane.IMAGE, 1, 0), order);
+		awaitQueued(scheduler, 2);
+
+		holder.close();
+		expensive.join();
+		cheap.join();
+
+		assertThat(order, contains(MEBIBYTE, 0L));
+	}
+
+	@Test
+	void lanesDontShareCapacity() throws Exception {
+		var scheduler = new ProcessScheduler(1, 1, 2);
+
+		try (var _ = scheduler.acquire(new Job(Lane.VIDEO, 2, 0))) {
+			assertThat(scheduler.tryAcquire(new Job(Lane.VIDEO, 2, 0)), is(nullValue()));
+
+			try (var imagePermit = scheduler.tryAcquire(new Job(Lane.IMAGE, 1, 0))) {
+				assertThat(imagePermit, is(notNullValue()));
+			}
+		}
+
+		var videoStats = scheduler.stats().get(Lane.VIDEO.ordinal());
+		assertThat(videoStats.running(), is(equalTo(0)));
+		assertThat(videoStats.started(), is(equalTo(1L)));
+	}
+
+	private static Thread startWaiting(ProcessScheduler scheduler, Job job, List<Long> order) {
+		return Thread.ofVirtual().start(() -> {
+			try (var _ = scheduler.acquire(job)) {
+				order.add(job.cost());
+			} catch (InterruptedException _) {
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+
+	private static void awaitQueued(ProcessScheduler scheduler, int queued) throws InterruptedException {
+		while (scheduler.stats().get(Lane.IMAGE.ordinal()).queued() < queued) {
+			Thread.sleep(10);
+		}
+	}
+}
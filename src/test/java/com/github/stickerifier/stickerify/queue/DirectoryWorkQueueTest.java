@@ -0,0 +1,178 @@
+package com.github.stickerifier.stickerify.queue;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import com.github.stickerifier.stickerify.telegram.model.TelegramRequest;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.utility.BotUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+@Tag(Tags.CONCURRENT)
+class DirectoryWorkQueueTest {
+
+	private static final Duration LEASE_DURATION = Duration.ofMinutes(1);
+
+	@TempDir
+	private Path directory;
+
+	private long now = System.currentTimeMillis();
+
+	private DirectoryWorkQueue openQueue() throws Exception {
+		return DirectoryWorkQueue.open(directory, LEASE_DURATION, () -> now);
+	}
+
+	@Test
+	void requestOfferedByPollerIsClaimedByWorker() throws Exception {
+		var poller = openQueue();
+		var worker = openQueue();
+
+		poller.offer(request(1));
+		var lease = worker.claim();
+
+		assertThat(lease.request().getMessageId(), is(equalTo(1)));
+		assertThat(lease.request().getChatId(), is(equalTo(1L)));
+		assertThat(lease.request().message().text(), is(equalTo("/start 1")));
+
+		lease.complete();
+
+		try (var files = Files.walk(directory)) {
+			assertThat(files.filter(Files::isRegularFile).count(), is(equalTo(0L)));
+		}
+	}
+
+	@Test
+	void eachRequestIsClaimedByOneWorker() throws Exception {
+		var poller = openQueue();
+		for (int i = 1; i <= 20; i++) {
+			poller.offer(request(i));
+		}
+
+		List<Integer> claimed = Collections.synchronizedList(new ArrayList<>());
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int worker = 0; worker < 4; worker++) {
+				var workQueue = openQueue();
+				executor.execute(() -> {
+					for (int i = 0; i < 5; i++) {
+						try {
+							claimed.add(workQueue.claim().request().getMessageId());
+						} catch (InterruptedException e) {
+							throw new AssertionError(e);
+						}
+					}
+				});
+			}
+		}
+
+		assertThat(claimed, containsInAnyOrder(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20));
+	}
+
+	@Test
+	void expiredLeaseIsClaimedByAnotherWorker() throws Exception {
+		var workQueue = openQueue();
+		workQueue.offer(request(1));
+		var lease = workQueue.claim();
+
+		now += LEASE_DURATION.plusSeconds(1).toMillis();
+
+		var otherLease = openQueue().claim();
+		assertThat(otherLease.request().getMessageId(), is(equalTo(1)));
+		assertThat(lease.renew(), is(false));
+
+		lease.complete();
+		assertThat(otherLease.renew(), is(true));
+	}
+
+	@Test
+	void renewedLeaseDoesNotExpire() throws Exception {
+		var workQueue = openQueue();
+		workQueue.offer(request(1));
+		workQueue.offer(request(2));
+		var lease = workQueue.claim();
+
+		now += LEASE_DURATION.minusSeconds(1).toMillis();
+		assertThat(lease.renew(), is(true));
+		now += LEASE_DURATION.minusSeconds(1).toMillis();
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(2)));
+		assertThat(workQueue.stats().expired(), is(equalTo(0L)));
+	}
+
+	@Test
+	void leaseRenewedBeforeBeingReapedIsGivenBack() throws Exception {
+		var workQueue = openQueue();
+		workQueue.offer(request(1));
+		workQueue.offer(request(2));
+		var lease = workQueue.claim();
+
+		// a node stopped right after moving the renewed lease into the reaping directory
+		moveLeasesInto("reaping");
+		assertThat(lease.renew(), is(false));
+
+		assertThat(openQueue().claim().request().getMessageId(), is(equalTo(2)));
+		assertThat(lease.renew(), is(true));
+		assertThat(workQueue.stats().expired(), is(equalTo(0L)));
+	}
+
+	@Test
+	void expiredLeaseLeftBeingReapedIsClaimedByAnotherWorker() throws Exception {
+		var workQueue = openQueue();
+		workQueue.offer(request(1));
+		var lease = workQueue.claim();
+
+		moveLeasesInto("reaping");
+		now += LEASE_DURATION.plusSeconds(1).toMillis();
+
+		var otherLease = openQueue().claim();
+		assertThat(otherLease.request().getMessageId(), is(equalTo(1)));
+		assertThat(lease.renew(), is(false));
+	}
+
+	@Test
+	void closedQueueHandsOutNothing() throws Exception {
+		var workQueue = openQueue();
+		workQueue.offer(request(1));
+		workQueue.close();
+
+		assertThat(workQueue.claim(), is(nullValue()));
+	}
+
+	private void moveLeasesInto(String target) throws Exception {
+		try (var files = Files.list(directory.resolve("leased"))) {
+			for (var file : files.toList()) {
+				Files.move(file, directory.resolve(target).resolve(file.getFileName()));
+			}
+		}
+	}
+
+	static TelegramRequest request(int messageId) {
+		var message = BotUtils.fromJson("""
+				{
+					message_id: %d,
+					from: {
+						id: 123456
+					},
+					chat: {
+						id: 1
+					},
+					text: "/start %1$d"
+				}
+				""".formatted(messageId), Message.class);
+
+		return new TelegramRequest(message);
+	}
+}
@@ -0,0 +1,84 @@
+package com.github.stickerifier.stickerify.queue;
+
+import static com.github.stickerifier.stickerify.queue.DirectoryWorkQueueTest.request;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+@Tag(Tags.CONCURRENT)
+class InMemoryWorkQueueTest {
+
+	private static final Duration LEASE_DURATION = Duration.ofMinutes(1);
+
+	private long now;
+	private final InMemoryWorkQueue workQueue = new InMemoryWorkQueue(LEASE_DURATION, () -> now);
+
+	@Test
+	void requestsAreClaimedInOrder() throws Exception {
+		workQueue.offer(request(1));
+		workQueue.offer(request(2));
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(1)));
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(2)));
+	}
+
+	@Test
+	void expiredLeaseIsClaimedAgain() throws Exception {
+		workQueue.offer(request(1));
+		workQueue.offer(request(2));
+		var lease = workQueue.claim();
+
+		now += LEASE_DURATION.plusSeconds(1).toNanos();
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(1)));
+		assertThat(lease.renew(), is(false));
+		assertThat(workQueue.stats().expired(), is(equalTo(1L)));
+	}
+
+	@Test
+	void renewedLeaseDoesNotExpire() throws Exception {
+		workQueue.offer(request(1));
+		workQueue.offer(request(2));
+		var lease = workQueue.claim();
+
+		now += LEASE_DURATION.minusSeconds(1).toNanos();
+		assertThat(lease.renew(), is(true));
+		now += LEASE_DURATION.minusSeconds(1).toNanos();
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(2)));
+	}
+
+	@Test
+	void completedRequestIsNotClaimedAgain() throws Exception {
+		workQueue.offer(request(1));
+		workQueue.claim().complete();
+
+		now += LEASE_DURATION.plusSeconds(1).toNanos();
+		workQueue.offer(request(2));
+
+		assertThat(workQueue.claim().request().getMessageId(), is(equalTo(2)));
+		assertThat(workQueue.stats(), is(equalTo(new WorkQueue.Stats(2, 2, 1, 0))));
+	}
+
+	@Test
+	void closingWakesUpWaitingWorkers() throws Exception {
+		var worker = Thread.ofVirtual().start(() -> {
+			try {
+				assertThat(workQueue.claim(), is(nullValue()));
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+		});
+
+		workQueue.close();
+
+		assertThat(worker.join(Duration.ofSeconds(5)), is(true));
+	}
+}
@@ -0,0 +1,116 @@
+package com.github.stickerifier.stickerify.telegram;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.stickerifier.stickerify.junit.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+@Tag(Tags.CONCURRENT)
+class RateLimiterTest {
+
+	private static final long PRIVATE_CHAT = 1;
+	private static final long OTHER_PRIVATE_CHAT = 2;
+	private static final long GROUP_CHAT = -1;
+
+	private long now;
+	private final RateLimiter rateLimiter = new RateLimiter(() -> now);
+
+	@Test
+	void burstIsSentRightAway() {
+		for (int i = 0; i < 3; i++) {
+			assertThat(rateLimiter.reserve(PRIVATE_CHAT), is(equalTo(0L)));
+		}
+	}
+
+	@Test
+	void privateChatsGetOneMessagePerSecond() {
+		for (int i = 0; i < 3; i++) {
+			rateLimiter.reserve(PRIVATE_CHAT);
+		}
+
+		assertThat(rateLimiter.reserve(PRIVATE_CHAT), is(equalTo(seconds(1))));
+		assertThat(rateLimiter.reserve(PRIVATE_CHAT), is(equalTo(seconds(2))));
+		assertThat(rateLimiter.reserve(OTHER_PRIVATE_CHAT), is(equalTo(0L)));
+
+		advance(Duration.ofSeconds(10));
+
+		assertThat(rateLimiter.reserve(PRIVATE_CHAT), is(equalTo(0L)));
+	}
+
+	@Test
+	void groupChatsGetTwentyMessagesPerMinute() {
+		for (int i = 0; i < 3; i++) {
+			rateLimiter.reserve(GROUP_CHAT);
+		}
+
+		assertThat(rateLimiter.reserve(GROUP_CHAT), is(equalTo(seconds(3))));
+	}
+
+	@Test
+	void globalRateIsSharedByAllChats() {
+		for (int chat = 1; chat <= 30; chat++) {
+			assertThat(rateLimiter.reserve(chat), is(equalTo(0L)));
+		}
+
+		assertThat(rateLimiter.reserve(31), is(equalTo(Duration.ofSeconds(1).dividedBy(30).toNanos())));
+	}
+
+	@Test
+	void pauseOnlyDelaysTheChat() {
+		rateLimiter.pause(PRIVATE_CHAT, Duration.ofSeconds(5));
+
+		assertThat(rateLimiter.reserve(PRIVATE_CHAT), is(equalTo(seconds(5))));
+		assertThat(rateLimiter.reserve(OTHER_PRIVATE_CHAT), is(equalTo(0L)));
+
+		var stats = rateLimiter.stats();
+		assertThat(stats.reservations(), is(equalTo(2L)));
+		assertThat(stats.delayed(), is(equalTo(1L)));
+		assertThat(stats.pauses(), is(equalTo(1L)));
+	}
+
+	@Test
+	void chatsGetOneNoticePerMinute() {
+		assertThat(rateLimiter.tryAcquireNotice(PRIVATE_CHAT), is(true));
+		assertThat(rateLimiter.tryAcquireNotice(PRIVATE_CHAT), is(false));
+		assertThat(rateLimiter.tryAcquireNotice(OTHER_PRIVATE_CHAT), is(true));
+
+		advance(Duration.ofMinutes(1));
+
+		assertThat(rateLimiter.tryAcquireNotice(PRIVATE_CHAT), is(true));
+		assertThat(rateLimiter.stats().droppedNotices(), is(equalTo(1L)));
+	}
+
+	@Test
+	void noticesAreDroppedWhenTheGlobalRateIsSaturated() {
+		for (int chat = 1; chat <= 31; chat++) {
+			rateLimiter.reserve(chat);
+		}
+
+		assertThat(rateLimiter.tryAcquireNotice(32), is(false));
+
+		advance(Duration.ofSeconds(1));
+
+		assertThat(rateLimiter.tryAcquireNotice(32), is(true));
+	}
+
+	@Test
+	void noticesAreDroppedWhenTheChatIsSaturated() {
+		rateLimiter.pause(PRIVATE_CHAT, Duration.ofSeconds(5));
+
+		assertThat(rateLimiter.tryAcquireNotice(PRIVATE_CHAT), is(false));
+		assertThat(rateLimiter.tryAcquireNotice(OTHER_PRIVATE_CHAT), is(true));
+	}
+
+	private void advance(Duration duration) {
+		now += duration.toNanos();
+	}
+
+	private static long seconds(long seconds) {
+		return Duration.ofSeconds(seconds).toNanos();
+	}
+}